@@ -0,0 +1,70 @@
+package net.namekdev.entity_tracker.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import net.namekdev.entity_tracker.utils.ArrayPool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Obtaining and freeing array from pool which already keeps given count of arrays,
+ * either synchronized or from per-thread cache.
+ *
+ * @author Namek
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArrayPoolBenchmark {
+	@Param({ "1", "64", "1024" })
+	int pooledCount;
+
+	@Param({ "false", "true" })
+	boolean perThreadCache;
+
+	ArrayPool<Object> pool;
+	int size;
+
+
+	@Setup
+	public void setup() {
+		pool = new ArrayPool<Object>(Object.class, perThreadCache, pooledCount);
+
+		Object[][] arrays = new Object[pooledCount][];
+		for (int i = 0; i < pooledCount; ++i) {
+			arrays[i] = pool.obtain(1 + i % 32, true);
+		}
+		for (int i = 0; i < pooledCount; ++i) {
+			pool.free(arrays[i]);
+		}
+
+		size = 2 + pooledCount / 2 % 31;
+	}
+
+	@Benchmark
+	public Object[] obtainAndFree() {
+		Object[] array = pool.obtain(size, true);
+		pool.free(array, true);
+		return array;
+	}
+
+	@Benchmark
+	public Object[] obtainBiggerAndFree() {
+		Object[] array = pool.obtain(size - 1, false);
+		pool.free(array, true);
+		return array;
+	}
+}
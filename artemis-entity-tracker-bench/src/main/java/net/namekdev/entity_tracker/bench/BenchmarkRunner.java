@@ -0,0 +1,29 @@
+package net.namekdev.entity_tracker.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks with GC profiler, so allocation rate is reported next to every score.
+ * Accepts the same arguments as JMH, e.g. benchmark name regexp.
+ *
+ * <pre>java -jar artemis-entity-tracker-bench/target/benchmarks.jar Serialization</pre>
+ *
+ * @author Namek
+ */
+public class BenchmarkRunner {
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+
+		new Runner(
+			new OptionsBuilder()
+				.parent(commandLine)
+				.addProfiler(GCProfiler.class)
+				.build()
+		).run();
+	}
+}
@@ -0,0 +1,102 @@
+package net.namekdev.entity_tracker.bench;
+
+import java.net.SocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import net.namekdev.entity_tracker.EntityTracker;
+import net.namekdev.entity_tracker.connectors.DummyWorldUpdateListener;
+import net.namekdev.entity_tracker.connectors.WorldUpdateListener;
+import net.namekdev.entity_tracker.network.base.RawConnectionOutputListener;
+import net.namekdev.entity_tracker.network.communicator.EntityTrackerCommunicator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.artemis.Component;
+import com.artemis.Entity;
+import com.artemis.World;
+import com.artemis.WorldConfiguration;
+
+/**
+ * Reading component state on request, either into values array for in-process listener
+ * or straight into packet by communicator. Component is changed before every request,
+ * so the state is never skipped as unchanged. Request is served at the end of tick,
+ * so it's measured together with it.
+ *
+ * @author Namek
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComponentStateBenchmark {
+	@Param({ "values", "serialized" })
+	String listener;
+
+	World world;
+	EntityTracker tracker;
+	Entity entity;
+	Transform transform;
+	int componentIndex;
+
+
+	@Setup
+	public void setup() {
+		if (listener.equals("values")) {
+			tracker = new EntityTracker(new DummyWorldUpdateListener() {
+				@Override
+				public int getListeningBitset() {
+					return WorldUpdateListener.ENTITY_ADDED | WorldUpdateListener.ENTITY_DELETED;
+				}
+			});
+		}
+		else {
+			EntityTrackerCommunicator communicator = new EntityTrackerCommunicator();
+			communicator.connected((SocketAddress) null, new DiscardingOutput());
+			tracker = new EntityTracker(communicator);
+		}
+
+		world = new World(new WorldConfiguration().setManager(tracker));
+		entity = world.createEntity();
+		transform = entity.edit().create(Transform.class);
+		world.process();
+
+		componentIndex = tracker.allComponentTypesInfoByClass.get(Transform.class).index;
+	}
+
+	@Benchmark
+	public void requestComponentState() {
+		transform.x += 1;
+		tracker.requestComponentState(entity.id, componentIndex);
+		tracker.endTick();
+	}
+
+
+	public static class Transform extends Component {
+		public float x, y, rotation, scale = 1;
+		public int layer;
+		public boolean visible = true;
+		public String name = "player";
+	}
+
+	static class DiscardingOutput implements RawConnectionOutputListener {
+		@Override
+		public void send(byte[] buffer, int offset, int length) {
+		}
+
+		@Override
+		public void flush() {
+		}
+	}
+}
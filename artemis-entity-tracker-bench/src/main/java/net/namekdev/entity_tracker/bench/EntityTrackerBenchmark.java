@@ -0,0 +1,117 @@
+package net.namekdev.entity_tracker.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import net.namekdev.entity_tracker.EntityTracker;
+import net.namekdev.entity_tracker.EntityTrackerInvocationStrategy;
+import net.namekdev.entity_tracker.connectors.DummyWorldUpdateListener;
+import net.namekdev.entity_tracker.connectors.WorldUpdateListener;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.artemis.Component;
+import com.artemis.Entity;
+import com.artemis.World;
+import com.artemis.WorldConfiguration;
+
+/**
+ * Cost of adding and deleting entity seen by world thread, depending on who listens to the tracker:
+ * <ul>
+ * <li>{@code none} - world without tracker, the baseline</li>
+ * <li>{@code idle} - server without connected clients</li>
+ * <li>{@code listener} - in-process listener which does nothing</li>
+ * <li>{@code client} - server with a client connected through loopback</li>
+ * </ul>
+ *
+ * @author Namek
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityTrackerBenchmark {
+	static final int ENTITIES_COUNT = 1000;
+
+	@Param({ "none", "idle", "listener", "client" })
+	String listener;
+
+	World world;
+	LoopbackConnection connection;
+	final Entity[] entities = new Entity[ENTITIES_COUNT];
+
+
+	@Setup
+	public void setup() throws Exception {
+		WorldConfiguration config = new WorldConfiguration();
+		EntityTracker tracker = null;
+
+		if (listener.equals("listener")) {
+			tracker = new EntityTracker(new DummyWorldUpdateListener() {
+				@Override
+				public int getListeningBitset() {
+					return WorldUpdateListener.ENTITY_ADDED | WorldUpdateListener.ENTITY_DELETED;
+				}
+			}, true);
+		}
+		else if (!listener.equals("none")) {
+			connection = LoopbackConnection.startServer();
+			tracker = new EntityTracker(connection.server, true);
+		}
+
+		if (tracker != null) {
+			config.setManager(tracker);
+		}
+		world = new World(config);
+		if (tracker != null) {
+			world.setInvocationStrategy(new EntityTrackerInvocationStrategy(tracker));
+		}
+
+		world.process();
+
+		if (listener.equals("client")) {
+			connection.connect();
+		}
+	}
+
+	@TearDown
+	public void teardown() {
+		if (connection != null) {
+			connection.close();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ENTITIES_COUNT)
+	public void addAndDeleteEntities() {
+		for (int i = 0; i < ENTITIES_COUNT; ++i) {
+			Entity e = world.createEntity();
+			e.edit().create(Position.class);
+			entities[i] = e;
+		}
+		world.process();
+
+		for (int i = 0; i < ENTITIES_COUNT; ++i) {
+			entities[i].deleteFromWorld();
+		}
+		world.process();
+	}
+
+
+	public static class Position extends Component {
+		public float x, y;
+	}
+}
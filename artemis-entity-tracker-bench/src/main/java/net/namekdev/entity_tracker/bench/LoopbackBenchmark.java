@@ -0,0 +1,71 @@
+package net.namekdev.entity_tracker.bench;
+
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rate of entity events going from server to client through loopback,
+ * every invocation is a world tick which waits until client receives all of its events.
+ *
+ * @author Namek
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoopbackBenchmark {
+	static final int ENTITIES_PER_TICK = 500;
+
+	LoopbackConnection connection;
+	long expectedEventsCount;
+
+
+	@Setup
+	public void setup() throws Exception {
+		connection = LoopbackConnection.startServer();
+
+		BitSet components = new BitSet();
+		components.set(0);
+		connection.server.addedComposition(0, components);
+
+		connection.connect();
+		expectedEventsCount = connection.listener.entityEventsCount.get();
+	}
+
+	@TearDown
+	public void teardown() {
+		connection.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ENTITIES_PER_TICK * 2)
+	public void addedAndDeletedEntities() {
+		for (int id = 0; id < ENTITIES_PER_TICK; ++id) {
+			connection.server.addedEntity(id, 0);
+		}
+		for (int id = 0; id < ENTITIES_PER_TICK; ++id) {
+			connection.server.deletedEntity(id);
+		}
+		connection.server.tickEnded();
+
+		expectedEventsCount += ENTITIES_PER_TICK * 2;
+		while (connection.listener.entityEventsCount.get() < expectedEventsCount) {
+			Thread.yield();
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package net.namekdev.entity_tracker.bench;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.namekdev.entity_tracker.connectors.DummyWorldUpdateListener;
+import net.namekdev.entity_tracker.connectors.WorldUpdateInterfaceListener;
+import net.namekdev.entity_tracker.network.EntityTrackerServer;
+import net.namekdev.entity_tracker.network.base.Client;
+import net.namekdev.entity_tracker.network.communicator.ExternalInterfaceCommunicator;
+
+import com.artemis.utils.IntBag;
+
+/**
+ * Server with a single client connected through loopback, the way remote GUI is connected.
+ *
+ * @author Namek
+ */
+class LoopbackConnection {
+	final EntityTrackerServer server;
+	final int port;
+	final Client client;
+	final CountingListener listener = new CountingListener();
+
+
+	LoopbackConnection(EntityTrackerServer server, int port) {
+		this.server = server;
+		this.port = port;
+		client = new Client(new ExternalInterfaceCommunicator(listener));
+	}
+
+	static int findFreePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		}
+		finally {
+			socket.close();
+		}
+	}
+
+	static LoopbackConnection startServer() throws IOException {
+		int port = findFreePort();
+		EntityTrackerServer server = new EntityTrackerServer(port);
+		server.start();
+
+		return new LoopbackConnection(server, port);
+	}
+
+	/**
+	 * Connects the client and plays world ticks until it gets the snapshot.
+	 * Server has to know about any manager or composition by then.
+	 */
+	void connect() throws InterruptedException {
+		client.connect("localhost", port).startThread();
+
+		while (!listener.hasJoined) {
+			server.tickEnded();
+			Thread.sleep(1);
+		}
+	}
+
+	void close() {
+		client.stop();
+		server.stop();
+	}
+
+
+	static class CountingListener extends DummyWorldUpdateListener implements WorldUpdateInterfaceListener {
+		volatile boolean hasJoined;
+		final AtomicLong entityEventsCount = new AtomicLong();
+
+		@Override
+		public int getListeningBitset() {
+			return ENTITY_ADDED | ENTITY_DELETED;
+		}
+
+		@Override
+		public void addedManager(String name) {
+			hasJoined = true;
+		}
+
+		@Override
+		public void addedComposition(int compositionId, BitSet components) {
+			hasJoined = true;
+		}
+
+		@Override
+		public void addedEntity(int entityId, int compositionId) {
+			entityEventsCount.incrementAndGet();
+		}
+
+		@Override
+		public void addedEntities(IntBag entityIds, IntBag compositionIds) {
+			entityEventsCount.addAndGet(entityIds.size());
+		}
+
+		@Override
+		public void deletedEntity(int entityId) {
+			entityEventsCount.incrementAndGet();
+		}
+
+		@Override
+		public void deletedEntities(IntBag entityIds) {
+			entityEventsCount.addAndGet(entityIds.size());
+		}
+
+		@Override
+		public void disconnected() {
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package net.namekdev.entity_tracker.bench;
+
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+import net.namekdev.entity_tracker.utils.serialization.NetworkDeserializer;
+import net.namekdev.entity_tracker.utils.serialization.NetworkSerialization;
+import net.namekdev.entity_tracker.utils.serialization.NetworkSerializer;
+import net.namekdev.entity_tracker.utils.serialization.NetworkSerializer.SerializeResult;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of writing and reading single values of every common type.
+ *
+ * @author Namek
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+	static final int VALUES_COUNT = 100;
+
+	final NetworkSerializer serializer = NetworkSerialization.createSerializer();
+	final NetworkDeserializer deserializer = NetworkSerialization.createDeserializer();
+
+	final int[] ints = new int[VALUES_COUNT];
+	final float[] floats = new float[VALUES_COUNT];
+	final String[] strings = new String[VALUES_COUNT];
+	final BitSet[] bitsets = new BitSet[VALUES_COUNT];
+
+	byte[] writtenInts, writtenVarInts, writtenFloats, writtenStrings, writtenBitSets;
+
+
+	@Setup
+	public void setup() {
+		for (int i = 0; i < VALUES_COUNT; ++i) {
+			ints[i] = i * 7919;
+			floats[i] = i * 0.37f;
+			strings[i] = "EntitySystem" + i;
+
+			BitSet bitset = new BitSet();
+			for (int j = i % 5; j < 64; j += 3) {
+				bitset.set(j);
+			}
+			bitsets[i] = bitset;
+		}
+
+		writtenInts = copyResult(writeInts());
+		writtenVarInts = copyResult(writeVarInts());
+		writtenFloats = copyResult(writeFloats());
+		writtenStrings = copyResult(writeStrings());
+		writtenBitSets = copyResult(writeBitSets());
+	}
+
+	private byte[] copyResult(SerializeResult result) {
+		byte[] bytes = new byte[result.size];
+		System.arraycopy(result.buffer, 0, bytes, 0, result.size);
+		return bytes;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VALUES_COUNT)
+	public SerializeResult writeInts() {
+		NetworkSerializer s = serializer.reset();
+		for (int i = 0; i < VALUES_COUNT; ++i) {
+			s.addInt(ints[i]);
+		}
+		return s.getResult();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VALUES_COUNT)
+	public SerializeResult writeVarInts() {
+		NetworkSerializer s = serializer.reset();
+		for (int i = 0; i < VALUES_COUNT; ++i) {
+			s.addRawVarInt(ints[i]);
+		}
+		return s.getResult();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VALUES_COUNT)
+	public SerializeResult writeFloats() {
+		NetworkSerializer s = serializer.reset();
+		for (int i = 0; i < VALUES_COUNT; ++i) {
+			s.addFloat(floats[i]);
+		}
+		return s.getResult();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VALUES_COUNT)
+	public SerializeResult writeStrings() {
+		NetworkSerializer s = serializer.reset();
+		for (int i = 0; i < VALUES_COUNT; ++i) {
+			s.addString(strings[i]);
+		}
+		return s.getResult();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VALUES_COUNT)
+	public SerializeResult writeBitSets() {
+		NetworkSerializer s = serializer.reset();
+		for (int i = 0; i < VALUES_COUNT; ++i) {
+			s.addBitSet(bitsets[i]);
+		}
+		return s.getResult();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VALUES_COUNT)
+	public void readInts(Blackhole blackhole) {
+		deserializer.setSource(writtenInts, 0, writtenInts.length);
+		for (int i = 0; i < VALUES_COUNT; ++i) {
+			blackhole.consume(deserializer.readInt());
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VALUES_COUNT)
+	public void readVarInts(Blackhole blackhole) {
+		deserializer.setSource(writtenVarInts, 0, writtenVarInts.length);
+		for (int i = 0; i < VALUES_COUNT; ++i) {
+			blackhole.consume(deserializer.readRawVarInt());
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VALUES_COUNT)
+	public void readFloats(Blackhole blackhole) {
+		deserializer.setSource(writtenFloats, 0, writtenFloats.length);
+		for (int i = 0; i < VALUES_COUNT; ++i) {
+			blackhole.consume(deserializer.readFloat());
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VALUES_COUNT)
+	public void readStrings(Blackhole blackhole) {
+		deserializer.setSource(writtenStrings, 0, writtenStrings.length);
+		for (int i = 0; i < VALUES_COUNT; ++i) {
+			blackhole.consume(deserializer.readString());
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(VALUES_COUNT)
+	public void readBitSets(Blackhole blackhole) {
+		deserializer.setSource(writtenBitSets, 0, writtenBitSets.length);
+		for (int i = 0; i < VALUES_COUNT; ++i) {
+			blackhole.consume(deserializer.readBitSet());
+		}
+	}
+}
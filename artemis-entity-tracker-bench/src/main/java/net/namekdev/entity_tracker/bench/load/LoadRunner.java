@@ -0,0 +1,193 @@
+package net.namekdev.entity_tracker.bench.load;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.ServerSocket;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.namekdev.entity_tracker.EntityTracker;
+import net.namekdev.entity_tracker.connectors.DummyWorldUpdateListener;
+import net.namekdev.entity_tracker.connectors.WorldUpdateInterfaceListener;
+import net.namekdev.entity_tracker.network.EntityTrackerServer;
+import net.namekdev.entity_tracker.network.base.Client;
+import net.namekdev.entity_tracker.network.communicator.ExternalInterfaceCommunicator;
+
+/**
+ * Runs {@link SyntheticWorld} alone and then with tracker and server attached, with connected clients.
+ * Reports tracker's CPU cost per tick on world thread, bytes received by every client
+ * and how long it takes to send the whole world to client which joins late.
+ *
+ * <pre>java -cp benchmarks.jar net.namekdev.entity_tracker.bench.load.LoadRunner --entities 1000000 --components 200 --clients 2</pre>
+ *
+ * @author Namek
+ */
+public class LoadRunner {
+	int ticks = 600;
+	int warmupTicks = 120;
+	int clientsCount = 1;
+	/** Tick rate used to convert bytes per tick into bytes per second. */
+	int ticksPerSecond = 60;
+
+	final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+
+	public static void main(String[] args) throws Exception {
+		LoadRunner runner = new LoadRunner();
+		SyntheticWorld config = runner.parseArgs(args);
+		runner.run(config);
+	}
+
+	SyntheticWorld parseArgs(String[] args) {
+		SyntheticWorld config = new SyntheticWorld();
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String name = args[i], value = args[i + 1];
+
+			if (name.equals("--entities")) config.entitiesCount = Integer.parseInt(value);
+			else if (name.equals("--components")) config.componentTypesCount = Integer.parseInt(value);
+			else if (name.equals("--systems")) config.systemsCount = Integer.parseInt(value);
+			else if (name.equals("--archetypes")) config.archetypesCount = Integer.parseInt(value);
+			else if (name.equals("--churn")) config.churnRate = Float.parseFloat(value);
+			else if (name.equals("--seed")) config.seed = Long.parseLong(value);
+			else if (name.equals("--ticks")) ticks = Integer.parseInt(value);
+			else if (name.equals("--warmup")) warmupTicks = Integer.parseInt(value);
+			else if (name.equals("--clients")) clientsCount = Integer.parseInt(value);
+			else if (name.equals("--hz")) ticksPerSecond = Integer.parseInt(value);
+			else throw new IllegalArgumentException("Unknown option: " + name);
+		}
+
+		return config;
+	}
+
+	void run(SyntheticWorld config) throws Exception {
+		System.out.printf("entities: %d, component types: %d, systems: %d, churn: %.2f%%, seed: %d%n",
+			config.entitiesCount, config.componentTypesCount, config.systemsCount, config.churnRate * 100, config.seed);
+
+		config.build(null);
+		long baselineNanos = measureCpuPerTick(config, new MeasuringCommunicator[0]);
+		config.dispose();
+		System.out.printf("%-22s %8.1f us cpu/tick%n", "world alone:", baselineNanos / 1000f);
+
+		int port = findFreePort();
+		EntityTrackerServer server = new EntityTrackerServer(port);
+		server.start();
+		EntityTracker tracker = new EntityTracker(server, true);
+
+		config.build(tracker);
+
+		MeasuringCommunicator[] clients = new MeasuringCommunicator[clientsCount];
+		for (int i = 0; i < clientsCount; ++i) {
+			clients[i] = connect(config, port, "client " + i + " snapshot:");
+		}
+
+		long trackedNanos = measureCpuPerTick(config, clients);
+		System.out.printf("%-22s %8.1f us cpu/tick, tracker costs %.1f us/tick%n", "world with tracker:",
+			trackedNanos / 1000f, (trackedNanos - baselineNanos) / 1000f);
+
+		for (int i = 0; i < clientsCount; ++i) {
+			float bytesPerTick = (float) clients[i].measuredBytesCount / ticks;
+			System.out.printf("%-22s %8.0f bytes/tick, %.1f KiB/s at %d Hz%n", "client " + i + ":",
+				bytesPerTick, bytesPerTick * ticksPerSecond / 1024, ticksPerSecond);
+		}
+
+		connect(config, port, "late joiner snapshot:");
+
+		server.stop();
+		config.dispose();
+	}
+
+	/**
+	 * Plays ticks until snapshot is fully received by new client. Snapshot time of this client is reported.
+	 */
+	private MeasuringCommunicator connect(SyntheticWorld world, int port, String label) {
+		MeasuringCommunicator communicator = new MeasuringCommunicator();
+		Client client = new Client(communicator);
+
+		long startTime = System.nanoTime();
+		int ticksCount = 0;
+		client.connect("localhost", port).startThread();
+
+		while (!communicator.hasReceivedSnapshot) {
+			world.tick();
+			++ticksCount;
+		}
+
+		System.out.printf("%-22s %8.1f ms, %d ticks, %d bytes%n", label,
+			(System.nanoTime() - startTime) / 1000000f, ticksCount, communicator.bytesCount.get());
+
+		return communicator;
+	}
+
+	/**
+	 * Bytes received by clients are counted during the same ticks.
+	 */
+	private long measureCpuPerTick(SyntheticWorld world, MeasuringCommunicator[] clients) {
+		for (int i = 0; i < warmupTicks; ++i) {
+			world.tick();
+		}
+
+		for (MeasuringCommunicator client : clients) {
+			client.measuredBytesCount = -client.bytesCount.get();
+		}
+		long startCpu = threads.getCurrentThreadCpuTime();
+
+		for (int i = 0; i < ticks; ++i) {
+			world.tick();
+		}
+
+		long cpu = threads.getCurrentThreadCpuTime() - startCpu;
+		for (MeasuringCommunicator client : clients) {
+			client.measuredBytesCount += client.bytesCount.get();
+		}
+
+		return cpu / ticks;
+	}
+
+	private static int findFreePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		}
+		finally {
+			socket.close();
+		}
+	}
+
+
+	static class MeasuringCommunicator extends ExternalInterfaceCommunicator {
+		final AtomicLong bytesCount = new AtomicLong();
+		long measuredBytesCount;
+		volatile boolean hasReceivedSnapshot;
+		private boolean _hasSnapshotBegun;
+
+
+		MeasuringCommunicator() {
+			super(new SilentListener());
+		}
+
+		@Override
+		public void bytesReceived(byte[] bytes, int offset, int length) {
+			bytesCount.addAndGet(length);
+			super.bytesReceived(bytes, offset, length);
+
+			if (isReceivingSnapshot()) {
+				_hasSnapshotBegun = true;
+			}
+			else if (_hasSnapshotBegun) {
+				hasReceivedSnapshot = true;
+			}
+		}
+	}
+
+	static class SilentListener extends DummyWorldUpdateListener implements WorldUpdateInterfaceListener {
+		@Override
+		public int getListeningBitset() {
+			return ENTITY_ADDED | ENTITY_DELETED | ENTITY_SYSTEM_STATS;
+		}
+
+		@Override
+		public void disconnected() {
+		}
+	}
+}
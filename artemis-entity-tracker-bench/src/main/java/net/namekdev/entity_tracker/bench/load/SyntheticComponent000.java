@@ -0,0 +1,11 @@
+package net.namekdev.entity_tracker.bench.load;
+
+import com.artemis.Component;
+
+/**
+ * Template of generated component types, see {@link SyntheticComponents}.
+ */
+public class SyntheticComponent000 extends Component {
+	public float value;
+	public int counter;
+}
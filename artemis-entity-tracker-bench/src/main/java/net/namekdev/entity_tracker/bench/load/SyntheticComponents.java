@@ -0,0 +1,99 @@
+package net.namekdev.entity_tracker.bench.load;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.artemis.Component;
+
+/**
+ * Artemis needs a class for every component type. Classes are copied from
+ * {@link SyntheticComponent000} by renaming it in the bytecode. New name is of the same length,
+ * so the constant pool stays valid.
+ *
+ * @author Namek
+ */
+public class SyntheticComponents {
+	public static final int MAX_COUNT = 1000;
+
+	private static final String TEMPLATE_NAME = SyntheticComponent000.class.getSimpleName();
+
+
+	@SuppressWarnings("unchecked")
+	public static Class<? extends Component>[] generate(int count) {
+		if (count < 1 || count > MAX_COUNT) {
+			throw new IllegalArgumentException("Component types count has to be between 1 and " + MAX_COUNT);
+		}
+
+		final byte[] template = readTemplate();
+		final Loader loader = new Loader(SyntheticComponents.class.getClassLoader());
+		final String packageName = SyntheticComponent000.class.getPackage().getName();
+
+		Class<? extends Component>[] types = new Class[count];
+		types[0] = SyntheticComponent000.class;
+
+		for (int i = 1; i < count; ++i) {
+			String simpleName = String.format("SyntheticComponent%03d", i);
+			byte[] bytes = rename(template, TEMPLATE_NAME, simpleName);
+			types[i] = (Class<? extends Component>) loader.define(packageName + "." + simpleName, bytes);
+		}
+
+		return types;
+	}
+
+	private static byte[] readTemplate() {
+		InputStream input = SyntheticComponent000.class.getResourceAsStream(TEMPLATE_NAME + ".class");
+
+		try {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = input.read(buffer)) > 0) {
+				output.write(buffer, 0, read);
+			}
+
+			return output.toByteArray();
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		finally {
+			try {
+				input.close();
+			}
+			catch (IOException e) {
+			}
+		}
+	}
+
+	private static byte[] rename(byte[] template, String from, String to) {
+		final byte[] bytes = template.clone();
+		final byte[] fromBytes = from.getBytes();
+		final byte[] toBytes = to.getBytes();
+
+		for (int i = 0, n = bytes.length - fromBytes.length; i <= n; ++i) {
+			int j = 0;
+			while (j < fromBytes.length && bytes[i + j] == fromBytes[j]) {
+				++j;
+			}
+
+			if (j == fromBytes.length) {
+				System.arraycopy(toBytes, 0, bytes, i, toBytes.length);
+				i += j - 1;
+			}
+		}
+
+		return bytes;
+	}
+
+
+	private static class Loader extends ClassLoader {
+		Loader(ClassLoader parent) {
+			super(parent);
+		}
+
+		Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package net.namekdev.entity_tracker.bench.load;
+
+import java.util.Random;
+
+import net.namekdev.entity_tracker.EntityTracker;
+import net.namekdev.entity_tracker.EntityTrackerInvocationStrategy;
+
+import com.artemis.Archetype;
+import com.artemis.ArchetypeBuilder;
+import com.artemis.Aspect;
+import com.artemis.Component;
+import com.artemis.Entity;
+import com.artemis.World;
+import com.artemis.WorldConfiguration;
+import com.artemis.systems.EntityProcessingSystem;
+
+/**
+ * Reproducible world for soak and scaling tests. Entities are made of a few random archetypes,
+ * systems process random component types and some entities are replaced by new ones every tick.
+ * Same seed gives the same world and the same churn.
+ *
+ * @author Namek
+ */
+public class SyntheticWorld {
+	public int entitiesCount = 10000;
+	public int componentTypesCount = 50;
+	public int systemsCount = 20;
+	public int archetypesCount = 32;
+	public int componentsPerArchetype = 4;
+
+	/** Fraction of entities deleted and replaced by new ones every tick. */
+	public float churnRate = 0.01f;
+	public long seed = 1;
+
+	public World world;
+	private Random _random;
+	private Archetype[] _archetypes;
+	private Entity[] _entities;
+
+
+	/**
+	 * Creates the world and all of its entities. Tracker is plugged in the way game would do it.
+	 *
+	 * @param tracker may be {@code null} to measure the world alone
+	 */
+	public SyntheticWorld build(EntityTracker tracker) {
+		_random = new Random(seed);
+		final Class<? extends Component>[] types = SyntheticComponents.generate(componentTypesCount);
+
+		WorldConfiguration config = new WorldConfiguration()
+			.expectedEntityCount(entitiesCount);
+
+		for (int i = 0; i < systemsCount; ++i) {
+			config.setSystem(new SyntheticSystem(types[_random.nextInt(types.length)]));
+		}
+		if (tracker != null) {
+			config.setManager(tracker);
+		}
+
+		world = new World(config);
+		if (tracker != null) {
+			world.setInvocationStrategy(new EntityTrackerInvocationStrategy(tracker));
+		}
+
+		_archetypes = new Archetype[archetypesCount];
+		for (int i = 0; i < archetypesCount; ++i) {
+			ArchetypeBuilder builder = new ArchetypeBuilder();
+			for (int j = 0; j < componentsPerArchetype; ++j) {
+				builder.add(types[_random.nextInt(types.length)]);
+			}
+			_archetypes[i] = builder.build(world);
+		}
+
+		_entities = new Entity[entitiesCount];
+		for (int i = 0; i < entitiesCount; ++i) {
+			_entities[i] = createEntity();
+		}
+		world.process();
+
+		return this;
+	}
+
+	private Entity createEntity() {
+		return world.createEntity(_archetypes[_random.nextInt(_archetypes.length)]);
+	}
+
+	/**
+	 * Replaces some entities and processes the world.
+	 */
+	public void tick() {
+		final int churnCount = (int) (entitiesCount * churnRate);
+
+		for (int i = 0; i < churnCount; ++i) {
+			int index = _random.nextInt(entitiesCount);
+			_entities[index].deleteFromWorld();
+			_entities[index] = createEntity();
+		}
+
+		world.process();
+	}
+
+	public void dispose() {
+		world.dispose();
+	}
+
+
+	public static class SyntheticSystem extends EntityProcessingSystem {
+		public SyntheticSystem(Class<? extends Component> type) {
+			super(Aspect.all(type));
+		}
+
+		@Override
+		protected void process(Entity e) {
+		}
+	}
+}
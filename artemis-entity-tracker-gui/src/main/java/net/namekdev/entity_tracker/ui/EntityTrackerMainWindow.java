@@ -1,6 +1,10 @@
 package net.namekdev.entity_tracker.ui;
 
+import java.awt.BorderLayout;
 import java.awt.CardLayout;
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseAdapter;
@@ -9,10 +13,12 @@ import java.awt.event.MouseListener;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyVetoException;
 import java.beans.VetoableChangeListener;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Enumeration;
 
 import javax.swing.BoxLayout;
+import javax.swing.JCheckBox;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
@@ -36,6 +42,9 @@ import javax.swing.table.TableColumnModel;
 import net.namekdev.entity_tracker.connectors.WorldController;
 import net.namekdev.entity_tracker.connectors.WorldUpdateInterfaceListener;
 import net.namekdev.entity_tracker.model.ComponentTypeInfo;
+import net.namekdev.entity_tracker.model.EntitySystemStats;
+import net.namekdev.entity_tracker.model.SystemTimingStats;
+import net.namekdev.entity_tracker.network.communicator.ExternalInterfaceCommunicator;
 import net.namekdev.entity_tracker.ui.model.EntityTableModel;
 import net.namekdev.entity_tracker.ui.model.ManagerTableModel;
 import net.namekdev.entity_tracker.ui.model.SystemTableModel;
@@ -43,6 +52,9 @@ import net.namekdev.entity_tracker.ui.partials.EntityDetailsPanel;
 import net.namekdev.entity_tracker.ui.utils.AdjustableJTable;
 import net.namekdev.entity_tracker.ui.utils.VerticalTableHeaderCellRenderer;
 
+import com.artemis.utils.Bag;
+import com.artemis.utils.IntBag;
+
 public class EntityTrackerMainWindow implements WorldUpdateInterfaceListener {
 	protected final Context context = new Context();
 	protected JFrame frame;
@@ -56,8 +68,11 @@ public class EntityTrackerMainWindow implements WorldUpdateInterfaceListener {
 	private JTable systemsTable, managersTable;
 	private JTabbedPane tabbedPane;
 	private EntityDetailsPanel entityDetailsPanel;
+	private JCheckBox timingsCheckBox, allocationsCheckBox;
 
 	private int _lastSelectedCol;
+	/** Measuring costs world thread, so it's off until asked for. */
+	private volatile boolean _isMeasuringTimings, _isMeasuringAllocations;
 
 
 	public EntityTrackerMainWindow() {
@@ -124,7 +139,21 @@ public class EntityTrackerMainWindow implements WorldUpdateInterfaceListener {
 		systemsTable.setModel(systemsTableModel);
 		JScrollPane systemsTableScrollPane = new JScrollPane();
 		systemsTableScrollPane.setViewportView(systemsTable);
-		tabbedPane.addTab("Systems", null, systemsTableScrollPane, null);
+
+		timingsCheckBox = new JCheckBox("Measure timings");
+		timingsCheckBox.setToolTipText("Measures processing time of every system, at the cost of world thread");
+		timingsCheckBox.addActionListener(measuringListener);
+		allocationsCheckBox = new JCheckBox("Measure allocations");
+		allocationsCheckBox.setToolTipText("Measures bytes allocated by every system, at the cost of world thread");
+		allocationsCheckBox.addActionListener(measuringListener);
+		JPanel systemsOptionsPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+		systemsOptionsPanel.add(timingsCheckBox);
+		systemsOptionsPanel.add(allocationsCheckBox);
+
+		JPanel systemsPanel = new JPanel(new BorderLayout());
+		systemsPanel.add(systemsOptionsPanel, BorderLayout.PAGE_START);
+		systemsPanel.add(systemsTableScrollPane, BorderLayout.CENTER);
+		tabbedPane.addTab("Systems", null, systemsPanel, null);
 
 		managersTable = new JTable();
 		managersTable.setAutoCreateRowSorter(true);
@@ -184,11 +213,29 @@ public class EntityTrackerMainWindow implements WorldUpdateInterfaceListener {
 
 	public void injectWorldController(WorldController worldController) {
 		context.worldController = worldController;
+
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				entityDetailsPanel.watchAgain();
+			}
+		});
 	}
 
 	@Override
 	public int getListeningBitset() {
-		return ENTITY_ADDED | ENTITY_DELETED | ENTITY_SYSTEM_STATS;
+		return ENTITY_ADDED | ENTITY_DELETED | ENTITY_SYSTEM_STATS
+			| (_isMeasuringTimings ? SYSTEM_TIMINGS : 0)
+			| (_isMeasuringAllocations ? SYSTEM_ALLOCATIONS : 0);
+	}
+
+	/**
+	 * Declares listening again when it's done over network,
+	 * local tracker reads it by itself at the end of every tick.
+	 */
+	private void updateListening() {
+		if (context.worldController instanceof ExternalInterfaceCommunicator) {
+			((ExternalInterfaceCommunicator) context.worldController).updateListening();
+		}
 	}
 
 	@Override
@@ -226,19 +273,65 @@ public class EntityTrackerMainWindow implements WorldUpdateInterfaceListener {
 	}
 
 	@Override
-	public void updatedEntitySystem(final int systemIndex, final int entitiesCount, final int maxEntitiesCount) {
+	public void updatedEntitySystems(Bag<EntitySystemStats> systemsStats) {
+		final EntitySystemStats[] stats = new EntitySystemStats[systemsStats.size()];
+		for (int i = 0; i < stats.length; ++i) {
+			stats[i] = new EntitySystemStats().set(systemsStats.get(i));
+		}
+
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				for (EntitySystemStats systemStats : stats) {
+					systemsTableModel.updateSystem(systemStats);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void updatedSystemsTimings(Bag<SystemTimingStats> systemsTimings) {
+		final SystemTimingStats[] timings = new SystemTimingStats[systemsTimings.size()];
+		for (int i = 0; i < timings.length; ++i) {
+			timings[i] = new SystemTimingStats().set(systemsTimings.get(i));
+		}
+
 		SwingUtilities.invokeLater(new Runnable() {
 			public void run() {
-				systemsTableModel.updateSystem(systemIndex, entitiesCount, maxEntitiesCount);
+				for (SystemTimingStats systemTimings : timings) {
+					systemsTableModel.updateSystem(systemTimings);
+				}
 			}
 		});
 	}
 
 	@Override
-	public void addedEntity(final int entityId, final BitSet components) {
+	public void addedComposition(final int compositionId, final BitSet components) {
 		SwingUtilities.invokeLater(new Runnable() {
 			public void run() {
-				entitiesTableModel.addEntity(entityId, components);
+				entitiesTableModel.setComposition(compositionId, components);
+			}
+		});
+	}
+
+	@Override
+	public void addedEntity(final int entityId, final int compositionId) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				entitiesTableModel.addEntity(entityId, compositionId);
+			}
+		});
+	}
+
+	@Override
+	public void addedEntities(IntBag entityIds, IntBag compositionIds) {
+		final int[] ids = Arrays.copyOf(entityIds.getData(), entityIds.size());
+		final int[] compositions = Arrays.copyOf(compositionIds.getData(), compositionIds.size());
+
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				for (int i = 0; i < ids.length; ++i) {
+					entitiesTableModel.addEntity(ids[i], compositions[i]);
+				}
 			}
 		});
 	}
@@ -252,17 +345,34 @@ public class EntityTrackerMainWindow implements WorldUpdateInterfaceListener {
 		});
 	}
 
+	@Override
+	public void deletedEntities(IntBag entityIds) {
+		final int[] ids = Arrays.copyOf(entityIds.getData(), entityIds.size());
+
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				for (int i = 0; i < ids.length; ++i) {
+					entitiesTableModel.removeEntity(ids[i]);
+				}
+			}
+		});
+	}
+
 	@Override
 	public void updatedComponentState(int entityId, int componentIndex, Object[] values) {
 		context.eventBus.updatedComponentState(entityId, componentIndex, values);
 	}
 
+	@Override
+	public void tickEnded() {
+	}
+
 	@Override
 	public void disconnected() {
 		entitiesTableModel.clear();
 		systemsTableModel.clear();
 		managersTableModel.clear();
-		detailsPanelContainer.setViewportView(null);
+		// opened details stay, they're updated again after reconnection
 	}
 
 	private void setupAllColumnHeadersVerticalRenderer() {
@@ -349,4 +459,13 @@ public class EntityTrackerMainWindow implements WorldUpdateInterfaceListener {
 			context.worldController.setSystemState(systemName, desiredSystemState);
 		}
 	};
+
+	private ActionListener measuringListener = new ActionListener() {
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			_isMeasuringTimings = timingsCheckBox.isSelected();
+			_isMeasuringAllocations = allocationsCheckBox.isSelected();
+			updateListening();
+		}
+	};
 }
@@ -13,6 +13,7 @@ import net.namekdev.entity_tracker.utils.Array;
 public class EntityTableModel extends DefaultTableModel {
 	private Map<Integer, BitSet> _entityComponents = new HashMap<Integer, BitSet>();
 	private Array<ComponentTypeInfo> _componentTypes = new Array<ComponentTypeInfo>(50);
+	private Array<BitSet> _compositions = new Array<BitSet>(50);
 
 
 	public EntityTableModel() {
@@ -30,7 +31,12 @@ public class EntityTableModel extends DefaultTableModel {
 		fireTableStructureChanged();
 	}
 
-	public void addEntity(int entityId, BitSet components) {
+	public void setComposition(int compositionId, BitSet components) {
+		_compositions.set(compositionId, components);
+	}
+
+	public void addEntity(int entityId, int compositionId) {
+		final BitSet components = _compositions.get(compositionId);
 		// TODO check if bitset isn't greater than before model header columns
 
 		Vector<Object> row = new Vector<Object>(components.length() + 1);
@@ -74,6 +80,7 @@ public class EntityTableModel extends DefaultTableModel {
 
 	public void clear() {
 		_componentTypes.clear();
+		_compositions.clear();
 		_entityComponents.clear();
 		setRowCount(0);
 
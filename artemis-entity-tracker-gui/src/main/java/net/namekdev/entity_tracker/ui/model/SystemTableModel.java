@@ -2,12 +2,21 @@ package net.namekdev.entity_tracker.ui.model;
 
 import javax.swing.table.DefaultTableModel;
 
+import net.namekdev.entity_tracker.model.EntitySystemStats;
+import net.namekdev.entity_tracker.model.SystemTimingStats;
+
 public class SystemTableModel extends DefaultTableModel {
 	public SystemTableModel() {
 		addColumn("");
 		addColumn("system");
 		addColumn("entities");
-		addColumn("max entities");
+		addColumn("min");
+		addColumn("avg");
+		addColumn("max");
+		addColumn("p50 \u00b5s");
+		addColumn("p99 \u00b5s");
+		addColumn("max \u00b5s");
+		addColumn("alloc B");
 	}
 
 	@Override
@@ -15,6 +24,9 @@ public class SystemTableModel extends DefaultTableModel {
 		switch (columnIndex) {
 			case 0: return Boolean.class;
 			case 1: return String.class;
+			case 4: return Float.class;
+			case 6: case 7: case 8: return Float.class;
+			case 9: return Long.class;
 			default: return Integer.class;
 		}
 	}
@@ -31,9 +43,20 @@ public class SystemTableModel extends DefaultTableModel {
 		setValueAt(name, index, 1);
 	}
 
-	public void updateSystem(int index, int entitiesCount, int maxEntitiesCount) {
-		setValueAt(entitiesCount, index, 2);
-		setValueAt(maxEntitiesCount, index, 3);
+	public void updateSystem(EntitySystemStats stats) {
+		final int index = stats.systemIndex;
+		setValueAt(stats.entitiesCount, index, 2);
+		setValueAt(stats.minEntitiesCount, index, 3);
+		setValueAt(stats.averageEntitiesCount, index, 4);
+		setValueAt(stats.maxEntitiesCount, index, 5);
+	}
+
+	public void updateSystem(SystemTimingStats timings) {
+		final int index = timings.systemIndex;
+		setValueAt(timings.p50 / 1000f, index, 6);
+		setValueAt(timings.p99 / 1000f, index, 7);
+		setValueAt(timings.max / 1000f, index, 8);
+		setValueAt(timings.allocatedBytes >= 0 ? timings.allocatedBytes : null, index, 9);
 	}
 
 	public String getSystemName(int index) {
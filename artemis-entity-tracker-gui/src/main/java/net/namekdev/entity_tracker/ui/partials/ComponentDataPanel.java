@@ -15,6 +15,7 @@ import javax.swing.JComponent;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 
 import net.miginfocom.swing.MigLayout;
 import net.namekdev.entity_tracker.connectors.DummyWorldUpdateListener;
@@ -111,6 +112,30 @@ public class ComponentDataPanel extends JPanel {
 		});
 	}
 
+	/**
+	 * Watched component is updated every tick, so the field being edited is left
+	 * untouched, otherwise typed value would be overwritten.
+	 */
+	private void showState(Object[] values) {
+		for (int i = 0, n = values.length; i < n; ++i) {
+			Object value = values[i];
+
+			if (value == null) {
+				continue;
+			}
+
+			Component component = _components.get(i);
+			FieldInfo info = _info.fields.get(i);
+
+			if (info.valueType == TYPE_BOOLEAN) {
+				((JCheckBox) component).setSelected((Boolean) value);
+			}
+			else if (info.valueType != TYPE_UNKNOWN && !component.isFocusOwner()) {
+				((JTextField) component).setText(value.toString());
+			}
+		}
+	}
+
 	@Override
 	public void removeNotify() {
 		super.removeNotify();
@@ -125,23 +150,12 @@ public class ComponentDataPanel extends JPanel {
 				return;
 			}
 
-			for (int i = 0, n = values.length; i < n; ++i) {
-				Object value = values[i];
-
-				if (value == null) {
-					continue;
+			final Object[] state = values.clone();
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					showState(state);
 				}
-
-				Component component = _components.get(i);
-				FieldInfo info = _info.fields.get(i);
-
-				if (info.valueType == TYPE_BOOLEAN) {
-					((JCheckBox) component).setSelected((Boolean) values[i]);
-				}
-				else if (info.valueType != TYPE_UNKNOWN) {
-					((JTextField) component).setText(values[i].toString());
-				}
-			}
+			});
 		}
 	};
 }
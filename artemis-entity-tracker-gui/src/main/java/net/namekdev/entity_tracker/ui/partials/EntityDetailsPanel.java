@@ -23,6 +23,9 @@ import net.namekdev.entity_tracker.utils.Array;
 import net.namekdev.entity_tracker.utils.IndexBiMap;
 
 public class EntityDetailsPanel extends JPanel {
+	/** Opened component is watched every tick. */
+	private static final int WATCH_TICK_INTERVAL = 1;
+
 	private Context _appContext;
 
 	private EntityTableModel _entityTableModel;
@@ -75,6 +78,13 @@ public class EntityDetailsPanel extends JPanel {
 	}
 
 	private void setup(int entityId, int componentTypeIndex) {
+		final WorldController worldController = _appContext.worldController;
+		final boolean isOtherComponent = entityId != _currentEntityId || componentTypeIndex != _currentComponentIndex;
+
+		if (isOtherComponent && _currentComponentIndex >= 0) {
+			worldController.unwatchComponent(_currentEntityId, _currentComponentIndex, WATCH_TICK_INTERVAL);
+		}
+
 		if (componentTypeIndex >= 0) {
 			// show component details
 			removeAll();
@@ -114,7 +124,13 @@ public class EntityDetailsPanel extends JPanel {
 			_componentsPanelContainer.removeAll();
 			_componentsPanelContainer.add(new ComponentDataPanel(_appContext, info, entityId), BorderLayout.PAGE_START);
 
-			_appContext.worldController.requestComponentState(_currentEntityId, componentTypeIndex);
+			if (isOtherComponent) {
+				// server pushes changed values by itself
+				worldController.watchComponent(_currentEntityId, componentTypeIndex, WATCH_TICK_INTERVAL);
+			}
+			else {
+				worldController.requestComponentState(_currentEntityId, componentTypeIndex);
+			}
 		}
 		_currentComponentIndex = componentTypeIndex;
 
@@ -123,6 +139,16 @@ public class EntityDetailsPanel extends JPanel {
 
 	}
 
+	/**
+	 * Server forgets watches of disconnected client, so opened component
+	 * is watched again after reconnection.
+	 */
+	public void watchAgain() {
+		if (_currentComponentIndex >= 0) {
+			_appContext.worldController.watchComponent(_currentEntityId, _currentComponentIndex, WATCH_TICK_INTERVAL);
+		}
+	}
+
 	public int getEntityId() {
 		return _currentEntityId;
 	}
@@ -1,19 +1,26 @@
 package net.namekdev.entity_tracker;
 
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
+import net.namekdev.entity_tracker.connectors.EntityEventsBatch;
+import net.namekdev.entity_tracker.connectors.RawComponentStateListener;
 import net.namekdev.entity_tracker.connectors.WorldController;
 import net.namekdev.entity_tracker.connectors.WorldUpdateListener;
 import net.namekdev.entity_tracker.model.AspectInfo;
 import net.namekdev.entity_tracker.model.ComponentTypeInfo;
+import net.namekdev.entity_tracker.model.EntitySystemStats;
 import net.namekdev.entity_tracker.model.FieldInfo;
 import net.namekdev.entity_tracker.model.SystemInfo;
 import net.namekdev.entity_tracker.model.ManagerInfo;
+import net.namekdev.entity_tracker.model.SystemTimingStats;
 import net.namekdev.entity_tracker.utils.ArrayPool;
+import net.namekdev.entity_tracker.utils.FieldsAccessor;
 import net.namekdev.entity_tracker.utils.ReflectionUtils;
+import net.namekdev.entity_tracker.utils.TimeHistogram;
 import net.namekdev.entity_tracker.utils.serialization.NetworkSerialization;
 
 import com.artemis.Aspect;
@@ -24,12 +31,15 @@ import com.artemis.ComponentMapper;
 import com.artemis.ComponentType;
 import com.artemis.ComponentTypeFactory;
 import com.artemis.Entity;
+import com.artemis.EntityManager;
 import com.artemis.EntitySubscription;
 import com.artemis.EntitySubscription.SubscriptionListener;
 import com.artemis.EntitySystem;
 import com.artemis.Manager;
+import com.artemis.World;
 import com.artemis.utils.Bag;
 import com.artemis.utils.ImmutableBag;
+import com.artemis.utils.IntBag;
 import com.artemis.utils.reflect.ClassReflection;
 import com.artemis.utils.reflect.Field;
 import com.artemis.utils.reflect.Method;
@@ -42,6 +52,12 @@ import com.artemis.utils.reflect.ReflectionException;
 public class EntityTracker extends Manager implements WorldController {
 	private WorldUpdateListener updateListener;
 
+	/**
+	 * Listener's interest, refreshed once per tick by {@link #endTick()}.
+	 * When it's zero, entity hooks return right after reading it.
+	 */
+	private int _listeningBitset;
+
 	public final Bag<SystemInfo> systemsInfo = new Bag<SystemInfo>();
 	public final Map<String, SystemInfo> systemsInfoByName = new HashMap<String, SystemInfo>();
 
@@ -57,7 +73,48 @@ public class EntityTracker extends Manager implements WorldController {
 	protected Bag<ComponentType> allComponentTypes;
 
 	private int _notifiedComponentTypesCount = 0;
-	private final ArrayPool<Object> _objectArrPool = new ArrayPool<>(Object.class);
+	/** Used only by world thread, requests of other threads are served by it. */
+	private final ArrayPool<Object> _objectArrPool = new ArrayPool<>(Object.class, true, ArrayPool.DEFAULT_MAX_ARRAYS_PER_SIZE);
+
+	private final Bag<BitSet> _compositions = new Bag<BitSet>();
+
+	private boolean _isBatchingEntityEvents;
+	private final EntityEventsBatch _entityEventsBatch = new EntityEventsBatch();
+
+	/**
+	 * Systems which entity count changed since last report are reported together,
+	 * once per this many ticks.
+	 */
+	public int systemStatsTickInterval = 1;
+	private int _ticksSinceSystemsStats;
+	private final BitSet _dirtySystems = new BitSet();
+	private final Bag<EntitySystemStats> _systemsStats = new Bag<EntitySystemStats>();
+	private final Bag<EntitySystemStats> _reportedSystemsStats = new Bag<EntitySystemStats>();
+
+	private static final int SYSTEM_PROFILING = WorldUpdateListener.SYSTEM_TIMINGS | WorldUpdateListener.SYSTEM_ALLOCATIONS;
+
+	/**
+	 * Processing times of systems are gathered into histograms
+	 * and reported as percentiles once per this many ticks.
+	 */
+	public int systemTimingsTickInterval = 60;
+	private int _ticksSinceSystemsTimings;
+	private final Bag<TimeHistogram> _systemsTimings = new Bag<TimeHistogram>();
+	private long[] _systemsAllocatedBytes = new long[0];
+	private boolean _isMeasuringAllocations;
+	private final Bag<SystemTimingStats> _systemsTimingStats = new Bag<SystemTimingStats>();
+	private final Bag<SystemTimingStats> _reportedSystemsTimings = new Bag<SystemTimingStats>();
+
+	/** Watches are added and sampled by world thread when serving requests. */
+	private final Bag<ComponentWatch> _componentWatches = new Bag<ComponentWatch>();
+
+	/**
+	 * World controller is called by network or UI thread, so requests are queued
+	 * and served by world thread in {@link #endTick()}. Served ones are reused.
+	 */
+	private final Bag<WorldRequest> _pendingRequests = new Bag<WorldRequest>();
+	private final Bag<WorldRequest> _freeRequests = new Bag<WorldRequest>();
+	private final Bag<WorldRequest> _servedRequests = new Bag<WorldRequest>();
 
 
 	public EntityTracker() {
@@ -67,11 +124,57 @@ public class EntityTracker extends Manager implements WorldController {
 		setUpdateListener(listener);
 	}
 
+	public EntityTracker(WorldUpdateListener listener, boolean batchEntityEvents) {
+		setUpdateListener(listener);
+		setEntityEventsBatching(batchEntityEvents);
+	}
+
 	public void setUpdateListener(WorldUpdateListener listener) {
 		this.updateListener = listener;
 		listener.injectWorldController(this);
 	}
 
+	/**
+	 * When enabled, added and deleted entities are collected through the whole world tick
+	 * and passed to listener in bulk by {@link #endTick()}.
+	 *
+	 * @see EntityTrackerInvocationStrategy
+	 */
+	public void setEntityEventsBatching(boolean enabled) {
+		if (_isBatchingEntityEvents && !enabled) {
+			_entityEventsBatch.flush(updateListener);
+		}
+
+		_isBatchingEntityEvents = enabled;
+	}
+
+	/**
+	 * Notifies that world tick has ended. Called by {@link EntityTrackerInvocationStrategy},
+	 * which is set by tracker when world has no other strategy, otherwise should be called
+	 * manually after every {@code world.process()}. Requests of {@link WorldController} are served here.
+	 */
+	public void endTick() {
+		if (_isBatchingEntityEvents && !_entityEventsBatch.isEmpty()) {
+			_entityEventsBatch.flush(updateListener);
+		}
+
+		if (updateListener != null) {
+			final int previousProfiling = _listeningBitset & SYSTEM_PROFILING;
+			updateListeningBitset();
+
+			if ((_listeningBitset & WorldUpdateListener.ENTITY_SYSTEM_STATS) != 0) {
+				updateEntitySystemsStats();
+			}
+			// window starts with the first tick measured the current way
+			if (previousProfiling != 0 && previousProfiling == (_listeningBitset & SYSTEM_PROFILING)) {
+				updateSystemsTimings();
+			}
+			serveRequests();
+			sampleWatchedComponents();
+			updateListener.tickEnded();
+		}
+	}
+
 
 	@Override
 	protected void initialize() {
@@ -80,6 +183,229 @@ public class EntityTracker extends Manager implements WorldController {
 		allComponentTypes = (Bag<ComponentType>) ReflectionUtils.getHiddenFieldValue(ComponentTypeFactory.class, "types", typeFactory);
 
 		find42UnicornManagers();
+		_listeningBitset = updateListener.getListeningBitset();
+
+		// managers are initialized before world sets the default strategy, which would never end ticks
+		if (ReflectionUtils.getHiddenFieldValue(World.class, "invocationStrategy", world) == null) {
+			world.setInvocationStrategy(new EntityTrackerInvocationStrategy(this));
+		}
+	}
+
+	/**
+	 * Tracker doesn't remember entities by itself. When listener starts listening
+	 * for added entities the current world state is scanned and reported as if it was just created.
+	 * When listener stops, all entities are reported as deleted, so listener doesn't have to keep them.
+	 */
+	private void updateListeningBitset() {
+		final int bitset = updateListener.getListeningBitset();
+		final int previousBitset = _listeningBitset;
+
+		if (bitset == previousBitset) {
+			return;
+		}
+
+		final int gained = bitset & ~previousBitset;
+		final int lost = previousBitset & ~bitset;
+
+		if ((lost & WorldUpdateListener.ENTITY_ADDED) != 0 && (previousBitset & WorldUpdateListener.ENTITY_DELETED) != 0) {
+			reportExistingEntities(false);
+		}
+
+		_listeningBitset = bitset;
+
+		if ((gained & WorldUpdateListener.ENTITY_ADDED) != 0) {
+			reportExistingEntities(true);
+		}
+
+		if (previousBitset == 0 || (gained & WorldUpdateListener.ENTITY_SYSTEM_STATS) != 0) {
+			reportEntitySystems();
+		}
+
+		if (((gained | lost) & SYSTEM_PROFILING) != 0) {
+			for (int i = 0, n = _systemsTimings.size(); i < n; ++i) {
+				TimeHistogram histogram = _systemsTimings.get(i);
+				if (histogram != null) {
+					histogram.reset();
+				}
+			}
+			Arrays.fill(_systemsAllocatedBytes, 0);
+			_isMeasuringAllocations = false;
+			_ticksSinceSystemsTimings = 0;
+		}
+	}
+
+	private void reportExistingEntities(boolean added) {
+		final EntityManager entityManager = world.getEntityManager();
+		final int activeCount = entityManager.getActiveEntityCount();
+
+		for (int id = 0, found = 0; found < activeCount; ++id) {
+			if (!entityManager.isActive(id)) {
+				continue;
+			}
+			++found;
+
+			if (added) {
+				Entity e = world.getEntity(id);
+				final int compositionId = e.getCompositionId();
+				if (_compositions.safeGet(compositionId) == null) {
+					registerComposition(e, compositionId);
+				}
+
+				if (_isBatchingEntityEvents) {
+					_entityEventsBatch.added(id, compositionId);
+				}
+				else {
+					updateListener.addedEntity(id, compositionId);
+				}
+			}
+			else if (_isBatchingEntityEvents) {
+				_entityEventsBatch.deleted(id);
+			}
+			else {
+				updateListener.deletedEntity(id);
+			}
+		}
+
+		if (_isBatchingEntityEvents) {
+			_entityEventsBatch.flush(updateListener);
+		}
+	}
+
+	/**
+	 * Entity counts are not maintained while idle so they're read from subscriptions.
+	 * All systems are reported at the end of this tick.
+	 */
+	private void reportEntitySystems() {
+		for (int i = 0, n = systemsInfo.size(); i < n; ++i) {
+			SystemInfo info = systemsInfo.get(i);
+
+			if (info.subscription == null) {
+				continue;
+			}
+
+			info.entitiesCount = info.subscription.getEntities().size();
+			info.resetWindow();
+			_dirtySystems.set(i);
+		}
+
+		_ticksSinceSystemsStats = systemStatsTickInterval;
+	}
+
+	/**
+	 * Accumulates entity counts of this tick. Every {@link #systemStatsTickInterval} ticks
+	 * reports systems which changed during that window and begins a new window.
+	 */
+	private void updateEntitySystemsStats() {
+		final Bag<SystemInfo> systems = systemsInfo;
+		final int n = systems.size();
+
+		for (int i = 0; i < n; ++i) {
+			SystemInfo info = systems.get(i);
+			info.windowEntitiesCountSum += info.entitiesCount;
+			++info.windowTicksCount;
+		}
+
+		if (++_ticksSinceSystemsStats < systemStatsTickInterval) {
+			return;
+		}
+		_ticksSinceSystemsStats = 0;
+
+		if (!_dirtySystems.isEmpty()) {
+			for (int i = _dirtySystems.nextSetBit(0); i >= 0; i = _dirtySystems.nextSetBit(i+1)) {
+				SystemInfo info = systems.get(i);
+
+				EntitySystemStats stats = _systemsStats.safeGet(i);
+				if (stats == null) {
+					_systemsStats.set(i, stats = new EntitySystemStats(i));
+				}
+
+				float average = (float) info.windowEntitiesCountSum / info.windowTicksCount;
+				_reportedSystemsStats.add(stats.set(i, info.entitiesCount, info.windowMinEntitiesCount, info.windowMaxEntitiesCount, average));
+			}
+			_dirtySystems.clear();
+
+			updateListener.updatedEntitySystems(_reportedSystemsStats);
+			_reportedSystemsStats.clear();
+		}
+
+		for (int i = 0; i < n; ++i) {
+			systems.get(i).resetWindow();
+		}
+	}
+
+	/**
+	 * Whether {@link EntityTrackerInvocationStrategy} should measure processing time of systems.
+	 */
+	public boolean isProfilingSystems() {
+		return (_listeningBitset & SYSTEM_PROFILING) != 0;
+	}
+
+	/**
+	 * Whether {@link EntityTrackerInvocationStrategy} should also count bytes allocated by systems.
+	 */
+	public boolean isMeasuringAllocations() {
+		return (_listeningBitset & WorldUpdateListener.SYSTEM_ALLOCATIONS) != 0;
+	}
+
+	/**
+	 * Records processing time of a single system in current tick.
+	 * Histograms are allocated on first use and then kept.
+	 *
+	 * @param allocatedBytes {@code -1} when not measured
+	 */
+	public void processedSystem(int systemIndex, long nanoseconds, long allocatedBytes) {
+		TimeHistogram histogram = _systemsTimings.safeGet(systemIndex);
+		if (histogram == null) {
+			_systemsTimings.set(systemIndex, histogram = new TimeHistogram());
+		}
+		histogram.record(nanoseconds);
+
+		if (allocatedBytes >= 0) {
+			if (systemIndex >= _systemsAllocatedBytes.length) {
+				_systemsAllocatedBytes = Arrays.copyOf(_systemsAllocatedBytes, systemsInfo.size());
+			}
+			_systemsAllocatedBytes[systemIndex] += allocatedBytes;
+			_isMeasuringAllocations = true;
+		}
+	}
+
+	/**
+	 * Every {@link #systemTimingsTickInterval} ticks reports percentiles
+	 * of processed systems and begins a new window.
+	 */
+	private void updateSystemsTimings() {
+		if (++_ticksSinceSystemsTimings < systemTimingsTickInterval) {
+			return;
+		}
+		_ticksSinceSystemsTimings = 0;
+
+		for (int i = 0, n = _systemsTimings.size(); i < n; ++i) {
+			TimeHistogram histogram = _systemsTimings.get(i);
+			if (histogram == null || histogram.getTotalCount() == 0) {
+				continue;
+			}
+
+			SystemTimingStats stats = _systemsTimingStats.safeGet(i);
+			if (stats == null) {
+				_systemsTimingStats.set(i, stats = new SystemTimingStats());
+			}
+
+			long allocatedBytes = -1;
+			if (_isMeasuringAllocations) {
+				allocatedBytes = _systemsAllocatedBytes[i] / histogram.getTotalCount();
+				_systemsAllocatedBytes[i] = 0;
+			}
+
+			_reportedSystemsTimings.add(stats.set(i, histogram.getTotalCount(),
+				histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(99), histogram.getMax(),
+				allocatedBytes));
+			histogram.reset();
+		}
+
+		if (_reportedSystemsTimings.size() > 0) {
+			updateListener.updatedSystemsTimings(_reportedSystemsTimings);
+			_reportedSystemsTimings.clear();
+		}
 	}
 
 	private void find42UnicornManagers() {
@@ -138,24 +464,30 @@ public class EntityTracker extends Manager implements WorldController {
 		info.subscription.addSubscriptionListener(new SubscriptionListener() {
 			@Override
 			public void removed(ImmutableBag<Entity> entities) {
+				if (_listeningBitset == 0) {
+					return;
+				}
+
 				info.entitiesCount -= entities.size();
 
-				if (updateListener != null && (updateListener.getListeningBitset() & WorldUpdateListener.ENTITY_SYSTEM_STATS) != 0) {
-					updateListener.updatedEntitySystem(info.systemIndex, info.entitiesCount, info.maxEntitiesCount);
+				if (info.entitiesCount < info.windowMinEntitiesCount) {
+					info.windowMinEntitiesCount = info.entitiesCount;
 				}
+				_dirtySystems.set(info.systemIndex);
 			}
 
 			@Override
 			public void inserted(ImmutableBag<Entity> entities) {
-				info.entitiesCount += entities.size();
-
-				if (info.entitiesCount > info.maxEntitiesCount) {
-					info.maxEntitiesCount = info.entitiesCount;
+				if (_listeningBitset == 0) {
+					return;
 				}
 
-				if (updateListener != null && (updateListener.getListeningBitset() & WorldUpdateListener.ENTITY_SYSTEM_STATS) != 0) {
-					updateListener.updatedEntitySystem(info.systemIndex, info.entitiesCount, info.maxEntitiesCount);
+				info.entitiesCount += entities.size();
+
+				if (info.entitiesCount > info.windowMaxEntitiesCount) {
+					info.windowMaxEntitiesCount = info.entitiesCount;
 				}
+				_dirtySystems.set(info.systemIndex);
 			}
 		});
 	}
@@ -173,10 +505,28 @@ public class EntityTracker extends Manager implements WorldController {
 
 	@Override
 	public void added(Entity e) {
-		if (updateListener == null || (updateListener.getListeningBitset() & WorldUpdateListener.ENTITY_ADDED) == 0) {
+		if ((_listeningBitset & WorldUpdateListener.ENTITY_ADDED) == 0) {
 			return;
 		}
 
+		final int compositionId = e.getCompositionId();
+		if (_compositions.safeGet(compositionId) == null) {
+			registerComposition(e, compositionId);
+		}
+
+		if (_isBatchingEntityEvents) {
+			_entityEventsBatch.added(e.id, compositionId);
+		}
+		else {
+			updateListener.addedEntity(e.id, compositionId);
+		}
+	}
+
+	/**
+	 * Composition identities are interned by artemis itself so only the first entity
+	 * of every composition needs to have it's component bits read.
+	 */
+	private void registerComposition(Entity e, int compositionId) {
 		BitSet componentBitset = null;
 		try {
 			componentBitset = (BitSet) entity_getComponentBits.invoke(e);
@@ -189,16 +539,32 @@ public class EntityTracker extends Manager implements WorldController {
 			inspectNewComponentTypesAndNotify();
 		}
 
-		updateListener.addedEntity(e.id, (BitSet) componentBitset.clone());
+		BitSet composition = (BitSet) componentBitset.clone();
+		_compositions.set(compositionId, composition);
+		updateListener.addedComposition(compositionId, composition);
 	}
 
 	@Override
 	public void deleted(Entity e) {
-		if (updateListener == null || (updateListener.getListeningBitset() & WorldUpdateListener.ENTITY_DELETED) == 0) {
+		final int listeningBitset = _listeningBitset;
+		if (listeningBitset == 0) {
 			return;
 		}
 
-		updateListener.deletedEntity(e.id);
+		if (!_componentWatches.isEmpty()) {
+			removeComponentWatches(e.id);
+		}
+
+		if ((listeningBitset & WorldUpdateListener.ENTITY_DELETED) == 0) {
+			return;
+		}
+
+		if (_isBatchingEntityEvents) {
+			_entityEventsBatch.deleted(e.id);
+		}
+		else {
+			updateListener.deletedEntity(e.id);
+		}
 	}
 
 	private void inspectNewComponentTypesAndNotify() {
@@ -228,6 +594,7 @@ public class EntityTracker extends Manager implements WorldController {
 		for (Field field : fields) {
 			info.fields.add(FieldInfo.reflectField(field));
 		}
+		info.accessor = new FieldsAccessor(type, info.fields);
 
 		return info;
 	}
@@ -238,42 +605,219 @@ public class EntityTracker extends Manager implements WorldController {
 
 	@Override
 	public void setSystemState(String name, boolean isOn) {
-		SystemInfo info = systemsInfoByName.get(name);
-		info.system.setEnabled(isOn);
+		queueRequest(WorldRequest.SET_SYSTEM_STATE, -1, -1, isOn ? 1 : 0, name);
 	}
 
 	@Override
 	public void requestComponentState(int entityId, int componentIndex) {
+		queueRequest(WorldRequest.REQUEST_COMPONENT_STATE, entityId, componentIndex, 0, null);
+	}
+
+	@Override
+	public void watchComponent(int entityId, int componentIndex, int tickInterval) {
+		queueRequest(WorldRequest.WATCH_COMPONENT, entityId, componentIndex, tickInterval, null);
+	}
+
+	@Override
+	public void unwatchComponent(int entityId, int componentIndex, int tickInterval) {
+		queueRequest(WorldRequest.UNWATCH_COMPONENT, entityId, componentIndex, tickInterval, null);
+	}
+
+	@Override
+	public void setComponentFieldValue(int entityId, int componentIndex, int fieldIndex, Object value) {
+		queueRequest(WorldRequest.SET_COMPONENT_FIELD_VALUE, entityId, componentIndex, fieldIndex, value);
+	}
+
+	private void queueRequest(int type, int entityId, int componentIndex, int intValue, Object value) {
+		synchronized (_pendingRequests) {
+			WorldRequest request = _freeRequests.size() > 0 ? _freeRequests.removeLast() : new WorldRequest();
+			request.set(type, entityId, componentIndex, intValue, value);
+			_pendingRequests.add(request);
+		}
+	}
+
+	/**
+	 * Serves requests queued since the last tick. Requests queued meanwhile wait for the next one.
+	 */
+	private void serveRequests() {
+		synchronized (_pendingRequests) {
+			if (_pendingRequests.isEmpty()) {
+				return;
+			}
+			_servedRequests.addAll(_pendingRequests);
+			_pendingRequests.clear();
+		}
+
+		for (int i = 0, n = _servedRequests.size(); i < n; ++i) {
+			WorldRequest request = _servedRequests.get(i);
+
+			switch (request.type) {
+				case WorldRequest.SET_SYSTEM_STATE:
+					serveSystemState((String) request.value, request.intValue != 0);
+					break;
+				case WorldRequest.REQUEST_COMPONENT_STATE:
+					serveComponentState(request.entityId, request.componentIndex);
+					break;
+				case WorldRequest.WATCH_COMPONENT:
+					addComponentWatch(request.entityId, request.componentIndex, request.intValue);
+					break;
+				case WorldRequest.UNWATCH_COMPONENT:
+					removeComponentWatch(request.entityId, request.componentIndex, request.intValue);
+					break;
+				case WorldRequest.SET_COMPONENT_FIELD_VALUE:
+					serveComponentFieldValue(request.entityId, request.componentIndex, request.intValue, request.value);
+					break;
+			}
+		}
+
+		synchronized (_pendingRequests) {
+			for (int i = 0, n = _servedRequests.size(); i < n; ++i) {
+				WorldRequest request = _servedRequests.get(i);
+				request.value = null;
+				_freeRequests.add(request);
+			}
+		}
+		_servedRequests.clear();
+	}
+
+	private void serveSystemState(String name, boolean isOn) {
+		SystemInfo info = systemsInfoByName.get(name);
+
+		if (info != null) {
+			info.system.setEnabled(isOn);
+		}
+	}
+
+	/**
+	 * Returns component of existing entity, {@code null} when entity was deleted
+	 * or doesn't have it anymore by the time request is served.
+	 */
+	private Object getComponent(int entityId, int componentIndex) {
+		final ComponentMapper<? extends Component> mapper = allComponentMappers.safeGet(componentIndex);
+		if (mapper == null || entityId < 0 || !world.getEntityManager().isActive(entityId)) {
+			return null;
+		}
+
+		return mapper.getSafe(world.getEntity(entityId));
+	}
+
+	private void serveComponentState(int entityId, int componentIndex) {
+		final Object component = getComponent(entityId, componentIndex);
+		if (component == null) {
+			return;
+		}
+
 		final ComponentTypeInfo info = allComponentTypesInfo.get(componentIndex);
-		final ComponentMapper<? extends Component> mapper = allComponentMappers.get(componentIndex);
 
-		Object component = mapper.get(entityId);
+		if (updateListener instanceof RawComponentStateListener) {
+			((RawComponentStateListener) updateListener).updatedComponentState(entityId, info, component);
+			return;
+		}
 
 		int size = info.fields.size();
 		Object[] values = _objectArrPool.obtain(size, true);
+		info.accessor.getValues(component, values);
 
-		for (int i = 0; i < size; ++i) {
-			FieldInfo fieldInfo = info.fields.get(i);
+		updateListener.updatedComponentState(entityId, componentIndex, values);
+		_objectArrPool.free(values, true);
+	}
 
-			// TODO no support for arrays, yet
-			if (fieldInfo.isArray) {
-				values[i] = null;
+	private void addComponentWatch(int entityId, int componentIndex, int tickInterval) {
+		// entity could be deleted before request was served
+		if (entityId < 0 || !world.getEntityManager().isActive(entityId)) {
+			return;
+		}
+
+		ComponentWatch watch = findComponentWatch(entityId, componentIndex);
+
+		if (watch == null) {
+			watch = new ComponentWatch(entityId, componentIndex);
+			_componentWatches.add(watch);
+		}
+		watch.addWatcher(Math.max(1, tickInterval));
+	}
+
+	private void removeComponentWatch(int entityId, int componentIndex, int tickInterval) {
+		ComponentWatch watch = findComponentWatch(entityId, componentIndex);
+
+		if (watch != null && !watch.removeWatcher(Math.max(1, tickInterval))) {
+			_componentWatches.remove(watch);
+		}
+	}
+
+	private ComponentWatch findComponentWatch(int entityId, int componentIndex) {
+		for (int i = 0, n = _componentWatches.size(); i < n; ++i) {
+			ComponentWatch watch = _componentWatches.get(i);
+
+			if (watch.entityId == entityId && watch.componentIndex == componentIndex) {
+				return watch;
 			}
-			else {
-				values[i] = ReflectionUtils.getFieldValue(fieldInfo.field, component);
+		}
+
+		return null;
+	}
+
+	private void removeComponentWatches(int entityId) {
+		for (int i = _componentWatches.size() - 1; i >= 0; --i) {
+			if (_componentWatches.get(i).entityId == entityId) {
+				_componentWatches.remove(i);
 			}
 		}
+	}
 
-		updateListener.updatedComponentState(entityId, componentIndex, values);
+	/**
+	 * Sends state of watched components which are due in this tick.
+	 * All of them go out in a single flush, together with other events of the tick.
+	 */
+	private void sampleWatchedComponents() {
+		if (_componentWatches.isEmpty()) {
+			return;
+		}
+
+		for (int i = 0, n = _componentWatches.size(); i < n; ++i) {
+			ComponentWatch watch = _componentWatches.get(i);
+
+			if (--watch.ticksLeft > 0) {
+				continue;
+			}
+			watch.ticksLeft = watch.tickInterval;
+
+			Object component = getComponent(watch.entityId, watch.componentIndex);
+			if (component != null) {
+				sampleComponentState(watch, component);
+			}
+		}
+	}
+
+	private void sampleComponentState(ComponentWatch watch, Object component) {
+		final ComponentTypeInfo info = allComponentTypesInfo.get(watch.componentIndex);
+
+		// raw listener knows by itself what was already sent
+		if (updateListener instanceof RawComponentStateListener) {
+			((RawComponentStateListener) updateListener).updatedComponentState(watch.entityId, info, component);
+			return;
+		}
+
+		int size = info.fields.size();
+		Object[] values = _objectArrPool.obtain(size, true);
+		info.accessor.getValues(component, values);
+
+		if (watch.update(values, size)) {
+			updateListener.updatedComponentState(watch.entityId, watch.componentIndex, values);
+		}
 		_objectArrPool.free(values, true);
 	}
 
-	@Override
-	public void setComponentFieldValue(int entityId, int componentIndex, int fieldIndex, Object value) {
-		final ComponentTypeInfo info = allComponentTypesInfo.get(componentIndex);
-		final ComponentMapper<? extends Component> mapper = allComponentMappers.get(componentIndex);
+	private void serveComponentFieldValue(int entityId, int componentIndex, int fieldIndex, Object value) {
+		final Object component = getComponent(entityId, componentIndex);
+		if (component == null) {
+			return;
+		}
 
-		Object component = mapper.get(entityId);
+		final ComponentTypeInfo info = allComponentTypesInfo.get(componentIndex);
+		if (fieldIndex < 0 || fieldIndex >= info.fields.size()) {
+			return;
+		}
 		FieldInfo fieldInfo = info.fields.get(fieldIndex);
 
 		// TODO we should receive appropriate type here. Convert Strings on GUI side.
@@ -282,10 +826,110 @@ public class EntityTracker extends Manager implements WorldController {
 		}
 
 		try {
-			fieldInfo.field.set(component, value);
+			info.accessor.set(component, fieldIndex, value);
 		}
-		catch (ReflectionException e) {
+		catch (RuntimeException e) {
 			e.printStackTrace();
 		}
 	}
+
+
+	private static class WorldRequest {
+		static final int SET_SYSTEM_STATE = 1;
+		static final int REQUEST_COMPONENT_STATE = 2;
+		static final int WATCH_COMPONENT = 3;
+		static final int UNWATCH_COMPONENT = 4;
+		static final int SET_COMPONENT_FIELD_VALUE = 5;
+
+		int type;
+		int entityId, componentIndex;
+		/** System state, tick interval or field index, depending on type. */
+		int intValue;
+		/** System name or field value. */
+		Object value;
+
+		void set(int type, int entityId, int componentIndex, int intValue, Object value) {
+			this.type = type;
+			this.entityId = entityId;
+			this.componentIndex = componentIndex;
+			this.intValue = intValue;
+			this.value = value;
+		}
+	}
+
+	private static class ComponentWatch {
+		final int entityId, componentIndex;
+		int tickInterval, ticksLeft;
+		/** Tick interval of every watcher. */
+		final IntBag watcherIntervals = new IntBag(1);
+		Object[] lastValues;
+
+		ComponentWatch(int entityId, int componentIndex) {
+			this.entityId = entityId;
+			this.componentIndex = componentIndex;
+		}
+
+		void addWatcher(int tickInterval) {
+			watcherIntervals.add(tickInterval);
+			updateTickInterval();
+		}
+
+		/**
+		 * Removes watcher of given interval.
+		 *
+		 * @return {@code false} when nobody watches anymore
+		 */
+		boolean removeWatcher(int tickInterval) {
+			final int[] intervals = watcherIntervals.getData();
+
+			for (int i = 0, n = watcherIntervals.size(); i < n; ++i) {
+				if (intervals[i] == tickInterval) {
+					watcherIntervals.remove(i);
+					break;
+				}
+			}
+			updateTickInterval();
+
+			return !watcherIntervals.isEmpty();
+		}
+
+		/**
+		 * The most frequent of the watchers wins.
+		 */
+		private void updateTickInterval() {
+			int min = Integer.MAX_VALUE;
+
+			for (int i = 0, n = watcherIntervals.size(); i < n; ++i) {
+				min = Math.min(min, watcherIntervals.get(i));
+			}
+			tickInterval = min;
+			ticksLeft = Math.min(ticksLeft, tickInterval);
+		}
+
+		/**
+		 * Remembers given values.
+		 *
+		 * @return {@code true} if any of values differs from previous ones
+		 */
+		boolean update(Object[] values, int size) {
+			boolean isChanged = false;
+
+			if (lastValues == null || lastValues.length != size) {
+				lastValues = new Object[size];
+				isChanged = true;
+			}
+
+			for (int i = 0; i < size; ++i) {
+				Object value = values[i];
+
+				if (isChanged || (value == null ? lastValues[i] != null : !value.equals(lastValues[i]))) {
+					// bitsets are mutated in place so the reference can't be kept
+					lastValues[i] = value instanceof BitSet ? ((BitSet) value).clone() : value;
+					isChanged = true;
+				}
+			}
+
+			return isChanged;
+		}
+	}
 }
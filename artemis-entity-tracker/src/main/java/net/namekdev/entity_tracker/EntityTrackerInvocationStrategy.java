@@ -0,0 +1,75 @@
+package net.namekdev.entity_tracker;
+
+import net.namekdev.entity_tracker.utils.ThreadAllocationCounter;
+
+import com.artemis.BaseSystem;
+import com.artemis.InvocationStrategy;
+import com.artemis.SystemInvocationStrategy;
+import com.artemis.utils.Bag;
+
+/**
+ * Processes systems the same way as artemis' {@link InvocationStrategy}
+ * and notifies {@link EntityTracker} about end of every world tick.
+ * Measures processing time and allocations of systems when any listener wants it.
+ *
+ * Tracker sets it by itself when world is built without any strategy, otherwise:
+ *
+ * <pre>world.setInvocationStrategy(new EntityTrackerInvocationStrategy(entityTracker));</pre>
+ *
+ * @author Namek
+ */
+public class EntityTrackerInvocationStrategy extends SystemInvocationStrategy {
+	protected final EntityTracker tracker;
+	private ThreadAllocationCounter _allocationCounter;
+	private boolean _isAllocationCounterCreated;
+
+
+	public EntityTrackerInvocationStrategy(EntityTracker tracker) {
+		this.tracker = tracker;
+	}
+
+	@Override
+	protected void process(Bag<BaseSystem> systems) {
+		final boolean isProfiling = tracker.isProfilingSystems();
+		final ThreadAllocationCounter allocationCounter =
+			isProfiling && tracker.isMeasuringAllocations() ? getAllocationCounter() : null;
+
+		Object[] systemsData = systems.getData();
+		for (int i = 0, n = systems.size(); n > i; i++) {
+			updateEntityStates();
+
+			BaseSystem system = (BaseSystem) systemsData[i];
+			if (!system.isPassive()) {
+				if (allocationCounter != null) {
+					long startBytes = allocationCounter.getAllocatedBytes();
+					long startTime = System.nanoTime();
+					system.process();
+					long time = System.nanoTime() - startTime;
+					tracker.processedSystem(i, time, allocationCounter.getAllocatedBytesSince(startBytes));
+				}
+				else if (isProfiling) {
+					long startTime = System.nanoTime();
+					system.process();
+					tracker.processedSystem(i, System.nanoTime() - startTime, -1);
+				}
+				else {
+					system.process();
+				}
+			}
+		}
+
+		// entities created by the last system would be added in next tick,
+		// tracker may scan the world on tick end so they're added now
+		updateEntityStates();
+		tracker.endTick();
+	}
+
+	private ThreadAllocationCounter getAllocationCounter() {
+		if (!_isAllocationCounterCreated) {
+			_allocationCounter = ThreadAllocationCounter.create();
+			_isAllocationCounterCreated = true;
+		}
+
+		return _allocationCounter;
+	}
+}
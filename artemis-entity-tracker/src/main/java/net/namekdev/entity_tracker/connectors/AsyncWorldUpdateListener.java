@@ -0,0 +1,684 @@
+package net.namekdev.entity_tracker.connectors;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import net.namekdev.entity_tracker.model.ComponentTypeInfo;
+import net.namekdev.entity_tracker.model.EntitySystemStats;
+import net.namekdev.entity_tracker.model.SystemTimingStats;
+
+import com.artemis.utils.Bag;
+import com.artemis.utils.IntBag;
+
+/**
+ * Passes events to another listener (e.g. {@code EntityTrackerServer}) on separate thread,
+ * so world thread doesn't pay for serialization and network.
+ *
+ * <p>Events are written as fixed-size records into preallocated ring buffer
+ * which has single producer (world thread) and single consumer. When the ring is full
+ * the {@link OverflowPolicy} decides what to do. Events that describe world structure
+ * (systems, managers, component types) are never dropped since later events refer to them,
+ * world thread waits for free space in that case. End of bulk entity event goes into
+ * the slot reserved by its items, so it never makes world thread wait.</p>
+ *
+ * <pre>new EntityTracker(new AsyncWorldUpdateListener(entityTrackerServer).start());</pre>
+ *
+ * @author Namek
+ */
+public class AsyncWorldUpdateListener implements WorldUpdateListener {
+	public enum OverflowPolicy {
+		/** Forget new events until there is free space. */
+		DROP,
+
+		/**
+		 * Merge entity and system events into one bulk state, which is sent
+		 * when consumer catches up. Component states are dropped.
+		 */
+		COALESCE,
+
+		/** Make world thread wait for free space. */
+		BLOCK
+	}
+
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	private static final byte EVENT_ADDED_SYSTEM = 1;
+	private static final byte EVENT_ADDED_MANAGER = 2;
+	private static final byte EVENT_ADDED_COMPONENT_TYPE = 3;
+	private static final byte EVENT_UPDATED_ENTITY_SYSTEMS_ITEM = 4;
+	private static final byte EVENT_ADDED_ENTITY = 5;
+	private static final byte EVENT_ADDED_ENTITIES_ITEM = 6;
+	private static final byte EVENT_ADDED_ENTITIES_END = 7;
+	private static final byte EVENT_DELETED_ENTITY = 8;
+	private static final byte EVENT_DELETED_ENTITIES_ITEM = 9;
+	private static final byte EVENT_DELETED_ENTITIES_END = 10;
+	private static final byte EVENT_UPDATED_COMPONENT_STATE = 11;
+	private static final byte EVENT_ADDED_COMPOSITION = 12;
+	private static final byte EVENT_TICK_ENDED = 13;
+	private static final byte EVENT_UPDATED_SYSTEMS_TIMINGS = 14;
+
+	private static final int INTS_PER_EVENT = 5;
+	private static final int REFS_PER_EVENT = 4;
+
+	private static final long PRODUCER_WAIT_NANOS = 10000;
+	private static final long CONSUMER_PARK_NANOS = 1000000;
+
+	private final WorldUpdateListener _target;
+	private final OverflowPolicy _overflowPolicy;
+	private final int _capacity;
+	private final int _mask;
+	private final byte[] _types;
+	private final int[] _ints;
+	private final Object[] _refs;
+
+	// owned by world thread
+	private long _tail;
+	private long _cachedHead;
+	private boolean _isOverflowing;
+
+	/** Written only by world thread. */
+	private volatile long _droppedEventsCount;
+
+	private final AtomicLong _publishedTail = new AtomicLong();
+	private final AtomicLong _head = new AtomicLong();
+	private final AtomicReference<CoalescedEvents> _pendingCoalesced = new AtomicReference<CoalescedEvents>();
+	private final AtomicReference<CoalescedEvents> _spareCoalesced = new AtomicReference<CoalescedEvents>();
+	private volatile boolean _isConsumerWaiting;
+	private volatile boolean _isRunning;
+	private Thread _thread;
+
+	// owned by consumer thread
+	private final IntBag _consumedAddedIds = new IntBag();
+	private final IntBag _consumedAddedCompositionIds = new IntBag();
+	private final IntBag _consumedDeletedIds = new IntBag();
+	private final Bag<EntitySystemStats> _consumedSystemsStats = new Bag<EntitySystemStats>();
+	private final Bag<EntitySystemStats> _consumedSystemsStatsPool = new Bag<EntitySystemStats>();
+
+
+	public AsyncWorldUpdateListener(WorldUpdateListener target) {
+		this(target, DEFAULT_CAPACITY, OverflowPolicy.COALESCE);
+	}
+
+	public AsyncWorldUpdateListener(WorldUpdateListener target, OverflowPolicy overflowPolicy) {
+		this(target, DEFAULT_CAPACITY, overflowPolicy);
+	}
+
+	/**
+	 * @param capacity maximum count of events waiting for consumer, rounded up to power of two
+	 */
+	public AsyncWorldUpdateListener(WorldUpdateListener target, int capacity, OverflowPolicy overflowPolicy) {
+		_target = target;
+		_overflowPolicy = overflowPolicy;
+		_capacity = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+		_mask = _capacity - 1;
+		_types = new byte[_capacity];
+		_ints = new int[_capacity * INTS_PER_EVENT];
+		_refs = new Object[_capacity * REFS_PER_EVENT];
+	}
+
+	/**
+	 * Starts consumer thread which passes events to target listener.
+	 */
+	public AsyncWorldUpdateListener start() {
+		if (_isRunning) {
+			throw new IllegalStateException("Cannot start twice in the same time.");
+		}
+
+		_isRunning = true;
+		_thread = new Thread(consumerRunnable);
+		_thread.start();
+
+		return this;
+	}
+
+	public void stop() {
+		_isRunning = false;
+
+		if (_thread != null) {
+			LockSupport.unpark(_thread);
+		}
+	}
+
+	/**
+	 * Count of events that were lost because of full ring buffer.
+	 */
+	public long getDroppedEventsCount() {
+		return _droppedEventsCount;
+	}
+
+
+	@Override
+	public void injectWorldController(WorldController controller) {
+		_target.injectWorldController(controller);
+	}
+
+	@Override
+	public int getListeningBitset() {
+		return _target.getListeningBitset();
+	}
+
+	@Override
+	public void addedSystem(int index, String name, BitSet allTypes, BitSet oneTypes, BitSet notTypes) {
+		int slot = claimStructural();
+		if (slot < 0) {
+			return;
+		}
+
+		_types[slot] = EVENT_ADDED_SYSTEM;
+		_ints[slot * INTS_PER_EVENT] = index;
+		int r = slot * REFS_PER_EVENT;
+		_refs[r] = name;
+		_refs[r + 1] = allTypes;
+		_refs[r + 2] = oneTypes;
+		_refs[r + 3] = notTypes;
+		publish();
+	}
+
+	@Override
+	public void addedManager(String name) {
+		int slot = claimStructural();
+		if (slot < 0) {
+			return;
+		}
+
+		_types[slot] = EVENT_ADDED_MANAGER;
+		_refs[slot * REFS_PER_EVENT] = name;
+		publish();
+	}
+
+	@Override
+	public void addedComponentType(int index, ComponentTypeInfo info) {
+		int slot = claimStructural();
+		if (slot < 0) {
+			return;
+		}
+
+		_types[slot] = EVENT_ADDED_COMPONENT_TYPE;
+		_ints[slot * INTS_PER_EVENT] = index;
+		_refs[slot * REFS_PER_EVENT] = info;
+		publish();
+	}
+
+	@Override
+	public void updatedEntitySystems(Bag<EntitySystemStats> systemsStats) {
+		// consecutive items are passed on together, no end marker is needed
+		for (int i = 0, n = systemsStats.size(); i < n; ++i) {
+			EntitySystemStats stats = systemsStats.get(i);
+
+			int slot = claim();
+			if (slot >= 0) {
+				_types[slot] = EVENT_UPDATED_ENTITY_SYSTEMS_ITEM;
+				int j = slot * INTS_PER_EVENT;
+				_ints[j] = stats.systemIndex;
+				_ints[j + 1] = stats.entitiesCount;
+				_ints[j + 2] = stats.minEntitiesCount;
+				_ints[j + 3] = stats.maxEntitiesCount;
+				_ints[j + 4] = Float.floatToRawIntBits(stats.averageEntitiesCount);
+				publish();
+			}
+			else {
+				CoalescedEvents coalesced = beginCoalescing();
+				if (coalesced != null) {
+					coalesced.updatedEntitySystem(stats);
+					endCoalescing(coalesced);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void updatedSystemsTimings(Bag<SystemTimingStats> systemsTimings) {
+		int slot = claim();
+		if (slot < 0) {
+			// next report replaces these anyway
+			if (_overflowPolicy == OverflowPolicy.COALESCE) {
+				++_droppedEventsCount;
+			}
+			return;
+		}
+
+		// reported rarely, so it's just copied
+		final int n = systemsTimings.size();
+		Bag<SystemTimingStats> copy = new Bag<SystemTimingStats>(n);
+		for (int i = 0; i < n; ++i) {
+			copy.add(new SystemTimingStats().set(systemsTimings.get(i)));
+		}
+
+		_types[slot] = EVENT_UPDATED_SYSTEMS_TIMINGS;
+		_refs[slot * REFS_PER_EVENT] = copy;
+		publish();
+	}
+
+	@Override
+	public void addedComposition(int compositionId, BitSet components) {
+		int slot = claimStructural();
+		if (slot < 0) {
+			return;
+		}
+
+		_types[slot] = EVENT_ADDED_COMPOSITION;
+		_ints[slot * INTS_PER_EVENT] = compositionId;
+		_refs[slot * REFS_PER_EVENT] = components;
+		publish();
+	}
+
+	@Override
+	public void addedEntity(int entityId, int compositionId) {
+		int slot = claim();
+		if (slot >= 0) {
+			_types[slot] = EVENT_ADDED_ENTITY;
+			int i = slot * INTS_PER_EVENT;
+			_ints[i] = entityId;
+			_ints[i + 1] = compositionId;
+			publish();
+		}
+		else {
+			CoalescedEvents coalesced = beginCoalescing();
+			if (coalesced != null) {
+				coalesced.entities.added(entityId, compositionId);
+				endCoalescing(coalesced);
+			}
+		}
+	}
+
+	@Override
+	public void addedEntities(IntBag entityIds, IntBag compositionIds) {
+		boolean isAnyInRing = false;
+
+		for (int i = 0, n = entityIds.size(); i < n; ++i) {
+			int slot = claim(1);
+			if (slot >= 0) {
+				_types[slot] = EVENT_ADDED_ENTITIES_ITEM;
+				int j = slot * INTS_PER_EVENT;
+				_ints[j] = entityIds.get(i);
+				_ints[j + 1] = compositionIds.get(i);
+				publish();
+				isAnyInRing = true;
+			}
+			else {
+				CoalescedEvents coalesced = beginCoalescing();
+				if (coalesced != null) {
+					coalesced.entities.added(entityIds.get(i), compositionIds.get(i));
+					endCoalescing(coalesced);
+				}
+			}
+		}
+
+		if (isAnyInRing) {
+			_types[claimReserved()] = EVENT_ADDED_ENTITIES_END;
+			publish();
+		}
+	}
+
+	@Override
+	public void deletedEntity(int entityId) {
+		int slot = claim();
+		if (slot >= 0) {
+			_types[slot] = EVENT_DELETED_ENTITY;
+			_ints[slot * INTS_PER_EVENT] = entityId;
+			publish();
+		}
+		else {
+			CoalescedEvents coalesced = beginCoalescing();
+			if (coalesced != null) {
+				coalesced.entities.deleted(entityId);
+				endCoalescing(coalesced);
+			}
+		}
+	}
+
+	@Override
+	public void deletedEntities(IntBag entityIds) {
+		boolean isAnyInRing = false;
+
+		for (int i = 0, n = entityIds.size(); i < n; ++i) {
+			int slot = claim(1);
+			if (slot >= 0) {
+				_types[slot] = EVENT_DELETED_ENTITIES_ITEM;
+				_ints[slot * INTS_PER_EVENT] = entityIds.get(i);
+				publish();
+				isAnyInRing = true;
+			}
+			else {
+				CoalescedEvents coalesced = beginCoalescing();
+				if (coalesced != null) {
+					coalesced.entities.deleted(entityIds.get(i));
+					endCoalescing(coalesced);
+				}
+			}
+		}
+
+		if (isAnyInRing) {
+			_types[claimReserved()] = EVENT_DELETED_ENTITIES_END;
+			publish();
+		}
+	}
+
+	@Override
+	public void updatedComponentState(int entityId, int componentIndex, Object[] values) {
+		int slot = claim();
+		if (slot < 0) {
+			// state is requested again by the interface, there's no point to keep it
+			if (_overflowPolicy == OverflowPolicy.COALESCE) {
+				++_droppedEventsCount;
+			}
+			return;
+		}
+
+		_types[slot] = EVENT_UPDATED_COMPONENT_STATE;
+		int i = slot * INTS_PER_EVENT;
+		_ints[i] = entityId;
+		_ints[i + 1] = componentIndex;
+		// values array is reused by caller
+		_refs[slot * REFS_PER_EVENT] = values.clone();
+		publish();
+	}
+
+	@Override
+	public void tickEnded() {
+		int slot = claim();
+		if (slot >= 0) {
+			_types[slot] = EVENT_TICK_ENDED;
+			publish();
+		}
+		else {
+			CoalescedEvents coalesced = beginCoalescing();
+			if (coalesced != null) {
+				coalesced.isTickEnded = true;
+				endCoalescing(coalesced);
+			}
+		}
+	}
+
+
+	/**
+	 * Returns ring slot for new event or {@code -1} when event doesn't go into the ring.
+	 * Dropped events are counted here.
+	 */
+	private int claim() {
+		return claim(0);
+	}
+
+	/**
+	 * @param reservedCount count of slots which have to stay free after this one,
+	 *   e.g. for the end marker of bulk event which has to go into the ring
+	 *   without making world thread wait
+	 */
+	private int claim(int reservedCount) {
+		if (_isOverflowing) {
+			// keep order: until consumer takes coalesced events, the new ones are coalesced too
+			if (_pendingCoalesced.get() != null) {
+				return -1;
+			}
+			_isOverflowing = false;
+		}
+
+		if (hasFreeSlot(reservedCount) || _overflowPolicy == OverflowPolicy.BLOCK && waitForFreeSlot(reservedCount)) {
+			return (int) (_tail & _mask);
+		}
+
+		if (_overflowPolicy != OverflowPolicy.COALESCE) {
+			++_droppedEventsCount;
+		}
+
+		return -1;
+	}
+
+	private int claimStructural() {
+		if (hasFreeSlot(0) || waitForFreeSlot(0)) {
+			return (int) (_tail & _mask);
+		}
+
+		++_droppedEventsCount;
+		return -1;
+	}
+
+	/**
+	 * Returns slot which was kept free by previous {@link #claim(int)}.
+	 */
+	private int claimReserved() {
+		return (int) (_tail & _mask);
+	}
+
+	private boolean hasFreeSlot(int reservedCount) {
+		final int available = _capacity - reservedCount;
+
+		if (_tail - _cachedHead < available) {
+			return true;
+		}
+
+		_cachedHead = _head.get();
+		return _tail - _cachedHead < available;
+	}
+
+	private boolean waitForFreeSlot(int reservedCount) {
+		while (_isRunning) {
+			LockSupport.unpark(_thread);
+			LockSupport.parkNanos(this, PRODUCER_WAIT_NANOS);
+
+			if (hasFreeSlot(reservedCount)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private void publish() {
+		_publishedTail.set(++_tail);
+		wakeConsumer();
+	}
+
+	/**
+	 * Returns coalesced state which can be modified by world thread or {@code null}
+	 * when overflow policy is not to coalesce.
+	 */
+	private CoalescedEvents beginCoalescing() {
+		if (_overflowPolicy != OverflowPolicy.COALESCE) {
+			return null;
+		}
+
+		_isOverflowing = true;
+		CoalescedEvents coalesced = _pendingCoalesced.getAndSet(null);
+
+		if (coalesced == null) {
+			coalesced = _spareCoalesced.getAndSet(null);
+
+			if (coalesced == null) {
+				coalesced = new CoalescedEvents();
+			}
+		}
+
+		return coalesced;
+	}
+
+	private void endCoalescing(CoalescedEvents coalesced) {
+		_pendingCoalesced.set(coalesced);
+		wakeConsumer();
+	}
+
+	private void wakeConsumer() {
+		if (_isConsumerWaiting) {
+			LockSupport.unpark(_thread);
+		}
+	}
+
+
+	/**
+	 * Passes ring events to the target listener.
+	 *
+	 * @return {@code true} if any event was consumed
+	 */
+	private boolean consumeRing() {
+		long head = _head.get();
+		final long tail = _publishedTail.get();
+
+		if (head == tail) {
+			return false;
+		}
+
+		while (head < tail) {
+			int slot = (int) (head & _mask);
+			dispatch(slot);
+			_head.lazySet(++head);
+		}
+		dispatchConsumedSystemsStats();
+
+		return true;
+	}
+
+	private void dispatch(int slot) {
+		final int i = slot * INTS_PER_EVENT;
+		final int r = slot * REFS_PER_EVENT;
+		final Object[] refs = _refs;
+		final byte type = _types[slot];
+
+		if (type != EVENT_UPDATED_ENTITY_SYSTEMS_ITEM) {
+			dispatchConsumedSystemsStats();
+		}
+
+		switch (type) {
+			case EVENT_ADDED_SYSTEM:
+				_target.addedSystem(_ints[i], (String) refs[r], (BitSet) refs[r + 1], (BitSet) refs[r + 2], (BitSet) refs[r + 3]);
+				break;
+			case EVENT_ADDED_MANAGER:
+				_target.addedManager((String) refs[r]);
+				break;
+			case EVENT_ADDED_COMPONENT_TYPE:
+				_target.addedComponentType(_ints[i], (ComponentTypeInfo) refs[r]);
+				break;
+			case EVENT_UPDATED_ENTITY_SYSTEMS_ITEM: {
+				final int index = _consumedSystemsStats.size();
+				EntitySystemStats stats = _consumedSystemsStatsPool.safeGet(index);
+				if (stats == null) {
+					_consumedSystemsStatsPool.set(index, stats = new EntitySystemStats());
+				}
+				_consumedSystemsStats.add(stats.set(_ints[i], _ints[i + 1], _ints[i + 2], _ints[i + 3], Float.intBitsToFloat(_ints[i + 4])));
+				break;
+			}
+
+			case EVENT_ADDED_COMPOSITION:
+				_target.addedComposition(_ints[i], (BitSet) refs[r]);
+				break;
+			case EVENT_ADDED_ENTITY:
+				_target.addedEntity(_ints[i], _ints[i + 1]);
+				break;
+			case EVENT_ADDED_ENTITIES_ITEM:
+				_consumedAddedIds.add(_ints[i]);
+				_consumedAddedCompositionIds.add(_ints[i + 1]);
+				break;
+			case EVENT_ADDED_ENTITIES_END:
+				_target.addedEntities(_consumedAddedIds, _consumedAddedCompositionIds);
+				_consumedAddedIds.setSize(0);
+				_consumedAddedCompositionIds.setSize(0);
+				break;
+			case EVENT_DELETED_ENTITY:
+				_target.deletedEntity(_ints[i]);
+				break;
+			case EVENT_DELETED_ENTITIES_ITEM:
+				_consumedDeletedIds.add(_ints[i]);
+				break;
+			case EVENT_DELETED_ENTITIES_END:
+				_target.deletedEntities(_consumedDeletedIds);
+				_consumedDeletedIds.setSize(0);
+				break;
+			case EVENT_UPDATED_COMPONENT_STATE:
+				_target.updatedComponentState(_ints[i], _ints[i + 1], (Object[]) refs[r]);
+				break;
+			case EVENT_TICK_ENDED:
+				_target.tickEnded();
+				break;
+			case EVENT_UPDATED_SYSTEMS_TIMINGS:
+				_target.updatedSystemsTimings((Bag<SystemTimingStats>) refs[r]);
+				break;
+		}
+
+		for (int j = 0; j < REFS_PER_EVENT; ++j) {
+			refs[r + j] = null;
+		}
+	}
+
+	private void dispatchConsumedSystemsStats() {
+		if (_consumedSystemsStats.size() > 0) {
+			_target.updatedEntitySystems(_consumedSystemsStats);
+			_consumedSystemsStats.clear();
+		}
+	}
+
+	private final Runnable consumerRunnable = new Runnable() {
+		@Override
+		public void run() {
+			while (_isRunning) {
+				if (consumeRing()) {
+					continue;
+				}
+
+				// coalesced events are newer than everything that was in the ring
+				CoalescedEvents coalesced = _pendingCoalesced.getAndSet(null);
+				if (coalesced != null) {
+					coalesced.flush(_target);
+					_spareCoalesced.set(coalesced);
+					continue;
+				}
+
+				_isConsumerWaiting = true;
+				if (_publishedTail.get() == _head.get() && _pendingCoalesced.get() == null) {
+					LockSupport.parkNanos(this, CONSUMER_PARK_NANOS);
+				}
+				_isConsumerWaiting = false;
+			}
+		}
+	};
+
+
+	private static class CoalescedEvents {
+		final EntityEventsBatch entities = new EntityEventsBatch();
+		final BitSet dirtySystems = new BitSet();
+		final Bag<EntitySystemStats> systemsStats = new Bag<EntitySystemStats>();
+		final Bag<EntitySystemStats> flushedSystemsStats = new Bag<EntitySystemStats>();
+		boolean isTickEnded;
+
+		/**
+		 * Windows are merged, average of the newest one is kept.
+		 */
+		void updatedEntitySystem(EntitySystemStats stats) {
+			final int index = stats.systemIndex;
+			EntitySystemStats merged = systemsStats.safeGet(index);
+
+			if (merged == null) {
+				systemsStats.set(index, merged = new EntitySystemStats());
+			}
+
+			if (!dirtySystems.get(index)) {
+				dirtySystems.set(index);
+				merged.set(stats);
+			}
+			else {
+				int min = Math.min(merged.minEntitiesCount, stats.minEntitiesCount);
+				int max = Math.max(merged.maxEntitiesCount, stats.maxEntitiesCount);
+				merged.set(index, stats.entitiesCount, min, max, stats.averageEntitiesCount);
+			}
+		}
+
+		void flush(WorldUpdateListener listener) {
+			entities.flush(listener);
+
+			if (!dirtySystems.isEmpty()) {
+				for (int i = dirtySystems.nextSetBit(0); i >= 0; i = dirtySystems.nextSetBit(i+1)) {
+					flushedSystemsStats.add(systemsStats.get(i));
+				}
+				dirtySystems.clear();
+
+				listener.updatedEntitySystems(flushedSystemsStats);
+				flushedSystemsStats.clear();
+			}
+
+			if (isTickEnded) {
+				isTickEnded = false;
+				listener.tickEnded();
+			}
+		}
+	}
+}
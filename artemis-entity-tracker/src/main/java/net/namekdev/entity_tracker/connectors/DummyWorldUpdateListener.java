@@ -3,6 +3,11 @@ package net.namekdev.entity_tracker.connectors;
 import java.util.BitSet;
 
 import net.namekdev.entity_tracker.model.ComponentTypeInfo;
+import net.namekdev.entity_tracker.model.EntitySystemStats;
+import net.namekdev.entity_tracker.model.SystemTimingStats;
+
+import com.artemis.utils.Bag;
+import com.artemis.utils.IntBag;
 
 public class DummyWorldUpdateListener implements WorldUpdateListener {
 	@Override
@@ -27,18 +32,38 @@ public class DummyWorldUpdateListener implements WorldUpdateListener {
 	}
 
 	@Override
-	public void updatedEntitySystem(int index, int entitiesCount, int maxEntitiesCount) {
+	public void updatedEntitySystems(Bag<EntitySystemStats> systemsStats) {
+	}
+
+	@Override
+	public void updatedSystemsTimings(Bag<SystemTimingStats> systemsTimings) {
+	}
+
+	@Override
+	public void addedComposition(int compositionId, BitSet components) {
+	}
+
+	@Override
+	public void addedEntity(int entityId, int compositionId) {
 	}
 
 	@Override
-	public void addedEntity(int entityId, BitSet components) {
+	public void addedEntities(IntBag entityIds, IntBag compositionIds) {
 	}
 
 	@Override
 	public void deletedEntity(int entityId) {
 	}
 
+	@Override
+	public void deletedEntities(IntBag entityIds) {
+	}
+
 	@Override
 	public void updatedComponentState(int entityId, int componentIndex, Object[] values) {
 	}
+
+	@Override
+	public void tickEnded() {
+	}
 }
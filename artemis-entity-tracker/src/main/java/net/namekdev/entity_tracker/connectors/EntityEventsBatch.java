@@ -0,0 +1,67 @@
+package net.namekdev.entity_tracker.connectors;
+
+import java.util.BitSet;
+
+import com.artemis.utils.IntBag;
+
+/**
+ * Collects added and deleted entities to pass them to {@link WorldUpdateListener} in bulk.
+ *
+ * <p>Entity that was both added and deleted within one batch is forgotten.
+ * Deletions are flushed before additions since entity id could have been recycled
+ * within the same batch.</p>
+ *
+ * @author Namek
+ */
+public class EntityEventsBatch {
+	private final BitSet _addedEntityIds = new BitSet();
+	private final IntBag _addedCompositionIds = new IntBag();
+	private final IntBag _deletedEntityIds = new IntBag();
+	private final IntBag _flushedEntityIds = new IntBag();
+	private final IntBag _flushedCompositionIds = new IntBag();
+
+
+	public void added(int entityId, int compositionId) {
+		_addedEntityIds.set(entityId);
+		_addedCompositionIds.set(entityId, compositionId);
+	}
+
+	public void deleted(int entityId) {
+		if (_addedEntityIds.get(entityId)) {
+			_addedEntityIds.clear(entityId);
+		}
+		else {
+			_deletedEntityIds.add(entityId);
+		}
+	}
+
+	public boolean isEmpty() {
+		return _deletedEntityIds.size() == 0 && _addedEntityIds.isEmpty();
+	}
+
+	public void flush(WorldUpdateListener listener) {
+		if (_deletedEntityIds.size() > 0) {
+			listener.deletedEntities(_deletedEntityIds);
+			_deletedEntityIds.setSize(0);
+		}
+
+		if (!_addedEntityIds.isEmpty()) {
+			final BitSet ids = _addedEntityIds;
+
+			for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id+1)) {
+				_flushedEntityIds.add(id);
+				_flushedCompositionIds.add(_addedCompositionIds.get(id));
+			}
+			ids.clear();
+
+			listener.addedEntities(_flushedEntityIds, _flushedCompositionIds);
+			_flushedEntityIds.setSize(0);
+			_flushedCompositionIds.setSize(0);
+		}
+	}
+
+	public void clear() {
+		_addedEntityIds.clear();
+		_deletedEntityIds.setSize(0);
+	}
+}
@@ -0,0 +1,17 @@
+package net.namekdev.entity_tracker.connectors;
+
+import net.namekdev.entity_tracker.model.ComponentTypeInfo;
+
+/**
+ * Optional interface for {@link WorldUpdateListener} that reads component fields by itself
+ * through {@link ComponentTypeInfo#accessor}, e.g. straight into network serializer,
+ * so tracker doesn't have to gather boxed values into {@code Object[]}.
+ *
+ * @author Namek
+ */
+public interface RawComponentStateListener {
+	/**
+	 * @param component live component instance, it should be read before returning
+	 */
+	void updatedComponentState(int entityId, ComponentTypeInfo info, Object component);
+}
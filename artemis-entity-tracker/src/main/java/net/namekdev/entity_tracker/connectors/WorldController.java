@@ -1,7 +1,24 @@
 package net.namekdev.entity_tracker.connectors;
 
+/**
+ * Requests to the world, which may come from any thread.
+ * Entity Tracker serves them by world thread at the end of world tick.
+ */
 public interface WorldController {
 	void setSystemState(String name, boolean isOn);
 	void requestComponentState(int entityId, int componentIndex);
 	void setComponentFieldValue(int entityId, int componentIndex, int fieldIndex, Object value);
+
+	/**
+	 * Subscribes to state of given component, which is then sent at the end of
+	 * every {@code tickInterval}-th world tick, but only when it's changed.
+	 * Watch is dropped when entity is deleted.
+	 */
+	void watchComponent(int entityId, int componentIndex, int tickInterval);
+
+	/**
+	 * Cancels a watch, {@code tickInterval} is the one given to {@link #watchComponent(int, int, int)}
+	 * so component can be sampled less often if other watchers don't need it.
+	 */
+	void unwatchComponent(int entityId, int componentIndex, int tickInterval);
 }
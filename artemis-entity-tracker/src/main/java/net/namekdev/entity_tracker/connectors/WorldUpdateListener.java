@@ -3,6 +3,11 @@ package net.namekdev.entity_tracker.connectors;
 import java.util.BitSet;
 
 import net.namekdev.entity_tracker.model.ComponentTypeInfo;
+import net.namekdev.entity_tracker.model.EntitySystemStats;
+import net.namekdev.entity_tracker.model.SystemTimingStats;
+
+import com.artemis.utils.Bag;
+import com.artemis.utils.IntBag;
 
 /**
  *
@@ -13,6 +18,8 @@ public interface WorldUpdateListener {
 	public static final int ENTITY_DELETED = 1 << 2;
 //	public static final int CHANGED = 1 << 3;
 	public static final int ENTITY_SYSTEM_STATS = 1 << 4;
+	public static final int SYSTEM_TIMINGS = 1 << 5;
+	public static final int SYSTEM_ALLOCATIONS = 1 << 6;
 
 
 	void injectWorldController(WorldController controller);
@@ -25,15 +32,49 @@ public interface WorldUpdateListener {
 
 	void addedComponentType(int index, ComponentTypeInfo info);
 
-	void updatedEntitySystem(int index, int entitiesCount, int maxEntitiesCount);
-
-	void addedEntity(int entityId, BitSet components);
+	/**
+	 * Stats of systems which entity count changed since previous call,
+	 * called at most once per world tick. Bag is reused after this call returns.
+	 */
+	void updatedEntitySystems(Bag<EntitySystemStats> systemsStats);
+
+	/**
+	 * Processing times of systems which were processed since previous call,
+	 * see {@link net.namekdev.entity_tracker.EntityTracker#systemTimingsTickInterval}.
+	 * Bag is reused after this call returns.
+	 */
+	void updatedSystemsTimings(Bag<SystemTimingStats> systemsTimings);
+
+	/**
+	 * Describes set of component types which is shared by many entities.
+	 * Always called before first entity of such composition is added.
+	 */
+	void addedComposition(int compositionId, BitSet components);
+
+	void addedEntity(int entityId, int compositionId);
+
+	/**
+	 * Bulk version of {@link #addedEntity(int, int)}, called once per world tick
+	 * when entity events are batched. Both bags are reused after this call returns.
+	 */
+	void addedEntities(IntBag entityIds, IntBag compositionIds);
 
 //	void changed(Entity e);
 
 	void deletedEntity(int entityId);
 
+	/**
+	 * Bulk version of {@link #deletedEntity(int)}, called once per world tick
+	 * when entity events are batched. Bag is reused after this call returns.
+	 */
+	void deletedEntities(IntBag entityIds);
+
 	void updatedComponentState(int entityId, int componentIndex, Object[] values);
 
+	/**
+	 * Called after every world tick, when {@link net.namekdev.entity_tracker.EntityTracker#endTick()} is called.
+	 * Good moment to send what was collected.
+	 */
+	void tickEnded();
 
 }
@@ -2,11 +2,16 @@ package net.namekdev.entity_tracker.model;
 
 import java.util.Vector;
 
+import net.namekdev.entity_tracker.utils.FieldsAccessor;
+
 
 public class ComponentTypeInfo {
 	/** Only available on server side. */
 	public Class<?> type;
 
+	/** Only available on server side. */
+	public FieldsAccessor accessor;
+
 	public String name;
 	public int index;
 	public final Vector<FieldInfo> fields = new Vector<FieldInfo>();
@@ -0,0 +1,33 @@
+package net.namekdev.entity_tracker.model;
+
+/**
+ * Entity count of a system, measured over window of ticks since previous report.
+ */
+public class EntitySystemStats {
+	public int systemIndex;
+	public int entitiesCount;
+	public int minEntitiesCount;
+	public int maxEntitiesCount;
+	public float averageEntitiesCount;
+
+
+	public EntitySystemStats() {
+	}
+
+	public EntitySystemStats(int systemIndex) {
+		this.systemIndex = systemIndex;
+	}
+
+	public EntitySystemStats set(int systemIndex, int entitiesCount, int minEntitiesCount, int maxEntitiesCount, float averageEntitiesCount) {
+		this.systemIndex = systemIndex;
+		this.entitiesCount = entitiesCount;
+		this.minEntitiesCount = minEntitiesCount;
+		this.maxEntitiesCount = maxEntitiesCount;
+		this.averageEntitiesCount = averageEntitiesCount;
+		return this;
+	}
+
+	public EntitySystemStats set(EntitySystemStats other) {
+		return set(other.systemIndex, other.entitiesCount, other.minEntitiesCount, other.maxEntitiesCount, other.averageEntitiesCount);
+	}
+}
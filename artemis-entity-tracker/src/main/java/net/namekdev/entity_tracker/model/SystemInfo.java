@@ -15,7 +15,11 @@ public class SystemInfo {
 	public BitSet actives;
 	public EntitySubscription subscription;
 	public int entitiesCount = 0;
-	public int maxEntitiesCount = 0;
+
+	/** Window of ticks since entity count was reported last time. */
+	public int windowMinEntitiesCount, windowMaxEntitiesCount;
+	public long windowEntitiesCountSum;
+	public int windowTicksCount;
 
 
 	public SystemInfo(int systemIndex, String systemName, BaseSystem system, Aspect aspect, AspectInfo aspectInfo, BitSet actives, EntitySubscription subscription) {
@@ -27,4 +31,10 @@ public class SystemInfo {
 		this.actives = actives;
 		this.subscription = subscription;
 	}
+
+	public void resetWindow() {
+		windowMinEntitiesCount = windowMaxEntitiesCount = entitiesCount;
+		windowEntitiesCountSum = 0;
+		windowTicksCount = 0;
+	}
 }
\ No newline at end of file
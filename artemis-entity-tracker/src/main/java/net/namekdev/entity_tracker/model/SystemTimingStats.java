@@ -0,0 +1,31 @@
+package net.namekdev.entity_tracker.model;
+
+/**
+ * Processing time of a system in nanoseconds, measured over window of ticks since previous report.
+ */
+public class SystemTimingStats {
+	public int systemIndex;
+	public int samplesCount;
+	public long p50, p99, max;
+
+	/** Average bytes allocated by single processing, {@code -1} when not measured. */
+	public long allocatedBytes = -1;
+
+
+	public SystemTimingStats() {
+	}
+
+	public SystemTimingStats set(int systemIndex, int samplesCount, long p50, long p99, long max, long allocatedBytes) {
+		this.systemIndex = systemIndex;
+		this.samplesCount = samplesCount;
+		this.p50 = p50;
+		this.p99 = p99;
+		this.max = max;
+		this.allocatedBytes = allocatedBytes;
+		return this;
+	}
+
+	public SystemTimingStats set(SystemTimingStats other) {
+		return set(other.systemIndex, other.samplesCount, other.p50, other.p99, other.max, other.allocatedBytes);
+	}
+}
@@ -1,15 +1,18 @@
 package net.namekdev.entity_tracker.network;
 
 import java.net.SocketAddress;
+import java.util.Arrays;
 import java.util.BitSet;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
 
+import net.namekdev.entity_tracker.connectors.RawComponentStateListener;
 import net.namekdev.entity_tracker.connectors.WorldController;
 import net.namekdev.entity_tracker.connectors.WorldUpdateListener;
 import net.namekdev.entity_tracker.model.AspectInfo;
 import net.namekdev.entity_tracker.model.ComponentTypeInfo;
+import net.namekdev.entity_tracker.model.EntitySystemStats;
+import net.namekdev.entity_tracker.model.SystemTimingStats;
 import net.namekdev.entity_tracker.network.base.RawConnectionCommunicator;
 import net.namekdev.entity_tracker.network.base.RawConnectionCommunicatorProvider;
 import net.namekdev.entity_tracker.network.base.RawConnectionOutputListener;
@@ -18,23 +21,59 @@ import net.namekdev.entity_tracker.network.communicator.EntityTrackerCommunicato
 import net.namekdev.entity_tracker.utils.tuple.Tuple3;
 
 import com.artemis.utils.Bag;
+import com.artemis.utils.IntBag;
 
 /**
  * Server listening to new clients, useful to pass into Entity Tracker itself.
  * Collects data to gather world state for incoming connections.
  *
+ * <p>New client gets the state at the end of the next world tick, so it's consistent
+ * and read only by the thread which modifies it. Entities are then sent in parts
+ * of {@link #snapshotChunkSize} at the end of every following tick, between live events.</p>
+ *
+ * <p>Every client gets only events it declared to listen for. Tracker gathers
+ * the union of them. Client interested in some component types gets only entities
+ * having any of them.</p>
+ *
  * @author Namek
  */
-public class EntityTrackerServer extends Server implements WorldUpdateListener {
+public class EntityTrackerServer extends Server implements WorldUpdateListener, RawComponentStateListener {
 	private WorldController _worldController;
-	private Bag<EntityTrackerCommunicator> _listeners = new Bag<EntityTrackerCommunicator>();
+	/**
+	 * Copy-on-write array of connected listeners. Readers iterate whatever array they got
+	 * without locking nor allocating, writers replace the whole array.
+	 */
+	private final AtomicReference<ClientCommunicator[]> _listeners =
+		new AtomicReference<ClientCommunicator[]>(new ClientCommunicator[0]);
+
+	/** Connected clients waiting for the end of tick to get the snapshot. */
+	private final ConcurrentLinkedQueue<ClientCommunicator> _joiningListeners = new ConcurrentLinkedQueue<ClientCommunicator>();
+	/** Disconnected clients which still have requests to be applied, e.g. releasing their watches. */
+	private final ConcurrentLinkedQueue<ClientCommunicator> _disconnectedListeners = new ConcurrentLinkedQueue<ClientCommunicator>();
+	private final Bag<ClientCommunicator> _snapshotListeners = new Bag<ClientCommunicator>();
+	private int _ticksCount;
+
+	/**
+	 * Maximum number of entities sent to new client at the end of single tick.
+	 */
+	public int snapshotChunkSize = 4096;
+
+	/** Serializes every event once, bytes are then sent to all listeners. */
+	private final EntityTrackerCommunicator _broadcaster = new EntityTrackerCommunicator();
+	/** Event class of packet being broadcast, {@code 0} is sent to everyone. */
+	private int _broadcastEventClass;
+	private final IntBag _filteredEntityIds = new IntBag();
+	private final IntBag _filteredCompositionIds = new IntBag();
 
 	private Bag<String> _managers = new Bag<String>();
 	private Bag<Tuple3<Integer, String, AspectInfo>> _systems = new Bag<Tuple3<Integer, String, AspectInfo>>();
 	private Bag<ComponentTypeInfo> _componentTypes = new Bag<ComponentTypeInfo>();
-	private Map<Integer, BitSet> _entities = new HashMap<Integer,BitSet>();
-	private Bag<Integer> _entitySystemsEntitiesCount = new Bag<Integer>();
-	private Bag<Integer> _entitySystemsMaxEntitiesCount = new Bag<Integer>();
+	private Bag<BitSet> _compositions = new Bag<BitSet>();
+	private final BitSet _entityIds = new BitSet();
+	/** Composition id of every existing entity, indexed by entity id. */
+	private final IntBag _entityCompositionIds = new IntBag();
+	/** Last known stats of every system, indexed by system index. */
+	private Bag<EntitySystemStats> _entitySystemsStats = new Bag<EntitySystemStats>();
 
 
 	public EntityTrackerServer() {
@@ -45,6 +84,8 @@ public class EntityTrackerServer extends Server implements WorldUpdateListener {
 		super();
 		super.clientListenerProvider = _communicatorProvider;
 		super.listeningPort = listeningPort;
+		super.compressionEnabled = true;
+		_broadcaster.connected(null, _broadcastOutput);
 	}
 
 	@Override
@@ -52,124 +93,536 @@ public class EntityTrackerServer extends Server implements WorldUpdateListener {
 		_worldController = controller;
 	}
 
+	/**
+	 * Tracker stays idle while nobody is connected. It reports existing entities
+	 * at the end of the tick in which first client wants them and deletes them after
+	 * the last one stops, so no copy of entities is kept while nobody listens.
+	 */
 	@Override
 	public int getListeningBitset() {
-		// TODO
-		return ENTITY_ADDED | ENTITY_DELETED | ENTITY_SYSTEM_STATS;
+		int bitset = 0;
+
+		final ClientCommunicator[] listeners = _listeners.get();
+		for (int i = 0, n = listeners.length; i < n; ++i) {
+			bitset |= listeners[i].getListeningBitset();
+		}
+
+		if (!_joiningListeners.isEmpty()) {
+			for (ClientCommunicator joining : _joiningListeners) {
+				bitset |= joining.getListeningBitset();
+			}
+		}
+
+		return bitset;
 	}
 
 	@Override
 	public void addedSystem(int index, String name, BitSet allTypes, BitSet oneTypes, BitSet notTypes) {
-		for (int i = 0, n = _listeners.size(); i < n; ++i) {
-			EntityTrackerCommunicator communicator = _listeners.get(i);
-			communicator.addedSystem(index, name, allTypes, oneTypes, notTypes);
+		if (hasListeners()) {
+			_broadcastEventClass = 0;
+			_broadcaster.addedSystem(index, name, allTypes, oneTypes, notTypes);
 		}
 		_systems.add(Tuple3.create(index, name, new AspectInfo(allTypes, oneTypes, notTypes)));
-		_entitySystemsEntitiesCount.set(index, 0);
-		_entitySystemsMaxEntitiesCount.set(index, 0);
+		_entitySystemsStats.set(index, new EntitySystemStats(index));
 	}
 
 	@Override
 	public void addedManager(String name) {
-		for (int i = 0, n = _listeners.size(); i < n; ++i) {
-			EntityTrackerCommunicator communicator = _listeners.get(i);
-			communicator.addedManager(name);
+		if (hasListeners()) {
+			_broadcastEventClass = 0;
+			_broadcaster.addedManager(name);
 		}
 		_managers.add(name);
 	}
 
 	@Override
 	public void addedComponentType(int index, ComponentTypeInfo info) {
-		for (int i = 0, n = _listeners.size(); i < n; ++i) {
-			EntityTrackerCommunicator communicator = _listeners.get(i);
-			communicator.addedComponentType(index, info);
+		if (hasListeners()) {
+			_broadcastEventClass = 0;
+			_broadcaster.addedComponentType(index, info);
 		}
 		_componentTypes.set(index, info);
 	}
 
 	@Override
-	public void updatedEntitySystem(int systemIndex, int entitiesCount, int maxEntitiesCount) {
-		for (int i = 0, n = _listeners.size(); i < n; ++i) {
-			EntityTrackerCommunicator communicator = _listeners.get(i);
-			communicator.updatedEntitySystem(systemIndex, entitiesCount, maxEntitiesCount);
+	public void updatedEntitySystems(Bag<EntitySystemStats> systemsStats) {
+		if (hasListeners()) {
+			_broadcastEventClass = ENTITY_SYSTEM_STATS;
+			_broadcaster.updatedEntitySystems(systemsStats);
+		}
+
+		for (int i = 0, n = systemsStats.size(); i < n; ++i) {
+			EntitySystemStats stats = systemsStats.get(i);
+			_entitySystemsStats.get(stats.systemIndex).set(stats);
+		}
+	}
+
+	/**
+	 * Timings aren't remembered, new clients get them with the next report.
+	 */
+	@Override
+	public void updatedSystemsTimings(Bag<SystemTimingStats> systemsTimings) {
+		if (hasListeners()) {
+			_broadcastEventClass = SYSTEM_TIMINGS | SYSTEM_ALLOCATIONS;
+			_broadcaster.updatedSystemsTimings(systemsTimings);
+		}
+	}
+
+	@Override
+	public void addedComposition(int compositionId, BitSet components) {
+		if (hasListeners()) {
+			_broadcastEventClass = 0;
+			_broadcaster.addedComposition(compositionId, components);
 		}
-		_entitySystemsEntitiesCount.set(systemIndex, entitiesCount);
-		_entitySystemsMaxEntitiesCount.set(systemIndex, maxEntitiesCount);
+		_compositions.set(compositionId, components);
 	}
 
 	@Override
-	public void addedEntity(int entityId, BitSet components) {
-		for (int i = 0, n = _listeners.size(); i < n; ++i) {
-			EntityTrackerCommunicator communicator = _listeners.get(i);
-			communicator.addedEntity(entityId, components);
+	public void addedEntity(int entityId, int compositionId) {
+		if (hasListeners()) {
+			_broadcastEventClass = ENTITY_ADDED;
+			_broadcaster.addedEntity(entityId, compositionId);
+
+			final ClientCommunicator[] listeners = _listeners.get();
+			for (int i = 0, n = listeners.length; i < n; ++i) {
+				ClientCommunicator listener = listeners[i];
+
+				if (listener.isProjecting(ENTITY_ADDED) && listener.isVisible(compositionId)) {
+					listener.addedEntity(entityId, compositionId);
+				}
+			}
+		}
+		_entityIds.set(entityId);
+		_entityCompositionIds.set(entityId, compositionId);
+	}
+
+	@Override
+	public void addedEntities(IntBag entityIds, IntBag compositionIds) {
+		if (hasListeners()) {
+			_broadcastEventClass = ENTITY_ADDED;
+			_broadcaster.addedEntities(entityIds, compositionIds);
+
+			final ClientCommunicator[] listeners = _listeners.get();
+			for (int i = 0, n = listeners.length; i < n; ++i) {
+				ClientCommunicator listener = listeners[i];
+
+				if (listener.isProjecting(ENTITY_ADDED)) {
+					for (int j = 0, m = entityIds.size(); j < m; ++j) {
+						int compositionId = compositionIds.get(j);
+
+						if (listener.isVisible(compositionId)) {
+							_filteredEntityIds.add(entityIds.get(j));
+							_filteredCompositionIds.add(compositionId);
+						}
+					}
+					if (_filteredEntityIds.size() > 0) {
+						listener.addedEntities(_filteredEntityIds, _filteredCompositionIds);
+					}
+					_filteredEntityIds.setSize(0);
+					_filteredCompositionIds.setSize(0);
+				}
+			}
+		}
+		for (int i = 0, n = entityIds.size(); i < n; ++i) {
+			int entityId = entityIds.get(i);
+			_entityIds.set(entityId);
+			_entityCompositionIds.set(entityId, compositionIds.get(i));
 		}
-		_entities.put(entityId, components);
 	}
 
 	@Override
 	public void deletedEntity(int entityId) {
-		for (int i = 0, n = _listeners.size(); i < n; ++i) {
-			EntityTrackerCommunicator communicator = _listeners.get(i);
-			communicator.deletedEntity(entityId);
+		if (hasListeners()) {
+			_broadcastEventClass = ENTITY_DELETED;
+			_broadcaster.deletedEntity(entityId);
+
+			final int compositionId = _entityCompositionIds.get(entityId);
+			final ClientCommunicator[] listeners = _listeners.get();
+			for (int i = 0, n = listeners.length; i < n; ++i) {
+				ClientCommunicator listener = listeners[i];
+
+				// projected deletion forgets states by itself
+				if (listener.isProjecting(ENTITY_DELETED) && listener.isVisible(compositionId)) {
+					listener.deletedEntity(entityId);
+				}
+				else {
+					listener.forgetComponentStates(entityId);
+				}
+			}
 		}
-		_entities.remove(entityId);
+		_entityIds.clear(entityId);
 	}
 
+	@Override
+	public void deletedEntities(IntBag entityIds) {
+		if (hasListeners()) {
+			_broadcastEventClass = ENTITY_DELETED;
+			_broadcaster.deletedEntities(entityIds);
+
+			final ClientCommunicator[] listeners = _listeners.get();
+			for (int i = 0, n = listeners.length; i < n; ++i) {
+				ClientCommunicator listener = listeners[i];
+				final boolean isProjecting = listener.isProjecting(ENTITY_DELETED);
+
+				for (int j = 0, m = entityIds.size(); j < m; ++j) {
+					int entityId = entityIds.get(j);
+
+					if (isProjecting && listener.isVisible(_entityCompositionIds.get(entityId))) {
+						_filteredEntityIds.add(entityId);
+					}
+					else {
+						listener.forgetComponentStates(entityId);
+					}
+				}
+				if (_filteredEntityIds.size() > 0) {
+					listener.deletedEntities(_filteredEntityIds);
+				}
+				_filteredEntityIds.setSize(0);
+			}
+		}
+		for (int i = 0, n = entityIds.size(); i < n; ++i) {
+			_entityIds.clear(entityIds.get(i));
+		}
+	}
+
+	/**
+	 * State goes only to clients which requested or watch it. Every one of them
+	 * gets only what changed since the last state it was sent.
+	 */
 	@Override
 	public void updatedComponentState(int entityId, int componentIndex, Object[] values) {
-		for (int i = 0, n = _listeners.size(); i < n; ++i) {
-			EntityTrackerCommunicator communicator = _listeners.get(i);
-			communicator.updatedComponentState(entityId, componentIndex, values);
+		final ComponentTypeInfo info = _componentTypes.get(componentIndex);
+
+		final ClientCommunicator[] listeners = _listeners.get();
+		for (int i = 0, n = listeners.length; i < n; ++i) {
+			ClientCommunicator listener = listeners[i];
+
+			if (listener.isExpectingComponentState(entityId, componentIndex)) {
+				listener.updatedComponentState(entityId, info, values);
+			}
 		}
 	}
 
+	@Override
+	public void updatedComponentState(int entityId, ComponentTypeInfo info, Object component) {
+		final ClientCommunicator[] listeners = _listeners.get();
+		for (int i = 0, n = listeners.length; i < n; ++i) {
+			ClientCommunicator listener = listeners[i];
+
+			if (listener.isExpectingComponentState(entityId, info.index)) {
+				listener.updatedComponentState(entityId, info, component);
+			}
+		}
+	}
+
+	@Override
+	public void tickEnded() {
+		++_ticksCount;
+
+		// requests of clients are applied by this thread, so they don't race events
+		final ClientCommunicator[] currentListeners = _listeners.get();
+		for (int i = 0, n = currentListeners.length; i < n; ++i) {
+			currentListeners[i].applyPendingRequests();
+		}
+		ClientCommunicator disconnected;
+		while ((disconnected = _disconnectedListeners.poll()) != null) {
+			disconnected.applyPendingRequests();
+		}
+
+		ClientCommunicator joining;
+		while ((joining = _joiningListeners.poll()) != null) {
+			if (!joining.isDisconnected) {
+				joining.beginSnapshot(_ticksCount);
+				joining.isSendingSnapshot = true;
+				_snapshotListeners.add(joining);
+				addListener(joining);
+			}
+		}
+
+		for (int i = _snapshotListeners.size() - 1; i >= 0; --i) {
+			ClientCommunicator listener = _snapshotListeners.get(i);
+
+			if (listener.isDisconnected || listener.sendSnapshotChunk(snapshotChunkSize)) {
+				listener.isSendingSnapshot = false;
+				_snapshotListeners.remove(i);
+			}
+		}
+
+		final ClientCommunicator[] listeners = _listeners.get();
+		for (int i = 0, n = listeners.length; i < n; ++i) {
+			ClientCommunicator listener = listeners[i];
+
+			if (!listener.isSendingSnapshot && listener.hasListeningChanged()) {
+				listener.applyListening();
+			}
+		}
+
+		if (hasListeners()) {
+			_broadcaster.flush();
+		}
+	}
+
+	private boolean hasListeners() {
+		return _listeners.get().length > 0;
+	}
+
+	private void addListener(ClientCommunicator listener) {
+		ClientCommunicator[] listeners, newListeners;
+
+		do {
+			listeners = _listeners.get();
+			newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+			newListeners[listeners.length] = listener;
+		}
+		while (!_listeners.compareAndSet(listeners, newListeners));
+	}
+
+	private void removeListener(ClientCommunicator listener) {
+		ClientCommunicator[] listeners, newListeners;
+
+		do {
+			listeners = _listeners.get();
+
+			int index = -1;
+			for (int i = 0; i < listeners.length; ++i) {
+				if (listeners[i] == listener) {
+					index = i;
+					break;
+				}
+			}
+			if (index < 0) {
+				return;
+			}
+
+			newListeners = new ClientCommunicator[listeners.length - 1];
+			System.arraycopy(listeners, 0, newListeners, 0, index);
+			System.arraycopy(listeners, index + 1, newListeners, index, newListeners.length - index);
+		}
+		while (!_listeners.compareAndSet(listeners, newListeners));
+	}
+
+	private final RawConnectionOutputListener _broadcastOutput = new RawConnectionOutputListener() {
+		@Override
+		public void send(byte[] buffer, int offset, int length) {
+			final ClientCommunicator[] listeners = _listeners.get();
+			for (int i = 0, n = listeners.length; i < n; ++i) {
+				ClientCommunicator listener = listeners[i];
+
+				if (listener.isListeningToBroadcast(_broadcastEventClass)) {
+					listener.sendSerializedPacket(buffer, offset, length);
+				}
+			}
+		}
+
+		@Override
+		public void flush() {
+			final ClientCommunicator[] listeners = _listeners.get();
+			for (int i = 0, n = listeners.length; i < n; ++i) {
+				listeners[i].flush();
+			}
+		}
+	};
+
 	private RawConnectionCommunicatorProvider _communicatorProvider = new RawConnectionCommunicatorProvider() {
 		@Override
 		public RawConnectionCommunicator getListener(String remoteName) {
 			// Server requests communicator for given remote.
+			return new ClientCommunicator();
+		}
+	};
 
-			EntityTrackerCommunicator newCommunicator = new EntityTrackerCommunicator() {
-				@Override
-				public void connected(SocketAddress remoteAddress, RawConnectionOutputListener output) {
-					super.connected(remoteAddress, output);
-					injectWorldController(_worldController);
 
+	/**
+	 * Communicator of single client. Is given world state after it declares what it listens for.
+	 */
+	private class ClientCommunicator extends EntityTrackerCommunicator {
+		volatile boolean isDisconnected;
+		boolean isSendingSnapshot;
 
-					for (int i = 0, n = _systems.size(); i < n; ++i) {
-						final Tuple3<Integer, String, AspectInfo> system = _systems.get(i);
-						final AspectInfo aspects = system.item3;
-						addedSystem(system.item1, system.item2, aspects.allTypes, aspects.oneTypes, aspects.exclusionTypes);
-					}
+		/** Declaration which was applied by world thread. */
+		private int _listening;
+		private BitSet _listenedTypes;
+		private boolean _hasDeclared;
 
-					for (int i = 0, n = _managers.size(); i < n; ++i) {
-						addedManager(_managers.get(i));
-					}
+		private int _snapshotSequenceNumber;
+		private IntBag _snapshotEntityIds, _snapshotCompositionIds;
+		private int _snapshotSentCount;
 
-					for (int i = 0, n = _componentTypes.size(); i < n; ++i) {
-						addedComponentType(i, _componentTypes.get(i));
-					}
 
-					for (int i = 0, n = _systems.size(); i < n; ++i) {
-						if (_entitySystemsEntitiesCount.get(i) != null) {
-							int entitiesCount = _entitySystemsEntitiesCount.get(i);
-							int maxEntitiesCount = _entitySystemsMaxEntitiesCount.get(i);
-							updatedEntitySystem(i, entitiesCount, maxEntitiesCount);
-						}
-					}
+		@Override
+		public void connected(SocketAddress remoteAddress, RawConnectionOutputListener output) {
+			super.connected(remoteAddress, output);
+			injectWorldController(_worldController);
+		}
+
+		@Override
+		protected void listeningChanged() {
+			// state is read by world thread, not by the network one
+			if (!_hasDeclared) {
+				_hasDeclared = true;
+				_joiningListeners.add(this);
+			}
+		}
+
+		@Override
+		public void disconnected() {
+			isDisconnected = true;
+			// listener thread stops reaching it before applying the disconnection
+			removeListener(this);
+			super.disconnected();
+			_disconnectedListeners.add(this);
+		}
+
+		boolean isListeningToBroadcast(int eventClass) {
+			if (eventClass == 0) {
+				return true;
+			}
 
-					for (Entry<Integer, BitSet> entity : _entities.entrySet()) {
-						addedEntity(entity.getKey(), entity.getValue());
+			// entities are filtered separately for this one
+			if (_listenedTypes != null && (eventClass & (ENTITY_ADDED | ENTITY_DELETED)) != 0) {
+				return false;
+			}
+
+			return (_listening & eventClass) != 0;
+		}
+
+		boolean isProjecting(int eventClass) {
+			return _listenedTypes != null && (_listening & eventClass) != 0;
+		}
+
+		boolean isVisible(int compositionId) {
+			return _listenedTypes == null || _compositions.get(compositionId).intersects(_listenedTypes);
+		}
+
+		boolean hasListeningChanged() {
+			return _listening != getListeningBitset() || _listenedTypes != getListenedComponentTypes();
+		}
+
+		/**
+		 * Deletes entities which went out of the new declaration and adds the ones which came into it.
+		 */
+		void applyListening() {
+			final int previousListening = _listening;
+			final BitSet previousComponentTypes = _listenedTypes;
+			_listening = getListeningBitset();
+			_listenedTypes = getListenedComponentTypes();
+
+			IntBag addedIds = new IntBag(), addedCompositionIds = new IntBag(), deletedIds = new IntBag();
+			for (int id = _entityIds.nextSetBit(0); id >= 0; id = _entityIds.nextSetBit(id+1)) {
+				int compositionId = _entityCompositionIds.get(id);
+				boolean wasVisible = isVisible(previousListening, previousComponentTypes, compositionId);
+				boolean isVisible = isVisible(_listening, _listenedTypes, compositionId);
+
+				if (wasVisible && !isVisible) {
+					deletedIds.add(id);
+				}
+				else if (isVisible && !wasVisible) {
+					addedIds.add(id);
+					addedCompositionIds.add(compositionId);
+				}
+			}
+
+			if (deletedIds.size() > 0) {
+				deletedEntities(deletedIds);
+			}
+			if (addedIds.size() > 0) {
+				addedEntities(addedIds, addedCompositionIds);
+			}
+
+			if ((previousListening & ENTITY_SYSTEM_STATS) == 0 && (_listening & ENTITY_SYSTEM_STATS) != 0) {
+				sendEntitySystemStats();
+			}
+		}
+
+		private boolean isVisible(int listening, BitSet componentTypes, int compositionId) {
+			return (listening & ENTITY_ADDED) != 0
+				&& (componentTypes == null || _compositions.get(compositionId).intersects(componentTypes));
+		}
+
+		/**
+		 * Sends everything but entities, which are only remembered to be sent in parts.
+		 */
+		void beginSnapshot(int sequenceNumber) {
+			_listening = getListeningBitset();
+			_listenedTypes = getListenedComponentTypes();
+
+			_snapshotSequenceNumber = sequenceNumber;
+			_snapshotEntityIds = new IntBag();
+			_snapshotCompositionIds = new IntBag();
+			_snapshotSentCount = 0;
+
+			if ((_listening & ENTITY_ADDED) != 0) {
+				for (int id = _entityIds.nextSetBit(0); id >= 0; id = _entityIds.nextSetBit(id+1)) {
+					int compositionId = _entityCompositionIds.get(id);
+
+					if (isVisible(compositionId)) {
+						_snapshotEntityIds.add(id);
+						_snapshotCompositionIds.add(compositionId);
 					}
 				}
+			}
+
+			beginSnapshot(sequenceNumber, _snapshotEntityIds.size());
+
+			for (int i = 0, n = _systems.size(); i < n; ++i) {
+				final Tuple3<Integer, String, AspectInfo> system = _systems.get(i);
+				final AspectInfo aspects = system.item3;
+				addedSystem(system.item1, system.item2, aspects.allTypes, aspects.oneTypes, aspects.exclusionTypes);
+			}
+
+			for (int i = 0, n = _managers.size(); i < n; ++i) {
+				addedManager(_managers.get(i));
+			}
+
+			// the inherited bag only holds what this communicator has sent so far
+			final Bag<ComponentTypeInfo> componentTypes = EntityTrackerServer.this._componentTypes;
+			for (int i = 0, n = componentTypes.size(); i < n; ++i) {
+				addedComponentType(i, componentTypes.get(i));
+			}
+
+			if ((_listening & ENTITY_SYSTEM_STATS) != 0) {
+				sendEntitySystemStats();
+			}
+
+			for (int i = 0, n = _compositions.size(); i < n; ++i) {
+				if (_compositions.get(i) != null) {
+					addedComposition(i, _compositions.get(i));
+				}
+			}
+		}
 
-				@Override
-				public void disconnected() {
-					_listeners.remove(this);
+		private void sendEntitySystemStats() {
+			Bag<EntitySystemStats> systemsStats = new Bag<EntitySystemStats>();
+			for (int i = 0, n = _entitySystemsStats.size(); i < n; ++i) {
+				if (_entitySystemsStats.get(i) != null) {
+					systemsStats.add(_entitySystemsStats.get(i));
 				}
-			};
-			_listeners.add(newCommunicator);
+			}
 
-			return newCommunicator;
+			if (systemsStats.size() > 0) {
+				updatedEntitySystems(systemsStats);
+			}
 		}
-	};
+
+		/**
+		 * @return {@code true} when the whole snapshot is sent
+		 */
+		boolean sendSnapshotChunk(int maxCount) {
+			int from = _snapshotSentCount;
+			int to = Math.min(from + maxCount, _snapshotEntityIds.size());
+
+			if (to > from) {
+				snapshotEntities(_snapshotSequenceNumber, _snapshotEntityIds, _snapshotCompositionIds, from, to);
+				_snapshotSentCount = to;
+			}
+
+			if (to < _snapshotEntityIds.size()) {
+				return false;
+			}
+
+			endSnapshot(_snapshotSequenceNumber);
+			_snapshotEntityIds = _snapshotCompositionIds = null;
+			return true;
+		}
+	}
 }
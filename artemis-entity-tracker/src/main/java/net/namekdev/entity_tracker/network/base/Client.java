@@ -1,14 +1,39 @@
 package net.namekdev.entity_tracker.network.base;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
-import java.net.SocketException;
-import java.net.UnknownHostException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
 import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
+ * Non-blocking connection based on {@link SocketChannel}. Messages are framed
+ * with 4-byte length prefix, two highest bits of which mark compressed and control frames.
+ *
+ * <p>Bytes are read only in {@link #update()} which is called by the {@link Server}
+ * selector thread, by own thread started with {@link #startThread()} or manually.
+ * Sending is possible from any thread and never blocks.</p>
+ *
+ * <p>Sent messages are buffered and written to socket together when {@link #flush()}
+ * is called (e.g. at the end of world tick), when {@link #flushThreshold} is reached
+ * or when the oldest buffered message waits longer than {@link #maxFlushDelay}.
+ * What can't be written to socket immediately is written later by the updating thread.</p>
+ *
+ * <p>Both sides start with a handshake. When {@link #compressionEnabled} is set and the other
+ * side is able to decompress, every flushed batch of at least {@link #compressionThreshold} bytes
+ * is compressed as a whole with a single {@link Deflater} stream kept through the connection.
+ * Until the handshake is done output is held, so the very first batch can be compressed too.</p>
+ *
+ * <p>When the other side doesn't keep up and buffered output would exceed {@link #maxOutputSize},
+ * connection is closed by the updating thread instead of buffering more.
+ * The same happens to incoming frames exceeding {@link #maxInputSize}.</p>
  *
  * @author Namek
  */
@@ -16,24 +41,43 @@ public class Client {
 	protected String remoteName;
 	protected int serverPort = Server.DEFAULT_PORT;
 	private static int IntegerBYTES = Integer.SIZE / 8;
+	private static final int INITIAL_BUFFER_SIZE = 10240;
 
-	protected Socket socket;
-	protected Thread thread;
-	protected InputStream input;
-	protected OutputStream output;
+	private static final int FRAME_COMPRESSED = 0x80000000;
+	private static final int FRAME_CONTROL = 0x40000000;
+	private static final int FRAME_FLAGS = FRAME_COMPRESSED | FRAME_CONTROL;
+	private static final byte CONTROL_HELLO = 1;
+	private static final byte FEATURE_DEFLATE = 1;
+	private static final int HANDSHAKE_TIMEOUT = 1000;
 
-	protected boolean _isRunning;
-	private final byte[] _buffer = new byte[10240];
-	private int _incomingSize = -1;
+	protected SocketChannel channel;
+	protected Thread thread;
+	protected Selector selector;
+	protected SelectionKey selectionKey;
+
+	protected volatile boolean _isRunning;
+	private ByteBuffer _inBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+	private int _incomingSize = -1, _incomingFlags;
+	private final Inflater _inflater = new Inflater(true);
+	private ByteBuffer _inflatedBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+	private final Object _outputLock = new Object();
+	private ByteBuffer _outBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+	/** Number of bytes at the beginning of output buffer which are ready to be written. */
+	private int _flushedSize;
+	private long _bufferingStartTime;
+	private int _bufferedPacketsCount;
+	private long _flushesCount, _flushedPacketsCount, _compressedFlushesCount;
+	private boolean _isOutputOverflowed;
+
+	private final Deflater _deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+	private byte[] _compressed = new byte[INITIAL_BUFFER_SIZE];
+	private boolean _isAwaitingHandshake;
+	private long _handshakeStartTime;
+	private int _remoteFeatures;
 
-	private static final byte[] heartbeat;
 	private long _lastHeartbeatTime = System.currentTimeMillis();
 
-	static {
-		heartbeat = new byte[IntegerBYTES];
-		Arrays.fill(heartbeat, (byte) 0);
-	}
-
 	public RawConnectionCommunicator connectionListener;
 
 	/**
@@ -41,6 +85,38 @@ public class Client {
 	 */
 	public int heartbeatDelay = 1000;
 
+	/**
+	 * Buffered output is flushed when it reaches this size, specified in bytes.
+	 */
+	public int flushThreshold = 16384;
+
+	/**
+	 * Maximum time that buffered output waits for being flushed, specified in milliseconds.
+	 */
+	public int maxFlushDelay = 10;
+
+	/**
+	 * Compresses output if the other side supports it. Can be changed at any time.
+	 */
+	public volatile boolean compressionEnabled = false;
+
+	/**
+	 * Flushed batches smaller than this, specified in bytes, are not compressed,
+	 * so small interactive messages don't pay for it.
+	 */
+	public int compressionThreshold = 1024;
+
+	/**
+	 * Connection is closed when buffered output would exceed this size, specified in bytes.
+	 */
+	public int maxOutputSize = 8 * 1024 * 1024;
+
+	/**
+	 * Connection is closed when incoming frame, before or after decompression,
+	 * would exceed this size, specified in bytes.
+	 */
+	public int maxInputSize = 8 * 1024 * 1024;
+
 
 	public Client() {
 	}
@@ -49,10 +125,10 @@ public class Client {
 		this.connectionListener = connectionListener;
 	}
 
-	Client(Socket socket, RawConnectionCommunicator connectionListener) {
-		this.socket = socket;
+	Client(SocketChannel channel, RawConnectionCommunicator connectionListener) {
+		this.channel = channel;
 		this.connectionListener = connectionListener;
-		_isRunning = socket.isConnected() && !socket.isClosed();
+		_isRunning = channel.isConnected();
 	}
 
 
@@ -71,12 +147,12 @@ public class Client {
 		this.serverPort = serverPort;
 
 		try {
-			socket = new Socket(serverName, serverPort);
+			channel = SocketChannel.open(new InetSocketAddress(serverName, serverPort));
 			initSocket();
 
 			return this;
 		}
-		catch (UnknownHostException e) {
+		catch (UnresolvedAddressException e) {
 			throw new RuntimeException(e);
 		}
 		catch (IOException e) {
@@ -89,144 +165,575 @@ public class Client {
 			throw new RuntimeException("Call #connect() first!");
 		}
 
+		try {
+			selector = Selector.open();
+			register(selector);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
 		thread = new Thread(threadRunnable);
 		thread.start();
 	}
 
 	void initSocket() {
 		try {
-			socket.setTcpNoDelay(true);
-			input = socket.getInputStream();
-			output = socket.getOutputStream();
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			_inBuffer.clear();
+			_incomingSize = -1;
+			_inflater.reset();
+			synchronized (_outputLock) {
+				_outBuffer.clear();
+				_flushedSize = 0;
+				_bufferedPacketsCount = 0;
+				_isOutputOverflowed = false;
+				_deflater.reset();
+				_remoteFeatures = 0;
+				_isAwaitingHandshake = true;
+				_handshakeStartTime = System.currentTimeMillis();
+				sendHandshake();
+			}
 			_isRunning = true;
 
-			connectionListener.connected(socket.getRemoteSocketAddress(), outputListener);
+			connectionListener.connected(channel.getRemoteAddress(), outputListener);
 		}
 		catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
+	void register(Selector selector) throws ClosedChannelException {
+		this.selector = selector;
+		selectionKey = channel.register(selector, SelectionKey.OP_READ, this);
+	}
+
 	/**
-	 * Checks for new bytes in network buffer. Also sends hearbeats.
+	 * Reads all bytes available in network buffer, writes pending output and sends heartbeats.
+	 * Never blocks.
 	 *
 	 * <p>This method can be run manually or used through {@link #startThread()}.</p>
 	 */
 	public boolean update() {
 		if (_isRunning && isConnected()) {
 			try {
-				int n = input.available();
+				int readCount;
+				while ((readCount = channel.read(_inBuffer)) > 0) {
+					processIncomingBytes();
+				}
 
-				if (n == 0) {
-					long currentTime = System.currentTimeMillis();
+				if (readCount < 0) {
+					close();
+					return false;
+				}
+
+				long currentTime = System.currentTimeMillis();
+				synchronized (_outputLock) {
+					if (_isOutputOverflowed) {
+						throw new IOException("Output exceeded " + maxOutputSize + " bytes, other side doesn't keep up");
+					}
+
+					if (_isAwaitingHandshake && currentTime - _handshakeStartTime >= HANDSHAKE_TIMEOUT) {
+						// other side doesn't answer, stop holding output
+						_isAwaitingHandshake = false;
+						startFlush();
+					}
 
 					if (currentTime - _lastHeartbeatTime > heartbeatDelay) {
 						_lastHeartbeatTime = currentTime;
-
-						output.write(heartbeat, 0, heartbeat.length);
-						output.flush();
+						enqueueFrame(null, 0, 0);
+						startFlush();
 					}
-				}
-				else do {
-					if (_incomingSize <= 0 && n >= IntegerBYTES) {
-						input.read(_buffer, 0, IntegerBYTES);
-						_incomingSize = readRawInt(_buffer, 0);
-						n -= IntegerBYTES;
-						continue;
+					else if (_bufferedPacketsCount > 0 && currentTime - _bufferingStartTime >= maxFlushDelay) {
+						startFlush();
 					}
-
-					if (_incomingSize > 0 && n >= _incomingSize) {
-						input.read(_buffer, 0, _incomingSize);
-						connectionListener.bytesReceived(_buffer, 0, _incomingSize);
-						_incomingSize = 0;
+					else {
+						writeOutput();
 					}
-
-					n = input.available();
 				}
-				while (n > 0);
+				updateInterestOps();
+			}
+			catch (IOException e) {
+				// connection which is being stopped on purpose is not worth reporting
+				if (_isRunning) {
+					System.err.println("Closing connection to " + channel.socket().getRemoteSocketAddress() + ": " + e);
+				}
+				close();
 			}
 			catch (Exception e) {
-				_isRunning = false;
+				e.printStackTrace();
+				close();
 			}
 		}
+		else if (channel != null && channel.isOpen()) {
+			// broken while sending from other thread
+			close();
+		}
 
 		return _isRunning;
 	}
 
+	/**
+	 * Dispatches every complete message found in input buffer.
+	 * Frames of zero length are heartbeats.
+	 */
+	private void processIncomingBytes() throws IOException {
+		ByteBuffer buffer = _inBuffer;
+		buffer.flip();
+
+		while (true) {
+			if (_incomingSize < 0) {
+				if (buffer.remaining() < IntegerBYTES) {
+					break;
+				}
+
+				int header = buffer.getInt();
+				_incomingFlags = header & FRAME_FLAGS;
+				_incomingSize = header & ~FRAME_FLAGS;
+
+				if (_incomingSize > maxInputSize) {
+					throw new IOException("Incoming frame of " + _incomingSize + " bytes exceeds " + maxInputSize + " bytes");
+				}
+			}
+
+			if (buffer.remaining() < _incomingSize) {
+				break;
+			}
+
+			int offset = buffer.position();
+			buffer.position(offset + _incomingSize);
+			int size = _incomingSize;
+			_incomingSize = -1;
+			processFrame(_incomingFlags, buffer.array(), offset, size);
+		}
+
+		buffer.compact();
+
+		if (_incomingSize > buffer.capacity()) {
+			_inBuffer = grow(buffer, _incomingSize);
+		}
+	}
+
+	private void processFrame(int flags, byte[] bytes, int offset, int size) throws IOException {
+		if (flags == FRAME_COMPRESSED) {
+			ByteBuffer frames = inflate(bytes, offset, size);
+
+			// compressed batch consists of whole plain frames
+			while (frames.hasRemaining()) {
+				int header = frames.getInt();
+				int frameSize = header & ~FRAME_FLAGS;
+				int frameOffset = frames.position();
+
+				if ((header & FRAME_COMPRESSED) != 0 || frameSize > frames.remaining()) {
+					throw new IOException("Malformed compressed frame");
+				}
+
+				frames.position(frameOffset + frameSize);
+				processFrame(header & FRAME_FLAGS, frames.array(), frameOffset, frameSize);
+			}
+		}
+		else if (flags == FRAME_CONTROL) {
+			if (size >= 2 && bytes[offset] == CONTROL_HELLO) {
+				synchronized (_outputLock) {
+					boolean wasHoldingOutput = isHoldingOutput();
+					_remoteFeatures = bytes[offset + 1];
+					_isAwaitingHandshake = false;
+
+					if (wasHoldingOutput) {
+						startFlush();
+					}
+				}
+			}
+		}
+		else if (size > 0) {
+			connectionListener.bytesReceived(bytes, offset, size);
+		}
+	}
+
+	/**
+	 * Decompresses given bytes into reused buffer which is returned ready to be read.
+	 * Small frame can inflate to a huge one, so the result is limited by {@link #maxInputSize}.
+	 */
+	private ByteBuffer inflate(byte[] bytes, int offset, int size) throws IOException {
+		ByteBuffer out = _inflatedBuffer;
+		out.clear();
+		_inflater.setInput(bytes, offset, size);
+
+		try {
+			while (true) {
+				int n = _inflater.inflate(out.array(), out.position(), out.remaining());
+				out.position(out.position() + n);
+
+				if (out.position() > maxInputSize) {
+					throw new IOException("Decompressed frame exceeds " + maxInputSize + " bytes");
+				}
+
+				if (!out.hasRemaining()) {
+					out = _inflatedBuffer = grow(out, out.capacity() * 2);
+				}
+				else if (_inflater.needsInput()) {
+					break;
+				}
+				else if (n == 0) {
+					throw new IOException("Compressed stream is broken");
+				}
+			}
+		}
+		catch (DataFormatException e) {
+			throw new IOException(e);
+		}
+
+		out.flip();
+		return out;
+	}
+
+	boolean needsUpdate() {
+		return getUpdateDelay(System.currentTimeMillis()) <= 0;
+	}
+
+	/**
+	 * Returns time in milliseconds after which {@link #update()} should be called
+	 * to send heartbeat or flush buffered output.
+	 */
+	long getUpdateDelay(long currentTime) {
+		long delay = _lastHeartbeatTime + heartbeatDelay + 1 - currentTime;
+
+		synchronized (_outputLock) {
+			if (_isOutputOverflowed) {
+				return 0;
+			}
+			// flushed output that didn't fit into socket needs write interest
+			if (_flushedSize > 0 && (selectionKey == null || (selectionKey.interestOps() & SelectionKey.OP_WRITE) == 0)) {
+				return 0;
+			}
+			if (_bufferedPacketsCount > 0) {
+				long flushTime = isHoldingOutput()
+					? _handshakeStartTime + HANDSHAKE_TIMEOUT
+					: _bufferingStartTime + maxFlushDelay;
+
+				delay = Math.min(delay, flushTime - currentTime);
+			}
+		}
+
+		return delay;
+	}
+
+	private void updateInterestOps() {
+		if (selectionKey == null || !selectionKey.isValid()) {
+			return;
+		}
+
+		boolean isWriting;
+		synchronized (_outputLock) {
+			isWriting = _flushedSize > 0;
+		}
+
+		int ops = SelectionKey.OP_READ | (isWriting ? SelectionKey.OP_WRITE : 0);
+		if (selectionKey.interestOps() != ops) {
+			selectionKey.interestOps(ops);
+		}
+	}
+
 	public boolean isConnected() {
-		return _isRunning && socket != null && !socket.isClosed() && !socket.isOutputShutdown();
+		return _isRunning && channel != null && channel.isOpen() && channel.isConnected();
 	}
 
 	public void stop() {
+		close();
+	}
+
+	/**
+	 * Closes the connection. Unlike {@link #stop()} it's not meant to be overridden,
+	 * so broken connection doesn't stop e.g. {@link PersistentClient} from reconnecting.
+	 */
+	private void close() {
 		_isRunning = false;
 
-		try {
-			input.close();
-		} catch (Exception e) { }
+		if (selectionKey != null) {
+			selectionKey.cancel();
+		}
 
-		try {
-			output.close();
-		} catch (Exception e) { }
+		if (thread != null && selector != null) {
+			selector.wakeup();
+		}
 
 		try {
-			socket.close();
+			channel.close();
 		}
-		catch (IOException e) { }
+		catch (Exception e) { }
 	}
 
 	public void send(byte[] buffer, int offset, int length) {
 		outputListener.send(buffer, offset, length);
 	}
 
-	protected final static int readRawInt(byte[] buffer, int offset) {
-		int value = buffer[offset++] & 0xFF;
-		value <<= 8;
-		value |= buffer[offset++] & 0xFF;
-		value <<= 8;
-		value |= buffer[offset++] & 0xFF;
-		value <<= 8;
-		value |= buffer[offset] & 0xFF;
+	/**
+	 * Writes all buffered messages to socket, without blocking.
+	 */
+	public void flush() {
+		outputListener.flush();
+	}
+
+	/**
+	 * Returns how many times buffered output was flushed.
+	 */
+	public long getFlushesCount() {
+		synchronized (_outputLock) {
+			return _flushesCount;
+		}
+	}
+
+	/**
+	 * Returns how many messages (including heartbeats) were written to socket in all flushes.
+	 */
+	public long getFlushedPacketsCount() {
+		synchronized (_outputLock) {
+			return _flushedPacketsCount;
+		}
+	}
+
+	public float getAveragePacketsPerFlush() {
+		synchronized (_outputLock) {
+			return _flushesCount == 0 ? 0 : (float) _flushedPacketsCount / _flushesCount;
+		}
+	}
+
+	/**
+	 * Returns how many flushes were written compressed.
+	 */
+	public long getCompressedFlushesCount() {
+		synchronized (_outputLock) {
+			return _compressedFlushesCount;
+		}
+	}
+
+	/**
+	 * Should be called within output lock.
+	 */
+	private boolean isHoldingOutput() {
+		return _isAwaitingHandshake && compressionEnabled;
+	}
+
+	/**
+	 * Tells the other side what this side supports. Control frames are written
+	 * right away and never compressed. Should be called within output lock.
+	 */
+	private void sendHandshake() throws IOException {
+		_outBuffer.putInt(FRAME_CONTROL | 2);
+		_outBuffer.put(CONTROL_HELLO);
+		_outBuffer.put(FEATURE_DEFLATE);
+		_flushedSize = _outBuffer.position();
+
+		writeOutput();
+	}
+
+	/**
+	 * Should be called within output lock.
+	 *
+	 * @return {@code false} when frame was dropped because output exceeded {@link #maxOutputSize}
+	 */
+	private boolean enqueueFrame(byte[] buffer, int offset, int length) {
+		if (_isOutputOverflowed) {
+			return false;
+		}
+		if (_outBuffer.position() + IntegerBYTES + length > maxOutputSize) {
+			_isOutputOverflowed = true;
+			return false;
+		}
+
+		if (_outBuffer.remaining() < IntegerBYTES + length) {
+			_outBuffer = grow(_outBuffer, _outBuffer.position() + IntegerBYTES + length);
+		}
+
+		_outBuffer.putInt(length);
+		if (length > 0) {
+			_outBuffer.put(buffer, offset, length);
+		}
+
+		if (_bufferedPacketsCount++ == 0) {
+			_bufferingStartTime = System.currentTimeMillis();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Marks all buffered messages to be written and writes as much as possible.
+	 * Should be called within output lock.
+	 */
+	private void startFlush() throws IOException {
+		if (_bufferedPacketsCount > 0 && !isHoldingOutput()) {
+			++_flushesCount;
+			_flushedPacketsCount += _bufferedPacketsCount;
+			_bufferedPacketsCount = 0;
+
+			int batchSize = _outBuffer.position() - _flushedSize;
+			if (compressionEnabled && (_remoteFeatures & FEATURE_DEFLATE) != 0 && batchSize >= compressionThreshold) {
+				compressBatch(batchSize);
+				++_compressedFlushesCount;
+			}
+
+			_flushedSize = _outBuffer.position();
+		}
+
+		writeOutput();
+	}
+
+	/**
+	 * Replaces buffered frames with a single compressed frame. Deflater is sync flushed
+	 * so the other side can decompress it right away, still using all previous batches as dictionary.
+	 * Should be called within output lock.
+	 */
+	private void compressBatch(int batchSize) {
+		_deflater.setInput(_outBuffer.array(), _flushedSize, batchSize);
+
+		int compressedSize = 0;
+		while (true) {
+			compressedSize += _deflater.deflate(_compressed, compressedSize, _compressed.length - compressedSize, Deflater.SYNC_FLUSH);
 
-		return value;
+			if (compressedSize < _compressed.length) {
+				break;
+			}
+			_compressed = Arrays.copyOf(_compressed, _compressed.length * 2);
+		}
+
+		_outBuffer.position(_flushedSize);
+		if (_outBuffer.remaining() < IntegerBYTES + compressedSize) {
+			_outBuffer = grow(_outBuffer, _flushedSize + IntegerBYTES + compressedSize);
+		}
+		_outBuffer.putInt(FRAME_COMPRESSED | compressedSize);
+		_outBuffer.put(_compressed, 0, compressedSize);
+	}
+
+	/**
+	 * Writes as much of flushed output as socket accepts without blocking.
+	 * Should be called within output lock.
+	 */
+	private void writeOutput() throws IOException {
+		if (_flushedSize == 0) {
+			return;
+		}
+
+		final int end = _outBuffer.position();
+		_outBuffer.flip();
+		_outBuffer.limit(_flushedSize);
+		try {
+			channel.write(_outBuffer);
+		}
+		finally {
+			_flushedSize -= _outBuffer.position();
+			_outBuffer.limit(end);
+			_outBuffer.compact();
+		}
+	}
+
+	private static ByteBuffer grow(ByteBuffer buffer, int minCapacity) {
+		int capacity = buffer.capacity();
+		while (capacity < minCapacity) {
+			capacity *= 2;
+		}
+
+		ByteBuffer newBuffer = ByteBuffer.allocate(capacity);
+		buffer.flip();
+		newBuffer.put(buffer);
+
+		return newBuffer;
 	}
 
 	final Runnable threadRunnable = new Runnable() {
 		@Override
 		public void run() {
-			while (_isRunning && !socket.isClosed()) {
-				if (!update()) {
-					connectionListener.disconnected();
-				}
-
+			while (_isRunning && channel.isOpen()) {
 				try {
-					Thread.sleep(100);
-				}
-				catch (InterruptedException e) {
-					if (_isRunning) {
-						throw new RuntimeException(e);
+					long delay = getUpdateDelay(System.currentTimeMillis());
+					if (delay > 0) {
+						selector.select(delay);
+					}
+					else {
+						selector.selectNow();
 					}
+					selector.selectedKeys().clear();
+				}
+				catch (IOException e) {
+					close();
+				}
 
-					return;
+				if (!update()) {
+					connectionListener.disconnected();
 				}
 			}
 			_isRunning = false;
+
+			try {
+				selector.close();
+			}
+			catch (IOException e) { }
 		}
 	};
 
 	private final RawConnectionOutputListener outputListener = new RawConnectionOutputListener() {
 		@Override
 		public void send(byte[] buffer, int offset, int length) {
+			boolean needsWakeup;
+
+			// listeners may still send a while after disconnection
+			if (!_isRunning) {
+				return;
+			}
+
+			synchronized (_outputLock) {
+				if (!enqueueFrame(buffer, offset, length)) {
+					// updating thread closes the connection
+					needsWakeup = true;
+				}
+				else {
+					// first buffered message changes the time of next update
+					needsWakeup = _bufferedPacketsCount == 1;
+				}
+
+				if (_outBuffer.position() >= flushThreshold) {
+					needsWakeup = flushOutput();
+				}
+			}
+
+			if (needsWakeup && selector != null) {
+				selector.wakeup();
+			}
+		}
+
+		@Override
+		public void flush() {
+			boolean needsWakeup;
+
+			if (!_isRunning) {
+				return;
+			}
+
+			synchronized (_outputLock) {
+				needsWakeup = flushOutput();
+			}
+
+			if (needsWakeup && selector != null) {
+				selector.wakeup();
+			}
+		}
+
+		/**
+		 * Returns {@code true} when socket didn't accept everything
+		 * so the rest has to be written by the updating thread.
+		 * Broken connection is left to be noticed by the updating thread, too.
+		 */
+		private boolean flushOutput() {
 			try {
-				output.write((length >> 24) & 0xFF);
-				output.write((length >> 16) & 0xFF);
-				output.write((length >> 8) & 0xFF);
-				output.write(length & 0xFF);
-				output.write(buffer, offset, length);
-				output.flush();
+				startFlush();
 			}
 			catch (IOException e) {
-				throw new RuntimeException(e);
+				_isRunning = false;
+				return true;
 			}
+
+			return _flushedSize > 0;
 		}
 	};
 }
@@ -2,4 +2,9 @@ package net.namekdev.entity_tracker.network.base;
 
 public interface RawConnectionOutputListener {
 	void send(byte[] buffer, int offset, int length);
+
+	/**
+	 * Requests to write all sent messages without waiting for more of them.
+	 */
+	void flush();
 }
@@ -1,13 +1,18 @@
 package net.namekdev.entity_tracker.network.base;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
 
 import com.artemis.utils.Bag;
 
 /**
- * Multi-threaded multi-client server.
+ * Multi-client server. Accepts and serves all clients
+ * on single thread using {@link Selector}.
  *
  * @author Namek
  */
@@ -15,14 +20,50 @@ public class Server implements Runnable {
 	public static final int DEFAULT_PORT = 1087;
 
 	protected int listeningPort = DEFAULT_PORT;
-	protected ServerSocket socket;
-	protected boolean isRunning;
+	protected ServerSocketChannel channel;
+	protected Selector selector;
+	protected volatile boolean isRunning;
 	protected Thread runningThread;
 	protected final Bag<Client> clients = new Bag<Client>();
 
 	protected RawConnectionCommunicatorProvider clientListenerProvider;
 	protected int listeningBitset;
 
+	/**
+	 * Time between heartbeats sent to clients, specified in milliseconds.
+	 */
+	public int heartbeatDelay = 1000;
+
+	/**
+	 * @see Client#flushThreshold
+	 */
+	public int flushThreshold = 16384;
+
+	/**
+	 * @see Client#maxFlushDelay
+	 */
+	public int maxFlushDelay = 10;
+
+	/**
+	 * @see Client#compressionEnabled
+	 */
+	public boolean compressionEnabled = false;
+
+	/**
+	 * @see Client#compressionThreshold
+	 */
+	public int compressionThreshold = 1024;
+
+	/**
+	 * @see Client#maxOutputSize
+	 */
+	public int maxOutputSize = 8 * 1024 * 1024;
+
+	/**
+	 * @see Client#maxInputSize
+	 */
+	public int maxInputSize = 8 * 1024 * 1024;
+
 
 	public Server(RawConnectionCommunicatorProvider clientListenerProvider) {
 		this.clientListenerProvider = clientListenerProvider;
@@ -40,16 +81,22 @@ public class Server implements Runnable {
 	 * Starts listening in new thread.
 	 */
 	public Server start() {
-		if (socket != null && !socket.isClosed()) {
+		if (channel != null && channel.isOpen()) {
 			throw new IllegalStateException("Cannot serve twice in the same time.");
 		}
 
 		try {
-			socket = new ServerSocket(listeningPort);
+			selector = Selector.open();
+			channel = ServerSocketChannel.open();
+			channel.bind(new InetSocketAddress(listeningPort));
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_ACCEPT);
 		}
 		catch (IOException e) {
 			throw new RuntimeException("Couldn't start server on port " + listeningPort, e);
 		}
+
+		isRunning = true;
 		runningThread = new Thread(this);
 		runningThread.start();
 
@@ -58,15 +105,10 @@ public class Server implements Runnable {
 
 	public void stop() {
 		this.isRunning = false;
-
-		for (int i = 0, n = clients.size(); i < n; ++i) {
-			Client client = clients.get(i);
-			client.stop();
-			clients.remove(client);
-		}
+		selector.wakeup();
 
 		try {
-			socket.close();
+			channel.close();
 		}
 		catch (IOException e) {
 			throw new RuntimeException("Couldn't shutdown server.", e);
@@ -79,33 +121,110 @@ public class Server implements Runnable {
 			this.runningThread = Thread.currentThread();
 		}
 
-		isRunning = true;
-
 		while (isRunning) {
-			Socket clientSocket = null;
 			try {
-				clientSocket = socket.accept();
-				clientSocket.setTcpNoDelay(true);
+				long delay = getUpdateDelay();
+				if (delay > 0) {
+					selector.select(delay);
+				}
+				else {
+					selector.selectNow();
+				}
 			}
 			catch (IOException e) {
 				if (isRunning) {
-					throw new RuntimeException("Error accepting client connection", e);
+					throw new RuntimeException("Error while waiting for clients", e);
 				}
+				break;
+			}
 
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+
+				if (!key.isValid()) {
+					continue;
+				}
+
+				if (key.isAcceptable()) {
+					accept();
+				}
+				else {
+					update((Client) key.attachment());
+				}
+			}
+
+			// flush delayed output and send heartbeats
+			for (int i = clients.size() - 1; i >= 0; --i) {
+				Client client = clients.get(i);
+
+				if (client.needsUpdate()) {
+					update(client);
+				}
+			}
+		}
+
+		for (int i = 0, n = clients.size(); i < n; ++i) {
+			clients.get(i).stop();
+		}
+		clients.clear();
+
+		try {
+			selector.close();
+		}
+		catch (IOException e) { }
+	}
+
+	private long getUpdateDelay() {
+		long currentTime = System.currentTimeMillis();
+		long delay = heartbeatDelay;
+
+		for (int i = 0, n = clients.size(); i < n; ++i) {
+			delay = Math.min(delay, clients.get(i).getUpdateDelay(currentTime));
+		}
+
+		return delay;
+	}
+
+	private void update(Client client) {
+		if (!client.update()) {
+			clients.remove(client);
+			client.stop();
+			client.connectionListener.disconnected();
+		}
+	}
+
+	private void accept() {
+		SocketChannel clientChannel = null;
+		try {
+			clientChannel = channel.accept();
+
+			if (clientChannel == null) {
 				return;
 			}
 
-			Client client = createSocketListener(clientSocket);
+			Client client = createSocketListener(clientChannel);
+			client.heartbeatDelay = heartbeatDelay;
+			client.flushThreshold = flushThreshold;
+			client.maxFlushDelay = maxFlushDelay;
+			client.compressionEnabled = compressionEnabled;
+			client.compressionThreshold = compressionThreshold;
+			client.maxOutputSize = maxOutputSize;
+			client.maxInputSize = maxInputSize;
 			client.initSocket();
-			Thread clientThread = new Thread(client.threadRunnable);
-
+			client.register(selector);
 			clients.add(client);
-			clientThread.start();
+		}
+		catch (IOException e) {
+			if (isRunning) {
+				throw new RuntimeException("Error accepting client connection", e);
+			}
 		}
 	}
 
-	protected Client createSocketListener(Socket socket) {
-		RawConnectionCommunicator connectionListener = clientListenerProvider.getListener(socket.getRemoteSocketAddress().toString());
-		return new Client(socket, connectionListener);
+	protected Client createSocketListener(SocketChannel channel) throws IOException {
+		RawConnectionCommunicator connectionListener = clientListenerProvider.getListener(channel.getRemoteAddress().toString());
+		return new Client(channel, connectionListener);
 	}
 }
@@ -2,12 +2,15 @@ package net.namekdev.entity_tracker.network.communicator;
 
 import java.net.SocketAddress;
 
+import net.namekdev.entity_tracker.model.ComponentTypeInfo;
 import net.namekdev.entity_tracker.network.base.RawConnectionCommunicator;
 import net.namekdev.entity_tracker.network.base.RawConnectionOutputListener;
 import net.namekdev.entity_tracker.utils.serialization.NetworkDeserializer;
 import net.namekdev.entity_tracker.utils.serialization.NetworkSerialization;
 import net.namekdev.entity_tracker.utils.serialization.NetworkSerializer;
 
+import com.artemis.utils.Bag;
+
 /**
  * Defines basics of network protocol for communication between EntityTracker Manager and external UI.
  *
@@ -18,28 +21,67 @@ public abstract class Communicator implements RawConnectionCommunicator {
 	protected final NetworkSerializer _serializer = NetworkSerialization.createSerializer();
 	protected final NetworkDeserializer _deserializer = NetworkSerialization.createDeserializer();
 
+	/** Schemas of component states, which are serialized without type tags. */
+	protected final Bag<ComponentTypeInfo> _componentTypes = new Bag<ComponentTypeInfo>();
+
 	// tracker events
 	protected static final byte TYPE_ADDED_ENTITY_SYSTEM = 60;
 	protected static final byte TYPE_ADDED_MANAGER = 61;
 	protected static final byte TYPE_ADDED_COMPONENT_TYPE = 63;
-	protected static final byte TYPE_UPDATED_ENTITY_SYSTEM = 64;
+	protected static final byte TYPE_UPDATED_ENTITY_SYSTEMS = 65;
+	protected static final byte TYPE_ADDED_COMPOSITION = 66;
+	protected static final byte TYPE_UPDATED_SYSTEMS_TIMINGS = 67;
 	protected static final byte TYPE_ADDED_ENTITY = 68;
+	protected static final byte TYPE_ADDED_ENTITIES = 69;
 	protected static final byte TYPE_DELETED_ENTITY = 73;
+	protected static final byte TYPE_DELETED_ENTITIES = 74;
+	protected static final byte TYPE_SNAPSHOT_BEGIN = 76;
+	protected static final byte TYPE_SNAPSHOT_ENTITIES = 77;
+	protected static final byte TYPE_SNAPSHOT_END = 78;
 	protected static final byte TYPE_UPDATED_COMPONENT_STATE = 104;
 
 	// UI requests
 	protected static final byte TYPE_SET_SYSTEM_STATE = 90;
 	protected static final byte TYPE_REQUEST_COMPONENT_STATE = 103;
+	protected static final byte TYPE_WATCH_COMPONENT = 105;
+	protected static final byte TYPE_UNWATCH_COMPONENT = 106;
+	protected static final byte TYPE_SET_LISTENING = 107;
 	protected static final byte TYPE_SET_COMPONENT_FIELD_VALUE = 113;
 
+	/**
+	 * Bulk entity packets are split into parts of this many entities. Serializer grows to fit
+	 * a part, which takes at most 10 bytes per entity, so it stays far below
+	 * {@link net.namekdev.entity_tracker.network.base.Client#maxInputSize}.
+	 */
+	protected static final int MAX_ENTITIES_PER_PACKET = 65536;
+
 
 	@Override
 	public void connected(SocketAddress remoteAddress, RawConnectionOutputListener output) {
 		_output = output;
 	}
 
+	/**
+	 * Gives serializer buffer back to pool, so it has to be called by the thread
+	 * which sends or under the same lock.
+	 */
 	@Override
 	public void disconnected() {
+		_serializer.release();
+	}
+
+	/**
+	 * Sends packet that was already serialized, e.g. by another communicator.
+	 */
+	public void sendSerializedPacket(byte[] buffer, int offset, int length) {
+		_output.send(buffer, offset, length);
+	}
+
+	/**
+	 * Writes all sent packets without waiting for more of them.
+	 */
+	public void flush() {
+		_output.flush();
 	}
 
 	protected void send(NetworkSerializer serializer) {
@@ -2,12 +2,18 @@ package net.namekdev.entity_tracker.network.communicator;
 
 import java.util.BitSet;
 
+import net.namekdev.entity_tracker.connectors.RawComponentStateListener;
 import net.namekdev.entity_tracker.connectors.WorldController;
 import net.namekdev.entity_tracker.connectors.WorldUpdateListener;
 import net.namekdev.entity_tracker.model.ComponentTypeInfo;
+import net.namekdev.entity_tracker.model.EntitySystemStats;
+import net.namekdev.entity_tracker.model.SystemTimingStats;
 import net.namekdev.entity_tracker.model.FieldInfo;
 import net.namekdev.entity_tracker.utils.serialization.NetworkSerializer;
 
+import com.artemis.utils.Bag;
+import com.artemis.utils.IntBag;
+
 /**
  * Deserializes data from network and serializes data sent to the network.
  * Manages between logic events and pure network bytes.
@@ -16,9 +22,39 @@ import net.namekdev.entity_tracker.utils.serialization.NetworkSerializer;
  *
  * @author Namek
  */
-public class EntityTrackerCommunicator extends Communicator implements WorldUpdateListener {
+public class EntityTrackerCommunicator extends Communicator implements WorldUpdateListener, RawComponentStateListener {
 	private WorldController _worldController;
 
+	/** Last state sent for every component of every entity, indexed by component index and entity id. */
+	private final Bag<Bag<SentState>> _sentStates = new Bag<Bag<SentState>>();
+	/** Count of sent states of every entity, so entities that were never inspected are forgotten right away. */
+	private final IntBag _sentStatesCounts = new IntBag();
+	/** States of deleted entities, reused so entity churn doesn't allocate. */
+	private final Bag<SentState> _freeSentStates = new Bag<SentState>();
+	private final NetworkSerializer _stateSerializer = new NetworkSerializer();
+	private int[] _fieldOffsets = new int[16];
+
+	/**
+	 * Components watched by this client, three ints each: entity id, component index
+	 * and tick interval. Released on disconnection. Client watches only a few of them.
+	 */
+	private final IntBag _watches = new IntBag();
+	/** States requested by this client and not sent yet, two ints each: entity id and component index. */
+	private final IntBag _requestedStates = new IntBag();
+
+	/**
+	 * Requests received by network thread, four ints each: type, entity id, component index
+	 * and tick interval. They change what is sent, so they're applied by thread which
+	 * calls listener methods, see {@link #applyPendingRequests()}.
+	 */
+	private final IntBag _pendingRequests = new IntBag();
+	private final IntBag _appliedRequests = new IntBag();
+	private static final int REQUEST_DISCONNECTED = -1;
+
+	/** Events declared by client, everything until it declares otherwise. */
+	private volatile int _listeningBitset = ENTITY_ADDED | ENTITY_DELETED | ENTITY_SYSTEM_STATS;
+	private volatile BitSet _listenedComponentTypes;
+
 
 	@Override
 	public void bytesReceived(byte[] bytes, int offset, int length) {
@@ -36,7 +72,27 @@ public class EntityTrackerCommunicator extends Communicator implements WorldUpda
 			case TYPE_REQUEST_COMPONENT_STATE: {
 				int entityId = _deserializer.readInt();
 				int componentIndex = _deserializer.readInt();
-				_worldController.requestComponentState(entityId, componentIndex);
+				queueRequest(packetType, entityId, componentIndex, 0);
+				break;
+			}
+			case TYPE_WATCH_COMPONENT: {
+				int entityId = _deserializer.readInt();
+				int componentIndex = _deserializer.readInt();
+				int tickInterval = _deserializer.readInt();
+				queueRequest(packetType, entityId, componentIndex, tickInterval);
+				break;
+			}
+			case TYPE_UNWATCH_COMPONENT: {
+				int entityId = _deserializer.readInt();
+				int componentIndex = _deserializer.readInt();
+				queueRequest(packetType, entityId, componentIndex, 0);
+				break;
+			}
+			case TYPE_SET_LISTENING: {
+				int listeningBitset = _deserializer.readInt();
+				_listenedComponentTypes = _deserializer.readBitSet();
+				_listeningBitset = listeningBitset;
+				listeningChanged();
 				break;
 			}
 			case TYPE_SET_COMPONENT_FIELD_VALUE: {
@@ -52,15 +108,164 @@ public class EntityTrackerCommunicator extends Communicator implements WorldUpda
 		}
 	}
 
+	/**
+	 * Watches and buffer of this client are released by {@link #applyPendingRequests()},
+	 * events may still be sent to it until then.
+	 */
+	@Override
+	public void disconnected() {
+		queueRequest(REQUEST_DISCONNECTED, -1, -1, 0);
+	}
+
+	private void queueRequest(int type, int entityId, int componentIndex, int tickInterval) {
+		synchronized (_pendingRequests) {
+			_pendingRequests.add(type);
+			_pendingRequests.add(entityId);
+			_pendingRequests.add(componentIndex);
+			_pendingRequests.add(tickInterval);
+		}
+	}
+
+	/**
+	 * Applies requests received since the last call. Has to be called by the thread
+	 * which calls listener methods, {@link #tickEnded()} does it for a lone communicator.
+	 */
+	public void applyPendingRequests() {
+		synchronized (_pendingRequests) {
+			if (_pendingRequests.isEmpty()) {
+				return;
+			}
+			for (int i = 0, n = _pendingRequests.size(); i < n; ++i) {
+				_appliedRequests.add(_pendingRequests.get(i));
+			}
+			_pendingRequests.setSize(0);
+		}
+
+		final int[] requests = _appliedRequests.getData();
+		for (int i = 0, n = _appliedRequests.size(); i < n; i += 4) {
+			final int entityId = requests[i + 1];
+			final int componentIndex = requests[i + 2];
+
+			switch (requests[i]) {
+				case TYPE_REQUEST_COMPONENT_STATE:
+					// client asks for the whole state, not what changed since
+					forgetComponentState(entityId, componentIndex);
+					if (indexOf(_requestedStates, 2, entityId, componentIndex) < 0) {
+						_requestedStates.add(entityId);
+						_requestedStates.add(componentIndex);
+					}
+					_worldController.requestComponentState(entityId, componentIndex);
+					break;
+				case TYPE_WATCH_COMPONENT:
+					watchComponent(entityId, componentIndex, requests[i + 3]);
+					break;
+				case TYPE_UNWATCH_COMPONENT:
+					unwatchComponent(entityId, componentIndex);
+					break;
+				case REQUEST_DISCONNECTED:
+					unwatchComponents();
+					super.disconnected();
+					break;
+			}
+		}
+		_appliedRequests.setSize(0);
+	}
+
+	private void watchComponent(int entityId, int componentIndex, int tickInterval) {
+		if (indexOf(_watches, 3, entityId, componentIndex) < 0) {
+			_watches.add(entityId);
+			_watches.add(componentIndex);
+			_watches.add(tickInterval);
+			forgetComponentState(entityId, componentIndex);
+			_worldController.watchComponent(entityId, componentIndex, tickInterval);
+		}
+	}
+
+	private void unwatchComponent(int entityId, int componentIndex) {
+		int index = indexOf(_watches, 3, entityId, componentIndex);
+
+		if (index >= 0) {
+			int tickInterval = _watches.get(index + 2);
+			removeAt(_watches, 3, index);
+			_worldController.unwatchComponent(entityId, componentIndex, tickInterval);
+		}
+	}
+
+	private void unwatchComponents() {
+		for (int i = 0, n = _watches.size(); i < n; i += 3) {
+			_worldController.unwatchComponent(_watches.get(i), _watches.get(i + 1), _watches.get(i + 2));
+		}
+		_watches.setSize(0);
+		_requestedStates.setSize(0);
+	}
+
+	/**
+	 * Whether this client requested or watches state of given component.
+	 * Should be called by thread which calls listener methods.
+	 */
+	public boolean isExpectingComponentState(int entityId, int componentIndex) {
+		return indexOf(_requestedStates, 2, entityId, componentIndex) >= 0
+			|| indexOf(_watches, 3, entityId, componentIndex) >= 0;
+	}
+
+	/**
+	 * Finds entry of given entity and component in bag of entries
+	 * of {@code stride} ints which start with these two.
+	 */
+	private static int indexOf(IntBag entries, int stride, int entityId, int componentIndex) {
+		final int[] data = entries.getData();
+
+		for (int i = 0, n = entries.size(); i < n; i += stride) {
+			if (data[i] == entityId && data[i + 1] == componentIndex) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Removes entry of {@code stride} ints, the last entry takes its place.
+	 */
+	private static void removeAt(IntBag entries, int stride, int index) {
+		final int[] data = entries.getData();
+		final int last = entries.size() - stride;
+
+		System.arraycopy(data, last, data, index, stride);
+		entries.setSize(last);
+	}
+
+	private static void removeEntity(IntBag entries, int stride, int entityId) {
+		for (int i = entries.size() - stride; i >= 0; i -= stride) {
+			if (entries.get(i) == entityId) {
+				removeAt(entries, stride, i);
+			}
+		}
+	}
+
 	@Override
 	public void injectWorldController(WorldController controller) {
 		_worldController = controller;
 	}
 
 
+	/**
+	 * Called by network thread when client declares what it listens for.
+	 */
+	protected void listeningChanged() {
+	}
+
 	@Override
 	public int getListeningBitset() {
-		return ENTITY_ADDED | ENTITY_DELETED | ENTITY_SYSTEM_STATS;
+		return _listeningBitset;
+	}
+
+	/**
+	 * Client wants only entities having any of these component types,
+	 * {@code null} means all entities.
+	 */
+	public BitSet getListenedComponentTypes() {
+		return _listenedComponentTypes;
 	}
 
 	@Override
@@ -85,6 +290,8 @@ public class EntityTrackerCommunicator extends Communicator implements WorldUpda
 
 	@Override
 	public void addedComponentType(int index, ComponentTypeInfo info) {
+		_componentTypes.set(index, info);
+
 		NetworkSerializer p =
 			beginPacket(TYPE_ADDED_COMPONENT_TYPE)
 			.addInt(index)
@@ -105,44 +312,327 @@ public class EntityTrackerCommunicator extends Communicator implements WorldUpda
 	}
 
 	@Override
-	public void updatedEntitySystem(int index, int entitiesCount, int maxEntitiesCount) {
+	public void updatedEntitySystems(Bag<EntitySystemStats> systemsStats) {
+		final int n = systemsStats.size();
+		NetworkSerializer p = beginPacket(TYPE_UPDATED_ENTITY_SYSTEMS).beginArray(n);
+
+		for (int i = 0; i < n; ++i) {
+			EntitySystemStats stats = systemsStats.get(i);
+			p.addRawVarInt(stats.systemIndex);
+			p.addRawVarInt(stats.entitiesCount);
+			p.addRawVarInt(stats.minEntitiesCount);
+			p.addRawVarInt(stats.maxEntitiesCount);
+			p.addRawFloat(stats.averageEntitiesCount);
+		}
+
+		send(p);
+	}
+
+	@Override
+	public void updatedSystemsTimings(Bag<SystemTimingStats> systemsTimings) {
+		final int n = systemsTimings.size();
+		NetworkSerializer p = beginPacket(TYPE_UPDATED_SYSTEMS_TIMINGS).beginArray(n);
+
+		for (int i = 0; i < n; ++i) {
+			SystemTimingStats stats = systemsTimings.get(i);
+			p.addRawVarInt(stats.systemIndex);
+			p.addRawVarInt(stats.samplesCount);
+			p.addRawVarLong(stats.p50);
+			p.addRawVarLong(stats.p99);
+			p.addRawVarLong(stats.max);
+			p.addRawVarLong(stats.allocatedBytes);
+		}
+
+		send(p);
+	}
+
+	@Override
+	public void addedComposition(int compositionId, BitSet components) {
 		send(
-			beginPacket(TYPE_UPDATED_ENTITY_SYSTEM)
-			.addInt(index)
-			.addInt(entitiesCount)
-			.addInt(maxEntitiesCount)
+			beginPacket(TYPE_ADDED_COMPOSITION)
+			.addInt(compositionId)
+			.addBitSet(components)
 		);
 	}
 
 	@Override
-	public void addedEntity(int entityId, BitSet components) {
+	public void addedEntity(int entityId, int compositionId) {
 		send(
 			beginPacket(TYPE_ADDED_ENTITY)
 			.addInt(entityId)
-			.addBitSet(components)
+			.addInt(compositionId)
 		);
 	}
 
+	@Override
+	public void addedEntities(IntBag entityIds, IntBag compositionIds) {
+		sendEntities(TYPE_ADDED_ENTITIES, -1, entityIds, compositionIds, 0, entityIds.size());
+	}
+
+	/**
+	 * Starts sending state of the world from the moment of given sequence number.
+	 * Everything but entities is sent before {@link #snapshotEntities} and other events that come later.
+	 */
+	public void beginSnapshot(int sequenceNumber, int entitiesCount) {
+		send(
+			beginPacket(TYPE_SNAPSHOT_BEGIN)
+			.addInt(sequenceNumber)
+			.addInt(entitiesCount)
+		);
+	}
+
+	/**
+	 * Sends part of entities existing at the moment of snapshot. Client ignores
+	 * those that were added or deleted by events sent after the beginning of snapshot.
+	 */
+	public void snapshotEntities(int sequenceNumber, IntBag entityIds, IntBag compositionIds, int from, int to) {
+		sendEntities(TYPE_SNAPSHOT_ENTITIES, sequenceNumber, entityIds, compositionIds, from, to);
+	}
+
+	public void endSnapshot(int sequenceNumber) {
+		send(
+			beginPacket(TYPE_SNAPSHOT_END)
+			.addInt(sequenceNumber)
+		);
+	}
+
+	private void sendEntities(byte packetType, int sequenceNumber, IntBag entityIds, IntBag compositionIds, int from, int to) {
+		int i = from;
+
+		while (i < to) {
+			int count = Math.min(to - i, MAX_ENTITIES_PER_PACKET);
+
+			NetworkSerializer p = beginPacket(packetType);
+			if (packetType == TYPE_SNAPSHOT_ENTITIES) {
+				p.addInt(sequenceNumber);
+			}
+			p.beginArray(count);
+
+			// ids are mostly ascending so differences between them are small
+			int previousId = 0;
+			for (int j = 0; j < count; ++j, ++i) {
+				int entityId = entityIds.get(i);
+				p.addRawSignedVarInt(entityId - previousId);
+				p.addRawVarInt(compositionIds.get(i));
+				previousId = entityId;
+			}
+
+			send(p);
+		}
+	}
+
 	@Override
 	public void deletedEntity(int entityId) {
+		forgetComponentStates(entityId);
 		send(
 			beginPacket(TYPE_DELETED_ENTITY)
 			.addInt(entityId)
 		);
 	}
 
+	@Override
+	public void deletedEntities(IntBag entityIds) {
+		for (int i = 0, n = entityIds.size(); i < n; ++i) {
+			forgetComponentStates(entityIds.get(i));
+		}
+
+		final int n = entityIds.size();
+		int i = 0;
+
+		while (i < n) {
+			int count = Math.min(n - i, MAX_ENTITIES_PER_PACKET);
+
+			NetworkSerializer p =
+				beginPacket(TYPE_DELETED_ENTITIES)
+				.beginArray(count);
+
+			int previousId = 0;
+			for (int j = 0; j < count; ++j, ++i) {
+				int entityId = entityIds.get(i);
+				p.addRawSignedVarInt(entityId - previousId);
+				previousId = entityId;
+			}
+
+			send(p);
+		}
+	}
+
 	@Override
 	public void updatedComponentState(int entityId, int componentIndex, Object[] values) {
+		updatedComponentState(entityId, _componentTypes.get(componentIndex), values);
+	}
+
+	public void updatedComponentState(int entityId, ComponentTypeInfo info, Object[] values) {
+		final NetworkSerializer s = _stateSerializer.reset();
+		final int n = info.fields.size();
+		final int[] offsets = beginFieldOffsets(n);
+
+		for (int i = 0; i < n; ++i) {
+			FieldInfo field = info.fields.get(i);
+			if (values[i] != null && !field.isArray) {
+				s.addRawValue(values[i], field.valueType);
+			}
+			offsets[i + 1] = s.getPosition();
+		}
+
+		sendComponentStateDelta(entityId, info.index, n);
+	}
+
+	@Override
+	public void tickEnded() {
+		applyPendingRequests();
+		flush();
+	}
+
+	@Override
+	public void updatedComponentState(int entityId, ComponentTypeInfo info, Object component) {
+		final NetworkSerializer s = _stateSerializer.reset();
+		final int n = info.accessor.getFieldCount();
+		final int[] offsets = beginFieldOffsets(n);
+
+		for (int i = 0; i < n; ++i) {
+			info.accessor.writeRaw(component, i, s);
+			offsets[i + 1] = s.getPosition();
+		}
+
+		sendComponentStateDelta(entityId, info.index, n);
+	}
+
+	/**
+	 * Forgets what was sent about given entity, e.g. because entity id will be reused.
+	 * Watches of the entity are dropped by tracker itself. Entities which had no state sent
+	 * are forgotten without looking through component types.
+	 */
+	public void forgetComponentStates(int entityId) {
+		for (int i = 0, n = _sentStates.size(); i < n && getSentStatesCount(entityId) > 0; ++i) {
+			forgetComponentState(entityId, i);
+		}
+		if (!_watches.isEmpty()) {
+			removeEntity(_watches, 3, entityId);
+		}
+		if (!_requestedStates.isEmpty()) {
+			removeEntity(_requestedStates, 2, entityId);
+		}
+	}
+
+	private void forgetComponentState(int entityId, int componentIndex) {
+		Bag<SentState> states = _sentStates.safeGet(componentIndex);
+
+		if (states != null && entityId < states.getCapacity()) {
+			SentState sent = states.get(entityId);
+
+			if (sent != null) {
+				states.set(entityId, null);
+				_freeSentStates.add(sent);
+				_sentStatesCounts.set(entityId, _sentStatesCounts.get(entityId) - 1);
+			}
+		}
+	}
+
+	private int getSentStatesCount(int entityId) {
+		return entityId < _sentStatesCounts.getCapacity() ? _sentStatesCounts.get(entityId) : 0;
+	}
+
+	private int[] beginFieldOffsets(int fieldsCount) {
+		if (_fieldOffsets.length < fieldsCount + 1) {
+			_fieldOffsets = new int[fieldsCount + 1];
+		}
+		_fieldOffsets[0] = 0;
+		return _fieldOffsets;
+	}
+
+	/**
+	 * Compares fields serialized into state serializer with the ones sent before
+	 * and sends only those that changed. Absent field is serialized to zero bytes.
+	 */
+	private void sendComponentStateDelta(int entityId, int componentIndex, int fieldsCount) {
+		final byte[] bytes = _stateSerializer.getBuffer();
+		final int[] offsets = _fieldOffsets;
+
+		if (!_requestedStates.isEmpty()) {
+			int requestIndex = indexOf(_requestedStates, 2, entityId, componentIndex);
+			if (requestIndex >= 0) {
+				removeAt(_requestedStates, 2, requestIndex);
+			}
+		}
+
+		Bag<SentState> states = _sentStates.safeGet(componentIndex);
+		if (states == null) {
+			_sentStates.set(componentIndex, states = new Bag<SentState>());
+		}
+		SentState sent = states.safeGet(entityId);
+
 		NetworkSerializer p =
 			beginPacket(TYPE_UPDATED_COMPONENT_STATE)
-			.addInt(entityId)
-			.addInt(componentIndex)
-			.beginArray(values.length);
+			.addRawVarInt(entityId)
+			.addRawVarInt(componentIndex);
+
+		final int changedBitmap = p.addRawBitmap(fieldsCount);
+		final int presenceBitmap = p.addRawBitmap(fieldsCount);
+		boolean isAnyChanged = false;
+
+		for (int i = 0; i < fieldsCount; ++i) {
+			int offset = offsets[i], length = offsets[i + 1] - offset;
+
+			if (sent == null || !sent.equals(i, bytes, offset, length)) {
+				isAnyChanged = true;
+				p.setBitmapBit(changedBitmap, i);
 
-		for (int i = 0, n = values.length; i < n; ++i) {
-			p.addSomething(values[i], true);
+				if (length > 0) {
+					p.setBitmapBit(presenceBitmap, i);
+					p.addRawBytes(bytes, offset, length);
+				}
+			}
 		}
 
-		send(p);
+		if (sent == null) {
+			sent = _freeSentStates.size() > 0 ? _freeSentStates.removeLast() : new SentState();
+			states.set(entityId, sent);
+			_sentStatesCounts.set(entityId, getSentStatesCount(entityId) + 1);
+		}
+		sent.set(bytes, offsets, fieldsCount);
+
+		if (isAnyChanged) {
+			send(p);
+		}
+	}
+
+
+	private static class SentState {
+		byte[] bytes = new byte[0];
+		int[] offsets = new int[0];
+
+		boolean equals(int fieldIndex, byte[] otherBytes, int otherOffset, int otherLength) {
+			if (fieldIndex + 1 >= offsets.length) {
+				return false;
+			}
+
+			int offset = offsets[fieldIndex];
+			if (offsets[fieldIndex + 1] - offset != otherLength) {
+				return false;
+			}
+
+			for (int i = 0; i < otherLength; ++i) {
+				if (bytes[offset + i] != otherBytes[otherOffset + i]) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		void set(byte[] newBytes, int[] newOffsets, int fieldsCount) {
+			int size = newOffsets[fieldsCount];
+
+			if (bytes.length < size) {
+				bytes = new byte[size];
+			}
+			if (offsets.length != fieldsCount + 1) {
+				offsets = new int[fieldsCount + 1];
+			}
+
+			System.arraycopy(newBytes, 0, bytes, 0, size);
+			System.arraycopy(newOffsets, 0, offsets, 0, fieldsCount + 1);
+		}
 	}
 }
@@ -6,18 +6,34 @@ import java.util.BitSet;
 import net.namekdev.entity_tracker.connectors.WorldController;
 import net.namekdev.entity_tracker.connectors.WorldUpdateInterfaceListener;
 import net.namekdev.entity_tracker.model.ComponentTypeInfo;
+import net.namekdev.entity_tracker.model.EntitySystemStats;
+import net.namekdev.entity_tracker.model.SystemTimingStats;
 import net.namekdev.entity_tracker.model.FieldInfo;
 import net.namekdev.entity_tracker.network.base.RawConnectionOutputListener;
-import net.namekdev.entity_tracker.utils.ArrayPool;
+import net.namekdev.entity_tracker.utils.serialization.NetworkSerializer;
+
+import com.artemis.utils.Bag;
+import com.artemis.utils.IntBag;
 
 /**
- * Communicator used by UI (client).
+ * Communicator used by UI (client). Requests can be sent from any thread,
+ * they're serialized under communicator's lock.
  *
  * @author Namek
  */
 public class ExternalInterfaceCommunicator extends Communicator implements WorldController {
 	private WorldUpdateInterfaceListener _listener;
-	private final ArrayPool<Object> _objectArrayPool = new ArrayPool<>(Object.class);
+
+	/** Last known values of components, indexed by component index and entity id. */
+	private final Bag<Bag<Object[]>> _componentStates = new Bag<Bag<Object[]>>();
+
+	/** Sequence number of snapshot being received, {@code -1} when there's none. */
+	private int _snapshotSequenceNumber = -1;
+	/** Entities added or deleted since beginning of snapshot, which are newer than their snapshot state. */
+	private final BitSet _entitiesChangedDuringSnapshot = new BitSet();
+
+	private int _listeningBitset;
+	private BitSet _listenedComponentTypes;
 
 
 	public ExternalInterfaceCommunicator(WorldUpdateInterfaceListener listener) {
@@ -28,10 +44,61 @@ public class ExternalInterfaceCommunicator extends Communicator implements World
 	public void connected(SocketAddress remoteAddress, RawConnectionOutputListener output) {
 		super.connected(remoteAddress, output);
 		_listener.injectWorldController(this);
+
+		// server doesn't send anything before it knows what's wanted
+		_listeningBitset = _listener.getListeningBitset();
+		sendListening();
+	}
+
+	/**
+	 * Declares which events should be sent by server. Entities which went out of
+	 * the declaration are deleted and the ones which came into it are added.
+	 *
+	 * @param listeningBitset events, as in {@link net.namekdev.entity_tracker.connectors.WorldUpdateListener#getListeningBitset()}
+	 * @param componentTypes only entities having any of these component types are sent, {@code null} for all of them
+	 */
+	public synchronized void setListening(int listeningBitset, BitSet componentTypes) {
+		_listeningBitset = listeningBitset;
+		_listenedComponentTypes = componentTypes;
+
+		if (_output != null) {
+			sendListening();
+		}
+	}
+
+	/**
+	 * Declares again events which listener wants, after its
+	 * {@link net.namekdev.entity_tracker.connectors.WorldUpdateListener#getListeningBitset()} changed.
+	 */
+	public void updateListening() {
+		setListening(_listener.getListeningBitset(), _listenedComponentTypes);
+	}
+
+	private synchronized void sendListening() {
+		send(
+			beginPacket(TYPE_SET_LISTENING)
+			.addInt(_listeningBitset)
+			.addBitSet(_listenedComponentTypes)
+		);
+	}
+
+	/**
+	 * Whether world snapshot has begun and is not fully received yet.
+	 * Should be called by thread which receives data.
+	 */
+	public boolean isReceivingSnapshot() {
+		return _snapshotSequenceNumber != -1;
 	}
 
 	@Override
 	public void disconnected() {
+		// requests may be being sent by another thread
+		synchronized (this) {
+			super.disconnected();
+		}
+		_componentStates.clear();
+		_snapshotSequenceNumber = -1;
+		_entitiesChangedDuringSnapshot.clear();
 		_listener.disconnected();
 	}
 
@@ -76,41 +143,144 @@ public class ExternalInterfaceCommunicator extends Communicator implements World
 					info.fields.insertElementAt(field, i);
 				}
 
+				_componentTypes.set(index, info);
 				_listener.addedComponentType(index, info);
 				break;
 			}
-			case TYPE_UPDATED_ENTITY_SYSTEM: {
-				int index = _deserializer.readInt();
-				int entitiesCount = _deserializer.readInt();
-				int maxEntitiesCount = _deserializer.readInt();
-				_listener.updatedEntitySystem(index, entitiesCount, maxEntitiesCount);
+			case TYPE_UPDATED_ENTITY_SYSTEMS: {
+				int size = _deserializer.beginArray();
+				Bag<EntitySystemStats> systemsStats = new Bag<EntitySystemStats>(size);
+
+				for (int i = 0; i < size; ++i) {
+					int index = _deserializer.readRawVarInt();
+					int entitiesCount = _deserializer.readRawVarInt();
+					int minEntitiesCount = _deserializer.readRawVarInt();
+					int maxEntitiesCount = _deserializer.readRawVarInt();
+					float averageEntitiesCount = _deserializer.readRawFloat();
+					systemsStats.add(new EntitySystemStats().set(index, entitiesCount, minEntitiesCount, maxEntitiesCount, averageEntitiesCount));
+				}
+
+				_listener.updatedEntitySystems(systemsStats);
+				break;
+			}
+			case TYPE_UPDATED_SYSTEMS_TIMINGS: {
+				int size = _deserializer.beginArray();
+				Bag<SystemTimingStats> systemsTimings = new Bag<SystemTimingStats>(size);
+
+				for (int i = 0; i < size; ++i) {
+					int index = _deserializer.readRawVarInt();
+					int samplesCount = _deserializer.readRawVarInt();
+					long p50 = _deserializer.readRawVarLong();
+					long p99 = _deserializer.readRawVarLong();
+					long max = _deserializer.readRawVarLong();
+					long allocatedBytes = _deserializer.readRawVarLong();
+					systemsTimings.add(new SystemTimingStats().set(index, samplesCount, p50, p99, max, allocatedBytes));
+				}
+
+				_listener.updatedSystemsTimings(systemsTimings);
+				break;
+			}
+			case TYPE_ADDED_COMPOSITION: {
+				int compositionId = _deserializer.readInt();
+				BitSet components = _deserializer.readBitSet();
+				_listener.addedComposition(compositionId, components);
 				break;
 			}
 			case TYPE_ADDED_ENTITY: {
 				int entityId = _deserializer.readInt();
-				BitSet components = _deserializer.readBitSet();
-				_listener.addedEntity(entityId, components);
+				int compositionId = _deserializer.readInt();
+				markChangedDuringSnapshot(entityId);
+				_listener.addedEntity(entityId, compositionId);
+				break;
+			}
+			case TYPE_ADDED_ENTITIES: {
+				int size = _deserializer.beginArray();
+				IntBag entityIds = new IntBag(size);
+				IntBag compositionIds = new IntBag(size);
+				readEntities(size, entityIds, compositionIds, false);
+
+				_listener.addedEntities(entityIds, compositionIds);
 				break;
 			}
 			case TYPE_DELETED_ENTITY: {
 				int entityId = _deserializer.readInt();
+				forgetComponentStates(entityId);
+				markChangedDuringSnapshot(entityId);
 				_listener.deletedEntity(entityId);
 				break;
 			}
-			case TYPE_UPDATED_COMPONENT_STATE: {
-				int entityId = _deserializer.readInt();
-				int index = _deserializer.readInt();
+			case TYPE_DELETED_ENTITIES: {
 				int size = _deserializer.beginArray();
+				IntBag entityIds = new IntBag(size);
 
-				Object[] values = _objectArrayPool.obtain(size, true);
-
+				int entityId = 0;
 				for (int i = 0; i < size; ++i) {
-					values[i] = _deserializer.readSomething(true);
+					entityId += _deserializer.readRawSignedVarInt();
+					forgetComponentStates(entityId);
+					markChangedDuringSnapshot(entityId);
+					entityIds.add(entityId);
 				}
 
-				_listener.updatedComponentState(entityId, index, values);
-				_objectArrayPool.free(values, true);
+				_listener.deletedEntities(entityIds);
+				break;
+			}
+			case TYPE_SNAPSHOT_BEGIN: {
+				_snapshotSequenceNumber = _deserializer.readInt();
+				_deserializer.readInt();
+				_entitiesChangedDuringSnapshot.clear();
+				break;
+			}
+			case TYPE_SNAPSHOT_ENTITIES: {
+				int sequenceNumber = _deserializer.readInt();
+				if (sequenceNumber != _snapshotSequenceNumber) {
+					break;
+				}
 
+				int size = _deserializer.beginArray();
+				IntBag entityIds = new IntBag(size);
+				IntBag compositionIds = new IntBag(size);
+				readEntities(size, entityIds, compositionIds, true);
+
+				if (entityIds.size() > 0) {
+					_listener.addedEntities(entityIds, compositionIds);
+				}
+				break;
+			}
+			case TYPE_SNAPSHOT_END: {
+				if (_deserializer.readInt() == _snapshotSequenceNumber) {
+					_snapshotSequenceNumber = -1;
+					_entitiesChangedDuringSnapshot.clear();
+				}
+				break;
+			}
+			case TYPE_UPDATED_COMPONENT_STATE: {
+				int entityId = _deserializer.readRawVarInt();
+				int index = _deserializer.readRawVarInt();
+				ComponentTypeInfo info = _componentTypes.get(index);
+				final int n = info.fields.size();
+
+				Bag<Object[]> states = _componentStates.safeGet(index);
+				if (states == null) {
+					_componentStates.set(index, states = new Bag<Object[]>());
+				}
+				Object[] values = states.safeGet(entityId);
+				if (values == null) {
+					states.set(entityId, values = new Object[n]);
+				}
+
+				// only changed fields are sent, the rest stays as it was
+				int changedBitmap = _deserializer.readRawBitmap(n);
+				int presenceBitmap = _deserializer.readRawBitmap(n);
+
+				for (int i = 0; i < n; ++i) {
+					if (_deserializer.getBitmapBit(changedBitmap, i)) {
+						values[i] = _deserializer.getBitmapBit(presenceBitmap, i)
+							? _deserializer.readRawValue(info.fields.get(i).valueType)
+							: null;
+					}
+				}
+
+				_listener.updatedComponentState(entityId, index, values);
 				break;
 			}
 
@@ -118,8 +288,53 @@ public class ExternalInterfaceCommunicator extends Communicator implements World
 		}
 	}
 
+	/**
+	 * @param isSnapshot when set, entities which were changed by later events are skipped
+	 */
+	private void readEntities(int size, IntBag entityIds, IntBag compositionIds, boolean isSnapshot) {
+		int entityId = 0;
+		for (int i = 0; i < size; ++i) {
+			entityId += _deserializer.readRawSignedVarInt();
+			int compositionId = _deserializer.readRawVarInt();
+
+			if (isSnapshot && _entitiesChangedDuringSnapshot.get(entityId)) {
+				continue;
+			}
+			if (!isSnapshot) {
+				markChangedDuringSnapshot(entityId);
+			}
+
+			entityIds.add(entityId);
+			compositionIds.add(compositionId);
+		}
+	}
+
+	private void markChangedDuringSnapshot(int entityId) {
+		if (_snapshotSequenceNumber >= 0) {
+			_entitiesChangedDuringSnapshot.set(entityId);
+		}
+	}
+
+	private void forgetComponentStates(int entityId) {
+		for (int i = 0, n = _componentStates.size(); i < n; ++i) {
+			Bag<Object[]> states = _componentStates.get(i);
+
+			if (states != null && entityId < states.getCapacity()) {
+				states.set(entityId, null);
+			}
+		}
+	}
+
 	@Override
-	public void setSystemState(String name, boolean isOn) {
+	protected void send(NetworkSerializer serializer) {
+		super.send(serializer);
+
+		// requests are rare and user waits for the response
+		flush();
+	}
+
+	@Override
+	public synchronized void setSystemState(String name, boolean isOn) {
 		send(
 			beginPacket(TYPE_SET_SYSTEM_STATE)
 			.addString(name)
@@ -128,7 +343,7 @@ public class ExternalInterfaceCommunicator extends Communicator implements World
 	}
 
 	@Override
-	public void requestComponentState(int entityId, int componentIndex) {
+	public synchronized void requestComponentState(int entityId, int componentIndex) {
 		send(
 			beginPacket(TYPE_REQUEST_COMPONENT_STATE)
 			.addInt(entityId)
@@ -137,7 +352,27 @@ public class ExternalInterfaceCommunicator extends Communicator implements World
 	}
 
 	@Override
-	public void setComponentFieldValue(int entityId, int componentIndex, int fieldIndex, Object value) {
+	public synchronized void watchComponent(int entityId, int componentIndex, int tickInterval) {
+		send(
+			beginPacket(TYPE_WATCH_COMPONENT)
+			.addInt(entityId)
+			.addInt(componentIndex)
+			.addInt(tickInterval)
+		);
+	}
+
+	@Override
+	public synchronized void unwatchComponent(int entityId, int componentIndex, int tickInterval) {
+		// server remembers interval of every watch of this client
+		send(
+			beginPacket(TYPE_UNWATCH_COMPONENT)
+			.addInt(entityId)
+			.addInt(componentIndex)
+		);
+	}
+
+	@Override
+	public synchronized void setComponentFieldValue(int entityId, int componentIndex, int fieldIndex, Object value) {
 		send(
 			beginPacket(TYPE_SET_COMPONENT_FIELD_VALUE)
 			.addInt(entityId)
@@ -1,75 +1,124 @@
 package net.namekdev.entity_tracker.utils;
 
+import java.lang.ref.WeakReference;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.BitSet;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.artemis.utils.reflect.ArrayReflection;
 
+/**
+ * Pool of arrays kept in stacks by their exact length, so obtaining and freeing is O(1).
+ * Array bigger than needed is found through bitset of non-empty stacks.
+ *
+ * <p>Pool is thread-safe. With per-thread cache every thread has its own stacks
+ * and doesn't synchronize at all, array freed by other thread goes to that thread's cache.
+ * Stacks of dead threads are forgotten when another thread gets its stacks or statistics are read.</p>
+ *
+ * @author Namek
+ */
 public class ArrayPool<T> {
+	public static final int DEFAULT_MAX_ARRAYS_PER_SIZE = 8;
+
+	/** Arrays longer than this are neither pooled nor found for smaller requests. */
+	public static final int MAX_POOLED_SIZE = 1024;
+
 	private final Class<T> type;
-	private final LinkedList<T[]> _arrays = new LinkedList<>();
+	private final int _maxArraysPerSize;
+	private final Stacks<T> _sharedStacks;
+	private final ThreadLocal<Stacks<T>> _threadStacks;
+	private final CopyOnWriteArrayList<Stacks<T>> _allStacks = new CopyOnWriteArrayList<Stacks<T>>();
+	/** Counters of forgotten stacks, guarded by {@link #_allStacks}. */
+	private long _deadObtainedCount, _deadReusedCount, _deadDroppedCount;
 
 
 	public ArrayPool(Class<T> type) {
+		this(type, false, DEFAULT_MAX_ARRAYS_PER_SIZE);
+	}
+
+	/**
+	 * @param perThreadCache every thread gets own stacks instead of synchronizing on shared ones
+	 * @param maxArraysPerSize arrays freed over this count of the same length are forgotten
+	 */
+	public ArrayPool(Class<T> type, boolean perThreadCache, int maxArraysPerSize) {
 		this.type = type;
+		_maxArraysPerSize = maxArraysPerSize;
+
+		if (perThreadCache) {
+			_sharedStacks = null;
+			_threadStacks = new ThreadLocal<Stacks<T>>() {
+				@Override
+				protected Stacks<T> initialValue() {
+					return createStacks(Thread.currentThread());
+				}
+			};
+		}
+		else {
+			_sharedStacks = createStacks(null);
+			_threadStacks = null;
+		}
 	}
 
-	public T[] obtain(int size, boolean exactSize) {
-		int imin = 0, imax = _arrays.size() - 1;
+	private Stacks<T> createStacks(Thread owner) {
+		Stacks<T> stacks = new Stacks<T>(_maxArraysPerSize, owner);
 
-		while (imax >= imin) {
-			int imid = (imax + imin) / 2;
-			T[] arr = _arrays.get(imid);
+		synchronized (_allStacks) {
+			forgetDeadStacks();
+			_allStacks.add(stacks);
+		}
+		return stacks;
+	}
 
-			if (arr.length == size) {
-				_arrays.remove(imid);
-				return arr;
-			}
-			else if (arr.length < size) {
-				imin = imid + 1;
+	/**
+	 * Forgets stacks of dead threads, so their arrays can be collected.
+	 * Their counters are kept for statistics. Should be called within {@link #_allStacks} lock.
+	 */
+	private void forgetDeadStacks() {
+		for (Stacks<T> stacks : _allStacks) {
+			if (stacks.isOwnerDead()) {
+				_allStacks.remove(stacks);
+				_deadObtainedCount += stacks.obtainedCount;
+				_deadReusedCount += stacks.reusedCount;
+				_deadDroppedCount += stacks.droppedCount;
 			}
-			else {
-				if (!exactSize) {
-					return arr;
-				}
+		}
+	}
 
-				imax = imid - 1;
+	/**
+	 * @param exactSize when {@code false} any pooled array of at least given size may be returned
+	 */
+	public T[] obtain(int size, boolean exactSize) {
+		T[] array;
+
+		if (_sharedStacks != null) {
+			synchronized (_sharedStacks) {
+				array = _sharedStacks.pop(size, exactSize);
 			}
 		}
+		else {
+			array = _threadStacks.get().pop(size, exactSize);
+		}
 
-		return create(size);
+		return array != null ? array : create(size);
 	}
 
 	public void free(T[] array, boolean nullify) {
+		if (array.length > MAX_POOLED_SIZE) {
+			return;
+		}
+
 		if (nullify) {
 			Arrays.fill(array, null);
 		}
 
-		int size = array.length;
-		int imin = 0, imax = _arrays.size() - 1;
-		int index = 0;
-
-		while (imin <= imax) {
-			index = (imax + imin) / 2;
-			T[] arr = _arrays.get(index);
-
-			if (arr.length == size) {
-				break;
-			}
-
-			if (arr.length > size) {
-				imax = index - 1;
-			}
-			else {
-				imin = index + 1;
+		if (_sharedStacks != null) {
+			synchronized (_sharedStacks) {
+				_sharedStacks.push(array);
 			}
 		}
-
-		if (index < imin) {
-			index = imin;
+		else {
+			_threadStacks.get().push(array);
 		}
-
-		_arrays.add(index, array);
 	}
 
 	public void free(T[] array) {
@@ -80,4 +129,136 @@ public class ArrayPool<T> {
 	protected T[] create(int size) {
 		return (T[]) ArrayReflection.newInstance(type, size);
 	}
+
+	/**
+	 * Sums statistics of all threads. Values read from other threads may be slightly outdated.
+	 */
+	public Statistics getStatistics() {
+		Statistics stats = new Statistics();
+
+		synchronized (_allStacks) {
+			forgetDeadStacks();
+			stats.obtainedCount = _deadObtainedCount;
+			stats.reusedCount = _deadReusedCount;
+			stats.droppedCount = _deadDroppedCount;
+		}
+
+		for (Stacks<T> stacks : _allStacks) {
+			stats.obtainedCount += stacks.obtainedCount;
+			stats.reusedCount += stacks.reusedCount;
+			stats.droppedCount += stacks.droppedCount;
+			stats.pooledCount += stacks.pooledCount;
+		}
+		stats.createdCount = stats.obtainedCount - stats.reusedCount;
+
+		return stats;
+	}
+
+
+	public static class Statistics {
+		/** Count of {@code obtain()} calls. */
+		public long obtainedCount;
+
+		/** Obtained arrays which were taken from pool. */
+		public long reusedCount;
+
+		/** Obtained arrays which had to be created. */
+		public long createdCount;
+
+		/** Freed arrays which weren't pooled because of the limit. */
+		public long droppedCount;
+
+		/** Arrays currently kept in pool. */
+		public int pooledCount;
+	}
+
+	private static class Stacks<T> {
+		final int maxArraysPerSize;
+		/** Thread which uses these stacks, {@code null} for shared ones. */
+		final WeakReference<Thread> owner;
+
+		/** Stack of arrays for every length. */
+		Object[][] arrays = new Object[0][];
+		int[] counts = new int[0];
+		final BitSet nonEmptySizes = new BitSet();
+
+		long obtainedCount, reusedCount, droppedCount;
+		int pooledCount;
+
+
+		Stacks(int maxArraysPerSize, Thread owner) {
+			this.maxArraysPerSize = maxArraysPerSize;
+			this.owner = owner != null ? new WeakReference<Thread>(owner) : null;
+		}
+
+		boolean isOwnerDead() {
+			if (owner == null) {
+				return false;
+			}
+
+			Thread thread = owner.get();
+			return thread == null || !thread.isAlive();
+		}
+
+		@SuppressWarnings("unchecked")
+		T[] pop(int size, boolean exactSize) {
+			++obtainedCount;
+
+			if (size >= counts.length) {
+				return null;
+			}
+
+			int length = size;
+			if (!exactSize) {
+				length = nonEmptySizes.nextSetBit(size);
+				if (length < 0) {
+					return null;
+				}
+			}
+
+			int count = counts[length];
+			if (count == 0) {
+				return null;
+			}
+
+			Object[] stack = arrays[length];
+			T[] array = (T[]) stack[--count];
+			stack[count] = null;
+			counts[length] = count;
+
+			if (count == 0) {
+				nonEmptySizes.clear(length);
+			}
+			++reusedCount;
+			--pooledCount;
+
+			return array;
+		}
+
+		void push(Object[] array) {
+			final int length = array.length;
+
+			if (length >= counts.length) {
+				int newSize = Math.min(MAX_POOLED_SIZE, Math.max(length, counts.length * 2)) + 1;
+				arrays = Arrays.copyOf(arrays, newSize);
+				counts = Arrays.copyOf(counts, newSize);
+			}
+
+			Object[] stack = arrays[length];
+			if (stack == null) {
+				stack = arrays[length] = new Object[maxArraysPerSize];
+			}
+
+			int count = counts[length];
+			if (count == stack.length) {
+				++droppedCount;
+				return;
+			}
+
+			stack[count] = array;
+			counts[length] = count + 1;
+			nonEmptySizes.set(length);
+			++pooledCount;
+		}
+	}
 }
@@ -0,0 +1,90 @@
+package net.namekdev.entity_tracker.utils;
+
+/**
+ * Thread-safe pool of byte arrays. Sizes of arrays are always powers of two
+ * so obtaining and freeing is O(1).
+ *
+ * @author Namek
+ */
+public class ByteArrayPool {
+	public static final ByteArrayPool shared = new ByteArrayPool();
+
+	private static final int MAX_SIZE_CLASS = 30;
+
+	private final byte[][][] _arrays = new byte[MAX_SIZE_CLASS + 1][][];
+	private final int[] _counts = new int[MAX_SIZE_CLASS + 1];
+	private final int _maxArraysPerSize;
+
+
+	public ByteArrayPool() {
+		this(4);
+	}
+
+	/**
+	 * @param maxArraysPerSize limits memory retained by pool when some huge packet was serialized once
+	 */
+	public ByteArrayPool(int maxArraysPerSize) {
+		_maxArraysPerSize = maxArraysPerSize;
+	}
+
+	/**
+	 * Returns array of at least given size.
+	 */
+	public byte[] obtain(int minSize) {
+		int sizeClass = sizeClassOf(minSize);
+
+		synchronized (this) {
+			int count = _counts[sizeClass];
+			if (count > 0) {
+				byte[][] arrays = _arrays[sizeClass];
+				byte[] array = arrays[--count];
+				arrays[count] = null;
+				_counts[sizeClass] = count;
+				return array;
+			}
+		}
+
+		return new byte[1 << sizeClass];
+	}
+
+	/**
+	 * Gives array back to pool, it must not be used afterwards. Any array of
+	 * power of two size is accepted, other ones are ignored, as well as arrays
+	 * which already are in the pool.
+	 */
+	public void free(byte[] array) {
+		int size = array.length;
+		if (size == 0 || (size & (size - 1)) != 0) {
+			return;
+		}
+
+		int sizeClass = Integer.numberOfTrailingZeros(size);
+
+		synchronized (this) {
+			byte[][] arrays = _arrays[sizeClass];
+			if (arrays == null) {
+				arrays = _arrays[sizeClass] = new byte[_maxArraysPerSize][];
+			}
+
+			int count = _counts[sizeClass];
+			for (int i = 0; i < count; ++i) {
+				if (arrays[i] == array) {
+					return;
+				}
+			}
+
+			if (count < arrays.length) {
+				arrays[count] = array;
+				_counts[sizeClass] = count + 1;
+			}
+		}
+	}
+
+	private int sizeClassOf(int minSize) {
+		if (minSize > 1 << MAX_SIZE_CLASS) {
+			throw new IllegalArgumentException("Array of size " + minSize + " is too big.");
+		}
+
+		return minSize <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(minSize - 1);
+	}
+}
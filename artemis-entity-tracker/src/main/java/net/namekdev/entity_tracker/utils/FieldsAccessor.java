@@ -0,0 +1,151 @@
+package net.namekdev.entity_tracker.utils;
+
+import static net.namekdev.entity_tracker.utils.serialization.NetworkSerialization.*;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+import net.namekdev.entity_tracker.model.FieldInfo;
+import net.namekdev.entity_tracker.utils.serialization.NetworkSerializer;
+
+/**
+ * Reads and writes fields of a single component type through method handles
+ * which are created once, so there's no reflection lookup nor access check per read.
+ * Primitive fields are read with exact types to avoid boxing.
+ *
+ * @author Namek
+ */
+public class FieldsAccessor {
+	private static final MethodType OBJECT_GETTER = MethodType.methodType(Object.class, Object.class);
+	private static final MethodType OBJECT_SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+
+	private final int[] _valueTypes;
+	private final boolean[] _isArray;
+	private final boolean[] _isPrimitive;
+	private final MethodHandle[] _getters;
+	private final MethodHandle[] _exactGetters;
+	private final MethodHandle[] _setters;
+
+
+	public FieldsAccessor(Class<?> type, List<FieldInfo> fields) {
+		final int n = fields.size();
+		_valueTypes = new int[n];
+		_isArray = new boolean[n];
+		_isPrimitive = new boolean[n];
+		_getters = new MethodHandle[n];
+		_exactGetters = new MethodHandle[n];
+		_setters = new MethodHandle[n];
+
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+		for (int i = 0; i < n; ++i) {
+			FieldInfo info = fields.get(i);
+			_valueTypes[i] = info.valueType;
+			_isArray[i] = info.isArray;
+
+			try {
+				Field field = type.getDeclaredField(info.fieldName);
+				field.setAccessible(true);
+				boolean isStatic = Modifier.isStatic(field.getModifiers());
+				_isPrimitive[i] = field.getType().isPrimitive();
+
+				MethodHandle getter = lookup.unreflectGetter(field);
+				if (isStatic) {
+					getter = MethodHandles.dropArguments(getter, 0, Object.class);
+				}
+				_exactGetters[i] = getter.asType(MethodType.methodType(field.getType(), Object.class));
+				_getters[i] = getter.asType(OBJECT_GETTER);
+
+				if (!Modifier.isFinal(field.getModifiers())) {
+					MethodHandle setter = lookup.unreflectSetter(field);
+					if (isStatic) {
+						setter = MethodHandles.dropArguments(setter, 0, Object.class);
+					}
+					_setters[i] = setter.asType(OBJECT_SETTER);
+				}
+			}
+			catch (NoSuchFieldException | IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	public int getFieldCount() {
+		return _valueTypes.length;
+	}
+
+	public Object get(Object component, int fieldIndex) {
+		try {
+			return _getters[fieldIndex].invokeExact(component);
+		}
+		catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Reads all fields into given array. Array fields are not supported yet so they're {@code null}.
+	 */
+	public void getValues(Object component, Object[] outValues) {
+		for (int i = 0, n = _valueTypes.length; i < n; ++i) {
+			outValues[i] = _isArray[i] ? null : get(component, i);
+		}
+	}
+
+	public void set(Object component, int fieldIndex, Object value) {
+		MethodHandle setter = _setters[fieldIndex];
+		if (setter == null) {
+			throw new IllegalArgumentException("Field " + fieldIndex + " is final.");
+		}
+
+		try {
+			setter.invokeExact(component, value);
+		}
+		catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Serializes field value without type tag, the same way as
+	 * {@link NetworkSerializer#addRawValue(Object, int)} would do but primitives are not boxed.
+	 *
+	 * @return {@code false} when value is absent: {@code null} or array
+	 */
+	public boolean writeRaw(Object component, int fieldIndex, NetworkSerializer serializer) {
+		if (_isArray[fieldIndex]) {
+			return false;
+		}
+
+		if (!_isPrimitive[fieldIndex]) {
+			Object value = get(component, fieldIndex);
+			return value != null && serializer.addRawValue(value, _valueTypes[fieldIndex]);
+		}
+
+		final MethodHandle getter = _exactGetters[fieldIndex];
+
+		try {
+			switch (_valueTypes[fieldIndex]) {
+				case TYPE_BYTE: serializer.addRawByte((byte) getter.invokeExact(component)); return true;
+				case TYPE_SHORT: serializer.addRawShort((short) getter.invokeExact(component)); return true;
+				case TYPE_INT: serializer.addRawInt((int) getter.invokeExact(component)); return true;
+				case TYPE_LONG: serializer.addRawLong((long) getter.invokeExact(component)); return true;
+				case TYPE_BOOLEAN: serializer.addRawBoolean((boolean) getter.invokeExact(component)); return true;
+				case TYPE_FLOAT: serializer.addRawFloat((float) getter.invokeExact(component)); return true;
+				case TYPE_DOUBLE: serializer.addRawDouble((double) getter.invokeExact(component)); return true;
+				case TYPE_CHAR: serializer.addRawChar((char) getter.invokeExact(component)); return true;
+				default: return false;
+			}
+		}
+		catch (RuntimeException e) {
+			throw e;
+		}
+		catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package net.namekdev.entity_tracker.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Reads count of bytes allocated by the current thread, when JVM is able to tell it.
+ * Reading the counter may allocate by itself, so that constant is measured once and subtracted.
+ *
+ * @author Namek
+ */
+public class ThreadAllocationCounter {
+	private final com.sun.management.ThreadMXBean _bean;
+	private final long _overhead;
+
+
+	private ThreadAllocationCounter(com.sun.management.ThreadMXBean bean) {
+		_bean = bean;
+
+		long overhead = Long.MAX_VALUE;
+		for (int i = 0; i < 10; ++i) {
+			long start = getAllocatedBytes();
+			overhead = Math.min(overhead, getAllocatedBytes() - start);
+		}
+		_overhead = overhead;
+	}
+
+	/**
+	 * @return {@code null} when JVM doesn't support allocation counting
+	 */
+	public static ThreadAllocationCounter create() {
+		try {
+			ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+			if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+				return null;
+			}
+
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+			if (!sunBean.isThreadAllocatedMemorySupported()) {
+				return null;
+			}
+			if (!sunBean.isThreadAllocatedMemoryEnabled()) {
+				sunBean.setThreadAllocatedMemoryEnabled(true);
+			}
+
+			return new ThreadAllocationCounter(sunBean);
+		}
+		catch (LinkageError e) {
+			return null;
+		}
+		catch (UnsupportedOperationException e) {
+			return null;
+		}
+		catch (SecurityException e) {
+			return null;
+		}
+	}
+
+	public long getAllocatedBytes() {
+		return _bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * @param start value of {@link #getAllocatedBytes()} read before measured code
+	 */
+	public long getAllocatedBytesSince(long start) {
+		return Math.max(0, getAllocatedBytes() - start - _overhead);
+	}
+}
@@ -0,0 +1,98 @@
+package net.namekdev.entity_tracker.utils;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of durations with fixed relative precision, in the manner of HdrHistogram.
+ * Values are grouped by their highest bit and {@link #SUB_BUCKET_BITS} bits below it,
+ * so every bucket is at most ~6% wide. Counts are preallocated, recording doesn't allocate.
+ *
+ * @author Namek
+ */
+public class TimeHistogram {
+	public static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final int[] _counts = new int[(64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+	private int _totalCount;
+	private long _max;
+
+
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+
+		++_counts[bucketIndex(value)];
+		++_totalCount;
+
+		if (value > _max) {
+			_max = value;
+		}
+	}
+
+	public int getTotalCount() {
+		return _totalCount;
+	}
+
+	public long getMax() {
+		return _max;
+	}
+
+	/**
+	 * Returns the highest value of bucket in which given percentile falls.
+	 *
+	 * @param percentile from {@code 0} to {@code 100}
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (_totalCount == 0) {
+			return 0;
+		}
+
+		final long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100 * _totalCount));
+		long count = 0;
+
+		for (int i = 0, n = _counts.length; i < n; ++i) {
+			count += _counts[i];
+
+			if (count >= countAtPercentile) {
+				return Math.min(bucketHighestValue(i), _max);
+			}
+		}
+
+		return _max;
+	}
+
+	public void reset() {
+		if (_totalCount == 0) {
+			return;
+		}
+
+		Arrays.fill(_counts, 0);
+		_totalCount = 0;
+		_max = 0;
+	}
+
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		final int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	static long bucketHighestValue(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+
+		final int shift = index / SUB_BUCKETS - 1;
+		final long subBucket = index % SUB_BUCKETS;
+		final long lowestValue = (SUB_BUCKETS + subBucket) << shift;
+
+		return lowestValue + (1L << shift) - 1;
+	}
+}
@@ -4,7 +4,7 @@ import java.util.BitSet;
 
 public class NetworkDeserializer extends NetworkSerialization {
 	private byte[] _source;
-	private int _sourcePos, _sourceBeginPos;
+	private int _sourcePos, _sourceBeginPos, _sourceEndPos;
 
 
 	public NetworkDeserializer() {
@@ -14,6 +14,7 @@ public class NetworkDeserializer extends NetworkSerialization {
 		_source = bytes;
 		_sourcePos = offset;
 		_sourceBeginPos = offset;
+		_sourceEndPos = offset + length;
 	}
 
 	public int getConsumedBytesCount() {
@@ -23,7 +24,7 @@ public class NetworkDeserializer extends NetworkSerialization {
 	public int beginArray(byte elementType) {
 		checkType(TYPE_ARRAY);
 		checkType(elementType);
-		return readRawInt();
+		return readRawVarInt();
 	}
 
 	public int beginArray() {
@@ -40,7 +41,21 @@ public class NetworkDeserializer extends NetworkSerialization {
 		return readRawShort();
 	}
 
+	public char readChar() {
+		checkType(TYPE_CHAR);
+		return readRawChar();
+	}
+
+	/**
+	 * Reads int written either fully or compactly, see {@link NetworkSerializer#compactInts}.
+	 */
 	public int readInt() {
+		checkAvailable(1);
+		if (_source[_sourcePos] == TYPE_VARINT) {
+			++_sourcePos;
+			return readRawSignedVarInt();
+		}
+
 		checkType(TYPE_INT);
 		return readRawInt();
 	}
@@ -53,7 +68,7 @@ public class NetworkDeserializer extends NetworkSerialization {
 	public long readRawLong() {
 		long value = readRawInt();
 		value <<= 32;
-		value |= readRawInt();
+		value |= readRawInt() & 0xFFFFFFFFL;
 
 		return value;
 	}
@@ -64,7 +79,12 @@ public class NetworkDeserializer extends NetworkSerialization {
 		}
 
 		checkType(TYPE_STRING);
-		int length = readRawInt();
+		return readRawString();
+	}
+
+	public String readRawString() {
+		int length = readRawVarInt();
+		checkAvailable(length);
 
 		StringBuilder sb = new StringBuilder(length);
 		for (int i = 0; i < length; ++i) {
@@ -76,9 +96,11 @@ public class NetworkDeserializer extends NetworkSerialization {
 
 	public boolean readBoolean() {
 		checkType(TYPE_BOOLEAN);
+		return readRawBoolean();
+	}
 
-		byte value = readRawByte();
-		return value != 0;
+	public boolean readRawBoolean() {
+		return readRawByte() != 0;
 	}
 
 	public float readFloat() {
@@ -105,33 +127,71 @@ public class NetworkDeserializer extends NetworkSerialization {
 		}
 
 		checkType(TYPE_BITSET);
+		return readRawBitSet();
+	}
 
-		final short allBitsCount = readRawShort();
-		final BitSet bitset = new BitSet(allBitsCount);
+	public BitSet readRawBitSet() {
+		final byte encoding = readRawByte();
+		final int count = readRawInt();
 
-		int i = 0;
-		while (i < allBitsCount) {
-			int value = readRawInt();
+		if (count < 0) {
+			throw new RuntimeException("Bitset size is negative: " + count);
+		}
 
-			final boolean isLastPart = allBitsCount - i < Integer.SIZE;
-			final int nBits = isLastPart ? allBitsCount % Integer.SIZE : Integer.SIZE;
+		switch (encoding) {
+			case BITSET_WORDS: {
+				checkAvailable(count * 8L);
+				long[] words = new long[count];
+				for (int i = 0; i < count; ++i) {
+					words[i] = readRawLong();
+				}
+				return BitSet.valueOf(words);
+			}
+			case BITSET_INDICES: {
+				checkAvailable(count * 4L);
+				if (count == 0) {
+					return new BitSet();
+				}
 
-			for (int j = 0; j < nBits; ++j, ++i) {
-				if ((value & 1) == 1) {
-					bitset.set(i);
+				// indices are ascending so the last one tells the size, validated before allocating
+				int lastIndex = peekRawInt(_sourcePos + (count - 1) * 4);
+				if (lastIndex < 0 || lastIndex > MAX_SPARSE_BITSET_INDEX) {
+					throw new RuntimeException("Bitset index is out of range: " + lastIndex);
+				}
+				long[] words = new long[lastIndex / Long.SIZE + 1];
+				for (int i = 0; i < count; ++i) {
+					int index = readRawInt();
+					if (index < 0 || index > lastIndex) {
+						throw new RuntimeException("Bitset indices are not ascending: " + index);
+					}
+					words[index / Long.SIZE] |= 1L << index;
+				}
+				return BitSet.valueOf(words);
+			}
+			case BITSET_RUNS: {
+				checkAvailable(count * 8L);
+				BitSet bitset = new BitSet();
+				for (int i = 0; i < count; ++i) {
+					int start = readRawInt();
+					int length = readRawInt();
+					if (start < 0 || length < 0 || (long) start + length > MAX_SPARSE_BITSET_INDEX + 1L) {
+						throw new RuntimeException("Bitset range is invalid: " + start + ", " + length);
+					}
+					bitset.set(start, start + length);
 				}
-				value >>= 1;
+				return bitset;
 			}
+			default: throw new RuntimeException("Unknown bitset encoding: " + encoding);
 		}
-
-		return bitset;
 	}
 
 	public byte readRawByte() {
+		checkAvailable(1);
 		return _source[_sourcePos++];
 	}
 
 	public short readRawShort() {
+		checkAvailable(2);
 		short value = (short) (_source[_sourcePos++] & 0xFF);
 		value <<= 8;
 		value |= _source[_sourcePos++] & 0xFF;
@@ -139,11 +199,55 @@ public class NetworkDeserializer extends NetworkSerialization {
 		return value;
 	}
 
+	public char readRawChar() {
+		return (char) readRawShort();
+	}
+
+	/**
+	 * Skips bitmap of given size which can be queried with {@link #getBitmapBit(int, int)}
+	 * until source is changed.
+	 *
+	 * @return position of bitmap
+	 */
+	public int readRawBitmap(int bitsCount) {
+		final int size = (bitsCount + 7) / 8;
+		checkAvailable(size);
+
+		final int position = _sourcePos;
+		_sourcePos += size;
+		return position;
+	}
+
+	public boolean getBitmapBit(int bitmapPosition, int bitIndex) {
+		return (_source[bitmapPosition + bitIndex / 8] & (1 << (bitIndex % 8))) != 0;
+	}
+
+	/**
+	 * Reads value written by {@link NetworkSerializer#addRawValue(Object, int)}.
+	 */
+	public Object readRawValue(int valueType) {
+		switch (valueType) {
+			case TYPE_BYTE: return readRawByte();
+			case TYPE_SHORT: return readRawShort();
+			case TYPE_INT: return readRawInt();
+			case TYPE_LONG: return readRawLong();
+			case TYPE_STRING: return readRawString();
+			case TYPE_BOOLEAN: return readRawBoolean();
+			case TYPE_FLOAT: return readRawFloat();
+			case TYPE_DOUBLE: return readRawDouble();
+			case TYPE_CHAR: return readRawChar();
+			case TYPE_BITSET: return readRawBitSet();
+			case TYPE_UNKNOWN: return readSomething(true);
+			default: throw new IllegalArgumentException("Can't deserialize type: " + valueType);
+		}
+	}
+
 	public Object readSomething() {
 		return readSomething(false);
 	}
 
 	public Object readSomething(boolean allowUnknown) {
+		checkAvailable(1);
 		byte type = _source[_sourcePos];
 
 		if (type == TYPE_NULL) {
@@ -156,7 +260,7 @@ public class NetworkDeserializer extends NetworkSerialization {
 		else if (type == TYPE_SHORT) {
 			return readShort();
 		}
-		else if (type == TYPE_INT) {
+		else if (type == TYPE_INT || type == TYPE_VARINT) {
 			return readInt();
 		}
 		else if (type == TYPE_LONG) {
@@ -174,6 +278,9 @@ public class NetworkDeserializer extends NetworkSerialization {
 		else if (type == TYPE_DOUBLE) {
 			return readDouble();
 		}
+		else if (type == TYPE_CHAR) {
+			return readChar();
+		}
 		else if (type == TYPE_BITSET) {
 			return readBitSet();
 		}
@@ -186,7 +293,8 @@ public class NetworkDeserializer extends NetworkSerialization {
 		}
 	}
 
-	protected int readRawInt() {
+	public int readRawInt() {
+		checkAvailable(4);
 		int value = _source[_sourcePos++] & 0xFF;
 		value <<= 8;
 		value |= _source[_sourcePos++] & 0xFF;
@@ -198,7 +306,45 @@ public class NetworkDeserializer extends NetworkSerialization {
 		return value;
 	}
 
+	public int readRawVarInt() {
+		int value = 0;
+
+		for (int shift = 0; shift < 32; shift += 7) {
+			checkAvailable(1);
+			byte b = _source[_sourcePos++];
+			value |= (b & 0x7F) << shift;
+
+			if (b >= 0) {
+				return value;
+			}
+		}
+
+		throw new RuntimeException("Varint is longer than 5 bytes at position " + getConsumedBytesCount());
+	}
+
+	public long readRawVarLong() {
+		long value = 0;
+
+		for (int shift = 0; shift < 64; shift += 7) {
+			checkAvailable(1);
+			byte b = _source[_sourcePos++];
+			value |= (long) (b & 0x7F) << shift;
+
+			if (b >= 0) {
+				return value;
+			}
+		}
+
+		throw new RuntimeException("Varint is longer than 10 bytes at position " + getConsumedBytesCount());
+	}
+
+	public int readRawSignedVarInt() {
+		int value = readRawVarInt();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
 	protected void checkType(byte type) {
+		checkAvailable(1);
 		byte srcType = _source[_sourcePos++];
 
 		if (srcType != type) {
@@ -207,6 +353,7 @@ public class NetworkDeserializer extends NetworkSerialization {
 	}
 
 	protected boolean checkNull() {
+		checkAvailable(1);
 		if (_source[_sourcePos] == TYPE_NULL) {
 			++_sourcePos;
 			return true;
@@ -214,4 +361,17 @@ public class NetworkDeserializer extends NetworkSerialization {
 
 		return false;
 	}
+
+	private int peekRawInt(int position) {
+		return (_source[position] & 0xFF) << 24
+			| (_source[position + 1] & 0xFF) << 16
+			| (_source[position + 2] & 0xFF) << 8
+			| (_source[position + 3] & 0xFF);
+	}
+
+	protected void checkAvailable(long bytesCount) {
+		if (bytesCount < 0 || _sourcePos + bytesCount > _sourceEndPos) {
+			throw new RuntimeException("Packet is too short, expected " + bytesCount + " more bytes at position " + getConsumedBytesCount());
+		}
+	}
 }
@@ -6,6 +6,7 @@ public abstract class NetworkSerialization {
 	public final static byte TYPE_UNKNOWN = 1;
 	protected final static byte TYPE_NULL = 3;
 	protected final static byte TYPE_ARRAY = 6;
+	protected final static byte TYPE_VARINT = 7;//int written compactly, takes 1-5 bytes
 
 	public final static byte TYPE_BYTE = 10;
 	public final static byte TYPE_SHORT = 11;
@@ -15,7 +16,19 @@ public abstract class NetworkSerialization {
 	public final static byte TYPE_BOOLEAN = 15;//takes 1 byte
 	public final static byte TYPE_FLOAT = 16;
 	public final static byte TYPE_DOUBLE = 17;
-	public final static byte TYPE_BITSET = 20;//takes minimum 4 bytes
+	public final static byte TYPE_CHAR = 18;//takes 2 bytes
+	public final static byte TYPE_BITSET = 20;//takes minimum 5 bytes
+
+	// bitset encodings, the smallest one is chosen for every bitset
+	protected final static byte BITSET_WORDS = 0;
+	protected final static byte BITSET_INDICES = 1;
+	protected final static byte BITSET_RUNS = 2;
+
+	/**
+	 * Bitsets reaching beyond this bit are always sent as words, so size of a bitset
+	 * read from indices or ranges is limited, not only by the length of packet.
+	 */
+	protected final static int MAX_SPARSE_BITSET_INDEX = (1 << 24) - 1;
 
 
 	public static NetworkSerializer createSerializer() {
@@ -30,33 +43,40 @@ public abstract class NetworkSerialization {
 		return new NetworkDeserializer();
 	}
 
+	/**
+	 * Wrapper types are the same network types as their primitives. Values of
+	 * {@link #TYPE_UNKNOWN} are still sent, but with type tag, as much as it's known about them.
+	 */
 	public static int determineNetworkType(Class<?> type) {
 		int netType = TYPE_UNKNOWN;
 
-		if (type.equals(byte.class)) {
+		if (type.equals(byte.class) || type.equals(Byte.class)) {
 			netType = TYPE_BYTE;
 		}
-		else if (type.equals(short.class)) {
+		else if (type.equals(short.class) || type.equals(Short.class)) {
 			netType = TYPE_SHORT;
 		}
-		else if (type.equals(int.class)) {
+		else if (type.equals(int.class) || type.equals(Integer.class)) {
 			netType = TYPE_INT;
 		}
-		else if (type.equals(long.class)) {
+		else if (type.equals(long.class) || type.equals(Long.class)) {
 			netType = TYPE_LONG;
 		}
 		else if (type.equals(String.class)) {
 			netType = TYPE_STRING;
 		}
-		else if (type.equals(boolean.class)) {
+		else if (type.equals(boolean.class) || type.equals(Boolean.class)) {
 			netType = TYPE_BOOLEAN;
 		}
-		else if (type.equals(float.class)) {
+		else if (type.equals(float.class) || type.equals(Float.class)) {
 			netType = TYPE_FLOAT;
 		}
-		else if (type.equals(float.class)) {
+		else if (type.equals(double.class) || type.equals(Double.class)) {
 			netType = TYPE_DOUBLE;
 		}
+		else if (type.equals(char.class) || type.equals(Character.class)) {
+			netType = TYPE_CHAR;
+		}
 		else if (type.equals(BitSet.class)) {
 			netType = TYPE_BITSET;
 		}
@@ -74,6 +94,7 @@ public abstract class NetworkSerialization {
 			case TYPE_BOOLEAN: return Boolean.valueOf(value);
 			case TYPE_FLOAT: return Float.valueOf(value);
 			case TYPE_DOUBLE: return Double.valueOf(value);
+			case TYPE_CHAR: return value.length() == 1 ? Character.valueOf(value.charAt(0)) : null;
 			case TYPE_BITSET: return new BitSet(Integer.valueOf(value));
 			case TYPE_ARRAY: throw new UnsupportedOperationException("arrays are not supported (yet?)");
 			default: return null;
@@ -2,8 +2,24 @@ package net.namekdev.entity_tracker.utils.serialization;
 
 import java.util.BitSet;
 
+import net.namekdev.entity_tracker.utils.ByteArrayPool;
+
+/**
+ * Serializes values into byte buffer which grows when needed.
+ * Own buffers are taken from {@link ByteArrayPool#shared} and kept between packets,
+ * so growing happens only for the biggest packet.
+ */
 public class NetworkSerializer extends NetworkSerialization {
+	public static final int DEFAULT_BUFFER_SIZE = 10240;
+
+	/**
+	 * When set, tagged ints are written as zigzag varints. Reader recognizes them
+	 * by the type tag so it doesn't have to know the setting.
+	 */
+	public boolean compactInts = true;
+
 	private byte[] _ourBuffer;
+	private boolean _isOurBufferPooled;
 	private byte[] _buffer;
 	private int _pos;
 
@@ -11,7 +27,6 @@ public class NetworkSerializer extends NetworkSerialization {
 
 
 	public NetworkSerializer() {
-		this(new byte[10240]);
 	}
 
 	public NetworkSerializer(byte[] buffer) {
@@ -19,6 +34,11 @@ public class NetworkSerializer extends NetworkSerialization {
 	}
 
 	public NetworkSerializer reset() {
+		if (_ourBuffer == null) {
+			_ourBuffer = ByteArrayPool.shared.obtain(DEFAULT_BUFFER_SIZE);
+			_isOurBufferPooled = true;
+		}
+
 		return reset(_ourBuffer);
 	}
 
@@ -29,10 +49,49 @@ public class NetworkSerializer extends NetworkSerialization {
 		return this;
 	}
 
+	/**
+	 * Gives own buffer back to pool. Serializer is still usable afterwards.
+	 */
+	public void release() {
+		if (_isOurBufferPooled) {
+			ByteArrayPool.shared.free(_ourBuffer);
+		}
+		if (_buffer == _ourBuffer) {
+			_buffer = null;
+		}
+		_ourBuffer = null;
+		_isOurBufferPooled = false;
+	}
+
+	/**
+	 * Makes sure that given number of bytes can be written.
+	 * Current buffer content is moved into bigger buffer which becomes our own.
+	 */
+	protected void ensureCapacity(int bytesCount) {
+		final int minSize = _pos + bytesCount;
+
+		if (minSize > _buffer.length) {
+			if (minSize < 0) {
+				throw new IllegalStateException("Serialized data is too big.");
+			}
+
+			byte[] newBuffer = ByteArrayPool.shared.obtain(Math.max(minSize, _buffer.length * 2));
+			System.arraycopy(_buffer, 0, newBuffer, 0, _pos);
+
+			if (_isOurBufferPooled) {
+				ByteArrayPool.shared.free(_ourBuffer);
+			}
+
+			_buffer = _ourBuffer = newBuffer;
+			_isOurBufferPooled = true;
+		}
+	}
+
 	public NetworkSerializer beginArray(byte elementType, int length) {
+		ensureCapacity(7);
 		_buffer[_pos++] = TYPE_ARRAY;
 		_buffer[_pos++] = elementType;
-		addRawInt(length);
+		putVarInt(length);
 
 		return this;
 	}
@@ -41,56 +100,130 @@ public class NetworkSerializer extends NetworkSerialization {
 		return beginArray(TYPE_UNKNOWN, length);
 	}
 
+	/**
+	 * Returns number of bytes written since last reset.
+	 */
+	public int getPosition() {
+		return _pos;
+	}
+
+	public NetworkSerializer addRawBytes(byte[] bytes, int offset, int length) {
+		ensureCapacity(length);
+		System.arraycopy(bytes, offset, _buffer, _pos, length);
+		_pos += length;
+		return this;
+	}
+
+	/**
+	 * Gives direct access to the buffer which may change when it grows.
+	 */
+	public byte[] getBuffer() {
+		return _buffer;
+	}
+
 	public NetworkSerializer addByte(byte value) {
+		ensureCapacity(2);
 		_buffer[_pos++] = TYPE_BYTE;
 		_buffer[_pos++] = value;
 		return this;
 	}
 
 	public NetworkSerializer addRawByte(byte value) {
+		ensureCapacity(1);
 		_buffer[_pos++] = value;
 		return this;
 	}
 
 	public NetworkSerializer addShort(short value) {
+		ensureCapacity(3);
 		_buffer[_pos++] = TYPE_SHORT;
-		addRawShort(value);
+		putShort(value);
 		return this;
 	}
 
-	protected void addRawShort(short value) {
-		_buffer[_pos++] = (byte) ((value >> 8) & 0xFF);
-		_buffer[_pos++] = (byte) (value & 0xFF);
+	public NetworkSerializer addRawShort(short value) {
+		ensureCapacity(2);
+		putShort(value);
+		return this;
+	}
+
+	public NetworkSerializer addChar(char value) {
+		ensureCapacity(3);
+		_buffer[_pos++] = TYPE_CHAR;
+		putShort((short) value);
+		return this;
+	}
+
+	public NetworkSerializer addRawChar(char value) {
+		ensureCapacity(2);
+		putShort((short) value);
+		return this;
 	}
 
 	public NetworkSerializer addInt(int value) {
+		if (compactInts) {
+			ensureCapacity(6);
+			_buffer[_pos++] = TYPE_VARINT;
+			putVarInt(zigZag(value));
+			return this;
+		}
+
+		ensureCapacity(5);
 		_buffer[_pos++] = TYPE_INT;
-		addRawInt(value);
+		putInt(value);
 		return this;
 	}
 
-	protected void addRawInt(int value) {
-		_buffer[_pos++] = (byte) ((value >> 24) & 0xFF);
-		_buffer[_pos++] = (byte) ((value >> 16) & 0xFF);
-		_buffer[_pos++] = (byte) ((value >> 8) & 0xFF);
-		_buffer[_pos++] = (byte) (value & 0xFF);
+	public NetworkSerializer addRawInt(int value) {
+		ensureCapacity(4);
+		putInt(value);
+		return this;
+	}
+
+	/**
+	 * Writes LEB128 varint, 7 bits per byte. Meant for ids, indices and counts,
+	 * negative values always take 5 bytes.
+	 */
+	public NetworkSerializer addRawVarInt(int value) {
+		ensureCapacity(5);
+		putVarInt(value);
+		return this;
+	}
+
+	/**
+	 * Writes varint of zigzag encoded value so small negative values stay short,
+	 * e.g. differences between ids.
+	 */
+	public NetworkSerializer addRawSignedVarInt(int value) {
+		ensureCapacity(5);
+		putVarInt(zigZag(value));
+		return this;
+	}
+
+	/**
+	 * Writes non-negative long as varint, e.g. durations which are mostly small.
+	 */
+	public NetworkSerializer addRawVarLong(long value) {
+		ensureCapacity(10);
+		while ((value & ~0x7FL) != 0) {
+			_buffer[_pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		_buffer[_pos++] = (byte) value;
+		return this;
 	}
 
 	public NetworkSerializer addLong(long value) {
+		ensureCapacity(9);
 		_buffer[_pos++] = TYPE_LONG;
-		addRawLong(value);
+		putLong(value);
 		return this;
 	}
 
-	protected void addRawLong(long value) {
-		_buffer[_pos++] = (byte) ((value >> 56) & 0xFF);
-		_buffer[_pos++] = (byte) ((value >> 48) & 0xFF);
-		_buffer[_pos++] = (byte) ((value >> 40) & 0xFF);
-		_buffer[_pos++] = (byte) ((value >> 32) & 0xFF);
-		_buffer[_pos++] = (byte) ((value >> 24) & 0xFF);
-		_buffer[_pos++] = (byte) ((value >> 16) & 0xFF);
-		_buffer[_pos++] = (byte) ((value >> 8) & 0xFF);
-		_buffer[_pos++] = (byte) (value & 0xFF);
+	public NetworkSerializer addRawLong(long value) {
+		ensureCapacity(8);
+		putLong(value);
+		return this;
 	}
 
 	public NetworkSerializer addString(String value) {
@@ -98,10 +231,18 @@ public class NetworkSerializer extends NetworkSerialization {
 			return this;
 		}
 
+		ensureCapacity(1);
 		_buffer[_pos++] = TYPE_STRING;
+		return addRawString(value);
+	}
 
+	/**
+	 * Writes string which can't be {@code null}.
+	 */
+	public NetworkSerializer addRawString(String value) {
 		int n = value.length();
-		addRawInt(n);
+		ensureCapacity(5 + n);
+		putVarInt(n);
 
 		for (int i = 0; i < n; ++i) {
 			_buffer[_pos++] = (byte) (value.charAt(i) & 0xFF);
@@ -111,27 +252,37 @@ public class NetworkSerializer extends NetworkSerialization {
 	}
 
 	public NetworkSerializer addBoolean(boolean value) {
+		ensureCapacity(2);
 		_buffer[_pos++] = TYPE_BOOLEAN;
+		_buffer[_pos++] = (byte) (value ? 1 : 0);
+		return this;
+	}
+
+	public NetworkSerializer addRawBoolean(boolean value) {
 		return addRawByte((byte) (value ? 1 : 0));
 	}
 
 	public NetworkSerializer addFloat(float value) {
+		ensureCapacity(1);
 		_buffer[_pos++] = TYPE_FLOAT;
 		return addRawFloat(value);
 	}
 
 	public NetworkSerializer addRawFloat(float value) {
-		addRawInt(Float.floatToIntBits(value));
+		ensureCapacity(4);
+		putInt(Float.floatToIntBits(value));
 		return this;
 	}
 
 	public NetworkSerializer addDouble(double value) {
+		ensureCapacity(1);
 		_buffer[_pos++] = TYPE_DOUBLE;
 		return addRawDouble(value);
 	}
 
 	public NetworkSerializer addRawDouble(double value) {
-		addRawLong(Double.doubleToLongBits(value));
+		ensureCapacity(8);
+		putLong(Double.doubleToLongBits(value));
 		return this;
 	}
 
@@ -140,30 +291,156 @@ public class NetworkSerializer extends NetworkSerialization {
 			return this;
 		}
 
+		ensureCapacity(1);
 		_buffer[_pos++] = TYPE_BITSET;
+		return addRawBitSet(bitset);
+	}
+
+	/**
+	 * Writes bitset which can't be {@code null}. Depending on density it's written
+	 * as whole words, indices of set bits or ranges of set bits, whichever is smaller.
+	 * Bitsets reaching beyond {@link #MAX_SPARSE_BITSET_INDEX} are always written as words.
+	 */
+	public NetworkSerializer addRawBitSet(BitSet bitset) {
+		final long[] words = bitset.toLongArray();
+		final int wordsCount = words.length;
+
+		int setBitsCount = 0, runsCount = 0;
+		long previousWord = 0;
+		for (int i = 0; i < wordsCount; ++i) {
+			long word = words[i];
+			setBitsCount += Long.bitCount(word);
+
+			// bits which are set while previous bit is clear
+			runsCount += Long.bitCount(word & ~(word << 1 | previousWord >>> 63));
+			previousWord = word;
+		}
+
+		final int wordsSize = wordsCount * 8;
+		final int indicesSize = setBitsCount * 4;
+		final int runsSize = runsCount * 8;
 
-		int bitsCount = bitset.length();
-		addRawShort((short) bitsCount);
+		final boolean isSparseAllowed = bitset.length() <= MAX_SPARSE_BITSET_INDEX + 1;
 
-		int i = 0, value;
-		while (i < bitsCount) {
-			value = 0;
-			for (int j = 0; j < Integer.SIZE && j < bitsCount; ++j, ++i) {
-				boolean bit = bitset.get(i);
+		if (!isSparseAllowed || wordsSize <= indicesSize && wordsSize <= runsSize) {
+			ensureCapacity(5 + wordsSize);
+			_buffer[_pos++] = BITSET_WORDS;
+			putInt(wordsCount);
 
-				if (bit) {
-					value |= 1 << j;
+			for (int i = 0; i < wordsCount; ++i) {
+				putLong(words[i]);
+			}
+		}
+		else if (indicesSize <= runsSize) {
+			ensureCapacity(5 + indicesSize);
+			_buffer[_pos++] = BITSET_INDICES;
+			putInt(setBitsCount);
+
+			for (int i = 0; i < wordsCount; ++i) {
+				for (long word = words[i]; word != 0; word &= word - 1) {
+					putInt(i * Long.SIZE + Long.numberOfTrailingZeros(word));
 				}
 			}
-
-			addRawInt(value);
+		}
+		else {
+			ensureCapacity(5 + runsSize);
+			_buffer[_pos++] = BITSET_RUNS;
+			putInt(runsCount);
+
+			for (int start = bitset.nextSetBit(0); start >= 0; ) {
+				int end = bitset.nextClearBit(start);
+				putInt(start);
+				putInt(end - start);
+				start = bitset.nextSetBit(end);
+			}
 		}
 
 		return this;
 	}
 
+	/**
+	 * Reserves zeroed bitmap for given number of bits which are set later
+	 * with {@link #setBitmapBit(int, int)}.
+	 *
+	 * @return position of bitmap
+	 */
+	public int addRawBitmap(int bitsCount) {
+		final int size = (bitsCount + 7) / 8;
+		ensureCapacity(size);
+
+		final int position = _pos;
+		for (int i = 0; i < size; ++i) {
+			_buffer[_pos++] = 0;
+		}
+
+		return position;
+	}
+
+	public void setBitmapBit(int bitmapPosition, int bitIndex) {
+		_buffer[bitmapPosition + bitIndex / 8] |= 1 << (bitIndex % 8);
+	}
+
+	/**
+	 * Writes value without type tag, as given network type. Value of unknown
+	 * network type is written with a tag, as {@link #addSomething(Object, boolean)} does.
+	 *
+	 * @return {@code false} if value of such type can't be written, then nothing is written
+	 */
+	public boolean addRawValue(Object value, int valueType) {
+		switch (valueType) {
+			case TYPE_BYTE: addRawByte((Byte) value); return true;
+			case TYPE_SHORT: addRawShort((Short) value); return true;
+			case TYPE_INT: addRawInt((Integer) value); return true;
+			case TYPE_LONG: addRawLong((Long) value); return true;
+			case TYPE_STRING: addRawString((String) value); return true;
+			case TYPE_BOOLEAN: addRawBoolean((Boolean) value); return true;
+			case TYPE_FLOAT: addRawFloat((Float) value); return true;
+			case TYPE_DOUBLE: addRawDouble((Double) value); return true;
+			case TYPE_CHAR: addRawChar((Character) value); return true;
+			case TYPE_BITSET: addRawBitSet((BitSet) value); return true;
+			case TYPE_UNKNOWN: addSomething(value, true); return true;
+			default: return false;
+		}
+	}
+
+	private void putShort(short value) {
+		_buffer[_pos++] = (byte) ((value >> 8) & 0xFF);
+		_buffer[_pos++] = (byte) (value & 0xFF);
+	}
+
+	private void putInt(int value) {
+		_buffer[_pos++] = (byte) ((value >> 24) & 0xFF);
+		_buffer[_pos++] = (byte) ((value >> 16) & 0xFF);
+		_buffer[_pos++] = (byte) ((value >> 8) & 0xFF);
+		_buffer[_pos++] = (byte) (value & 0xFF);
+	}
+
+	private void putVarInt(int value) {
+		while ((value & ~0x7F) != 0) {
+			_buffer[_pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		_buffer[_pos++] = (byte) value;
+	}
+
+	private static int zigZag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private void putLong(long value) {
+		_buffer[_pos++] = (byte) ((value >> 56) & 0xFF);
+		_buffer[_pos++] = (byte) ((value >> 48) & 0xFF);
+		_buffer[_pos++] = (byte) ((value >> 40) & 0xFF);
+		_buffer[_pos++] = (byte) ((value >> 32) & 0xFF);
+		_buffer[_pos++] = (byte) ((value >> 24) & 0xFF);
+		_buffer[_pos++] = (byte) ((value >> 16) & 0xFF);
+		_buffer[_pos++] = (byte) ((value >> 8) & 0xFF);
+		_buffer[_pos++] = (byte) (value & 0xFF);
+	}
+
 	protected boolean tryAddNullable(Object data) {
 		if (data == null) {
+			ensureCapacity(1);
 			_buffer[_pos++] = TYPE_NULL;
 			return true;
 		}
@@ -203,10 +480,14 @@ public class NetworkSerializer extends NetworkSerialization {
 		else if (object instanceof Double) {
 			addDouble(((Double) object).doubleValue());
 		}
+		else if (object instanceof Character) {
+			addChar(((Character) object).charValue());
+		}
 		else if (object instanceof BitSet) {
 			addBitSet(((BitSet) object));
 		}
 		else if (allowUnknown) {
+			ensureCapacity(1);
 			_buffer[_pos++] = TYPE_UNKNOWN;
 		}
 		else {
@@ -0,0 +1,148 @@
+package net.namekdev.entity_tracker;
+
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+
+import net.namekdev.entity_tracker.connectors.DummyWorldUpdateListener;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.artemis.Component;
+import com.artemis.Entity;
+import com.artemis.InvocationStrategy;
+import com.artemis.World;
+import com.artemis.WorldConfiguration;
+import com.artemis.utils.Bag;
+import com.artemis.utils.IntBag;
+
+public class EntityTrackerBatchingTest {
+	World world;
+	EntityTracker tracker;
+	RecordingListener listener;
+
+
+	@Before
+	public void setup() {
+		listener = new RecordingListener();
+		tracker = new EntityTracker(listener, true);
+		world = new World(new WorldConfiguration().setManager(tracker));
+		world.setInvocationStrategy(new EntityTrackerInvocationStrategy(tracker));
+	}
+
+	@Test
+	public void added_entities_are_sent_once_per_tick() {
+		for (int i = 0; i < 3; ++i) {
+			world.createEntity().edit().create(Position.class);
+		}
+		world.process();
+
+		assertEquals(0, listener.singleEvents);
+		assertEquals(1, listener.bulkAddedCalls);
+		assertEquals(3, listener.addedIds.size());
+	}
+
+	@Test
+	public void composition_is_sent_once_for_entities_sharing_it() {
+		for (int i = 0; i < 3; ++i) {
+			world.createEntity().edit().create(Position.class);
+		}
+		Entity moving = world.createEntity();
+		moving.edit().create(Position.class);
+		moving.edit().create(Velocity.class);
+		world.process();
+
+		assertEquals(2, listener.compositionsCount);
+		int compositionId = listener.addedCompositionIds.get(0);
+		assertEquals(compositionId, listener.addedCompositionIds.get(1));
+		assertEquals(compositionId, listener.addedCompositionIds.get(2));
+		assertNotEquals(compositionId, listener.addedCompositionIds.get(3));
+		assertEquals(1, listener.compositions.get(compositionId).cardinality());
+		assertEquals(2, listener.compositions.get(listener.addedCompositionIds.get(3)).cardinality());
+	}
+
+	@Test
+	public void entity_added_and_deleted_within_tick_is_not_sent() {
+		Entity existing = world.createEntity();
+		existing.edit().create(Position.class);
+		world.process();
+		listener.addedIds.clear();
+
+		Entity temporary = world.createEntity();
+		temporary.edit().create(Position.class);
+		temporary.deleteFromWorld();
+		existing.deleteFromWorld();
+		world.process();
+
+		assertEquals(0, listener.addedIds.size());
+		assertTrue(listener.deletedIds.contains(existing.id));
+	}
+
+	@Test
+	public void disabling_batching_flushes_pending_events() {
+		world.setInvocationStrategy(new InvocationStrategy());
+		world.createEntity().edit().create(Position.class);
+		world.process();
+		assertEquals(0, listener.addedIds.size());
+
+		tracker.setEntityEventsBatching(false);
+
+		assertEquals(0, listener.singleEvents);
+		assertEquals(1, listener.addedIds.size());
+	}
+
+
+	public static class Position extends Component {
+		public float x, y;
+	}
+
+	public static class Velocity extends Component {
+		public float x, y;
+	}
+
+	static class RecordingListener extends DummyWorldUpdateListener {
+		int singleEvents, bulkAddedCalls, compositionsCount;
+		final IntBag addedIds = new IntBag();
+		final IntBag addedCompositionIds = new IntBag();
+		final Bag<BitSet> compositions = new Bag<BitSet>();
+		final IntBag deletedIds = new IntBag();
+
+		@Override
+		public int getListeningBitset() {
+			return ENTITY_ADDED | ENTITY_DELETED;
+		}
+
+		@Override
+		public void addedComposition(int compositionId, BitSet components) {
+			compositions.set(compositionId, components);
+			++compositionsCount;
+		}
+
+		@Override
+		public void addedEntity(int entityId, int compositionId) {
+			++singleEvents;
+		}
+
+		@Override
+		public void deletedEntity(int entityId) {
+			++singleEvents;
+		}
+
+		@Override
+		public void addedEntities(IntBag entityIds, IntBag compositionIds) {
+			++bulkAddedCalls;
+			for (int i = 0, n = entityIds.size(); i < n; ++i) {
+				addedIds.add(entityIds.get(i));
+				addedCompositionIds.add(compositionIds.get(i));
+			}
+		}
+
+		@Override
+		public void deletedEntities(IntBag entityIds) {
+			for (int i = 0, n = entityIds.size(); i < n; ++i) {
+				deletedIds.add(entityIds.get(i));
+			}
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package net.namekdev.entity_tracker;
+
+import static org.junit.Assert.*;
+
+import net.namekdev.entity_tracker.EntityTrackerBatchingTest.Position;
+import net.namekdev.entity_tracker.EntityTrackerBatchingTest.RecordingListener;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.artemis.Entity;
+import com.artemis.World;
+import com.artemis.WorldConfiguration;
+
+public class EntityTrackerIdleTest {
+	World world;
+	EntityTracker tracker;
+	SwitchableListener listener;
+
+
+	@Before
+	public void setup() {
+		listener = new SwitchableListener();
+		tracker = new EntityTracker(listener, true);
+		world = new World(new WorldConfiguration().setManager(tracker));
+		world.setInvocationStrategy(new EntityTrackerInvocationStrategy(tracker));
+	}
+
+	@Test
+	public void existing_entities_are_reported_when_listening_starts() {
+		Entity first = world.createEntity();
+		first.edit().create(Position.class);
+		Entity second = world.createEntity();
+		second.edit().create(Position.class);
+		world.process();
+		second.deleteFromWorld();
+		world.process();
+
+		assertEquals(0, listener.compositionsCount);
+		assertEquals(0, listener.addedIds.size());
+		assertEquals(0, listener.deletedIds.size());
+
+		listener.isListening = true;
+		world.process();
+
+		assertEquals(1, listener.compositionsCount);
+		assertEquals(1, listener.addedIds.size());
+		assertEquals(first.id, listener.addedIds.get(0));
+		assertEquals(0, listener.deletedIds.size());
+	}
+
+	@Test
+	public void existing_entities_are_deleted_when_listening_stops() {
+		listener.isListening = true;
+		world.process();
+
+		Entity entity = world.createEntity();
+		entity.edit().create(Position.class);
+		world.process();
+		assertEquals(1, listener.addedIds.size());
+
+		listener.isListening = false;
+		world.process();
+		assertEquals(1, listener.deletedIds.size());
+		assertEquals(entity.id, listener.deletedIds.get(0));
+
+		world.createEntity().edit().create(Position.class);
+		entity.deleteFromWorld();
+		world.process();
+		assertEquals(1, listener.addedIds.size());
+		assertEquals(1, listener.deletedIds.size());
+	}
+
+
+	@Test
+	public void listening_starts_without_strategy_set_by_user() {
+		SwitchableListener plainListener = new SwitchableListener();
+		EntityTracker plainTracker = new EntityTracker(plainListener);
+		World plainWorld = new World(new WorldConfiguration().setManager(plainTracker));
+
+		plainWorld.createEntity().edit().create(Position.class);
+		plainWorld.process();
+		assertEquals(0, plainListener.singleEvents);
+
+		plainListener.isListening = true;
+		plainWorld.process();
+		assertEquals(1, plainListener.compositionsCount);
+		assertEquals(1, plainListener.singleEvents);
+	}
+
+	static class SwitchableListener extends RecordingListener {
+		boolean isListening;
+
+		@Override
+		public int getListeningBitset() {
+			return isListening ? super.getListeningBitset() : 0;
+		}
+	}
+}
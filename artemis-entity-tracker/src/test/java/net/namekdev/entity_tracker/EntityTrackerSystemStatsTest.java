@@ -0,0 +1,182 @@
+package net.namekdev.entity_tracker;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.namekdev.entity_tracker.EntityTrackerBatchingTest.Position;
+import net.namekdev.entity_tracker.connectors.DummyWorldUpdateListener;
+import net.namekdev.entity_tracker.connectors.WorldUpdateListener;
+import net.namekdev.entity_tracker.model.EntitySystemStats;
+import net.namekdev.entity_tracker.model.SystemTimingStats;
+import net.namekdev.entity_tracker.utils.ThreadAllocationCounter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.artemis.Aspect;
+import com.artemis.BaseSystem;
+import com.artemis.Entity;
+import com.artemis.World;
+import com.artemis.WorldConfiguration;
+import com.artemis.systems.EntityProcessingSystem;
+import com.artemis.utils.Bag;
+
+public class EntityTrackerSystemStatsTest {
+	World world;
+	EntityTracker tracker;
+	StatsRecorder listener;
+
+
+	@Before
+	public void setup() {
+		listener = new StatsRecorder();
+		tracker = new EntityTracker(listener, true);
+		world = new World(new WorldConfiguration()
+			.setSystem(new PositionSystem())
+			.setManager(tracker));
+		world.setInvocationStrategy(new EntityTrackerInvocationStrategy(tracker));
+		world.process();
+		listener.reports.clear();
+	}
+
+	@Test
+	public void changes_within_tick_are_reported_once() {
+		for (int i = 0; i < 5; ++i) {
+			world.createEntity().edit().create(Position.class);
+			world.process();
+			listener.reports.clear();
+		}
+
+		for (int i = 0; i < 3; ++i) {
+			world.createEntity().edit().create(Position.class);
+		}
+		world.process();
+
+		assertEquals(1, listener.reports.size());
+		assertEquals(8, listener.reports.get(0).entitiesCount);
+		assertEquals(5, listener.reports.get(0).minEntitiesCount);
+		assertEquals(8, listener.reports.get(0).maxEntitiesCount);
+
+		world.process();
+		assertEquals(1, listener.reports.size());
+	}
+
+	@Test
+	public void stats_are_windowed_by_interval() {
+		tracker.systemStatsTickInterval = 4;
+
+		Entity temporary = world.createEntity();
+		temporary.edit().create(Position.class);
+		world.process();
+		world.process();
+		world.createEntity().edit().create(Position.class);
+		temporary.deleteFromWorld();
+		world.process();
+		world.process();
+
+		// counts at tick ends were 1, 1, 1, 1 while it went up to 2 in between
+		assertEquals(1, listener.reports.size());
+		EntitySystemStats stats = listener.reports.get(0);
+		assertEquals(1, stats.entitiesCount);
+		assertEquals(0, stats.minEntitiesCount);
+		assertEquals(2, stats.maxEntitiesCount);
+		assertEquals(1f, stats.averageEntitiesCount, 0.001f);
+	}
+
+	@Test
+	public void timings_are_reported_only_when_listened() {
+		tracker.systemTimingsTickInterval = 3;
+
+		for (int i = 0; i < 6; ++i) {
+			world.process();
+		}
+		assertEquals(0, listener.timings.size());
+		assertFalse(tracker.isProfilingSystems());
+
+		listener.listeningBitset |= WorldUpdateListener.SYSTEM_TIMINGS;
+		for (int i = 0; i < 7; ++i) {
+			world.process();
+		}
+
+		// listening was noticed at the end of the first tick
+		assertEquals(2, listener.timings.size());
+		SystemTimingStats timings = listener.timings.get(1);
+		assertEquals(0, timings.systemIndex);
+		assertEquals(3, timings.samplesCount);
+		assertTrue(timings.p50 <= timings.p99);
+		assertTrue(timings.p99 <= timings.max);
+		assertEquals(-1, timings.allocatedBytes);
+	}
+
+	@Test
+	public void allocations_are_averaged_per_processing() {
+		assumeNotNull(ThreadAllocationCounter.create());
+
+		listener = new StatsRecorder();
+		listener.listeningBitset = WorldUpdateListener.SYSTEM_ALLOCATIONS;
+		tracker = new EntityTracker(listener);
+		tracker.systemTimingsTickInterval = 4;
+		world = new World(new WorldConfiguration()
+			.setSystem(new PositionSystem())
+			.setSystem(new GarbageSystem())
+			.setManager(tracker));
+		world.setInvocationStrategy(new EntityTrackerInvocationStrategy(tracker));
+
+		for (int i = 0; i < 5; ++i) {
+			world.process();
+		}
+
+		assertEquals(2, listener.timings.size());
+		assertEquals(0, listener.timings.get(0).allocatedBytes);
+		assertTrue(listener.timings.get(1).allocatedBytes >= 10000);
+		assertTrue(listener.timings.get(1).allocatedBytes < 11000);
+	}
+
+
+	static class PositionSystem extends EntityProcessingSystem {
+		public PositionSystem() {
+			super(Aspect.all(Position.class));
+		}
+
+		@Override
+		protected void process(Entity e) {
+		}
+	}
+
+	static class GarbageSystem extends BaseSystem {
+		byte[] garbage;
+
+		@Override
+		protected void processSystem() {
+			garbage = new byte[10000];
+		}
+	}
+
+	static class StatsRecorder extends DummyWorldUpdateListener {
+		final List<EntitySystemStats> reports = new ArrayList<EntitySystemStats>();
+		final List<SystemTimingStats> timings = new ArrayList<SystemTimingStats>();
+		int listeningBitset = ENTITY_ADDED | ENTITY_DELETED | ENTITY_SYSTEM_STATS;
+
+		@Override
+		public int getListeningBitset() {
+			return listeningBitset;
+		}
+
+		@Override
+		public void updatedSystemsTimings(Bag<SystemTimingStats> systemsTimings) {
+			for (int i = 0, n = systemsTimings.size(); i < n; ++i) {
+				timings.add(new SystemTimingStats().set(systemsTimings.get(i)));
+			}
+		}
+
+		@Override
+		public void updatedEntitySystems(Bag<EntitySystemStats> systemsStats) {
+			for (int i = 0, n = systemsStats.size(); i < n; ++i) {
+				reports.add(new EntitySystemStats().set(systemsStats.get(i)));
+			}
+		}
+	}
+}
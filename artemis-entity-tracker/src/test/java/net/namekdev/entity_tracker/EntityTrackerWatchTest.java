@@ -0,0 +1,149 @@
+package net.namekdev.entity_tracker;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.namekdev.entity_tracker.connectors.DummyWorldUpdateListener;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.artemis.Component;
+import com.artemis.Entity;
+import com.artemis.World;
+import com.artemis.WorldConfiguration;
+
+public class EntityTrackerWatchTest {
+	World world;
+	EntityTracker tracker;
+	StateRecorder listener;
+	Entity entity;
+	Position position;
+	int positionIndex;
+
+
+	@Before
+	public void setup() {
+		listener = new StateRecorder();
+		tracker = new EntityTracker(listener, true);
+		world = new World(new WorldConfiguration().setManager(tracker));
+		world.setInvocationStrategy(new EntityTrackerInvocationStrategy(tracker));
+
+		entity = world.createEntity();
+		position = entity.edit().create(Position.class);
+		world.process();
+		positionIndex = tracker.allComponentTypesInfoByClass.get(Position.class).index;
+	}
+
+	@Test
+	public void watched_component_is_sent_only_when_changed() {
+		tracker.watchComponent(entity.id, positionIndex, 1);
+		world.process();
+		world.process();
+		assertEquals(1, listener.states.size());
+
+		position.x = 5;
+		world.process();
+		assertEquals(2, listener.states.size());
+		assertEquals(5f, listener.states.get(1)[0]);
+	}
+
+	@Test
+	public void watched_component_is_sampled_every_interval() {
+		tracker.watchComponent(entity.id, positionIndex, 3);
+
+		for (int i = 0; i < 6; ++i) {
+			position.x = i;
+			world.process();
+		}
+
+		assertEquals(2, listener.states.size());
+		assertEquals(0f, listener.states.get(0)[0]);
+		assertEquals(3f, listener.states.get(1)[0]);
+	}
+
+	@Test
+	public void watch_is_kept_until_every_watcher_unwatches() {
+		tracker.watchComponent(entity.id, positionIndex, 1);
+		tracker.watchComponent(entity.id, positionIndex, 1);
+		tracker.unwatchComponent(entity.id, positionIndex, 1);
+		world.process();
+		assertEquals(1, listener.states.size());
+
+		tracker.unwatchComponent(entity.id, positionIndex, 1);
+		position.x = 5;
+		world.process();
+		assertEquals(1, listener.states.size());
+	}
+
+	@Test
+	public void unwatching_frequent_watcher_relaxes_interval() {
+		tracker.watchComponent(entity.id, positionIndex, 3);
+		tracker.watchComponent(entity.id, positionIndex, 1);
+		world.process();
+		tracker.unwatchComponent(entity.id, positionIndex, 1);
+
+		for (int i = 1; i <= 6; ++i) {
+			position.x = i;
+			world.process();
+		}
+
+		// sampled in the first tick, then every third one
+		assertEquals(3, listener.states.size());
+		assertEquals(1f, listener.states.get(1)[0]);
+		assertEquals(4f, listener.states.get(2)[0]);
+	}
+
+	@Test
+	public void watch_is_dropped_with_entity() {
+		tracker.watchComponent(entity.id, positionIndex, 1);
+		entity.deleteFromWorld();
+		world.process();
+
+		Entity reused = world.createEntity();
+		reused.edit().create(Position.class).x = 5;
+		world.process();
+
+		assertEquals(0, listener.states.size());
+	}
+
+	@Test
+	public void requested_state_is_sent_by_world_thread() throws Exception {
+		Thread requester = new Thread() {
+			@Override
+			public void run() {
+				tracker.requestComponentState(entity.id, positionIndex);
+			}
+		};
+		requester.start();
+		requester.join();
+		assertEquals(0, listener.states.size());
+
+		world.process();
+		assertEquals(1, listener.states.size());
+		assertSame(Thread.currentThread(), listener.stateThreads.get(0));
+	}
+
+
+	public static class Position extends Component {
+		public float x, y;
+	}
+
+	static class StateRecorder extends DummyWorldUpdateListener {
+		final List<Object[]> states = new ArrayList<Object[]>();
+		final List<Thread> stateThreads = new ArrayList<Thread>();
+
+		@Override
+		public int getListeningBitset() {
+			return ENTITY_ADDED | ENTITY_DELETED;
+		}
+
+		@Override
+		public void updatedComponentState(int entityId, int componentIndex, Object[] values) {
+			states.add(values.clone());
+			stateThreads.add(Thread.currentThread());
+		}
+	}
+}
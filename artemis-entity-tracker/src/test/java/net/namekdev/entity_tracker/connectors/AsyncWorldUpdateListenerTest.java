@@ -0,0 +1,160 @@
+package net.namekdev.entity_tracker.connectors;
+
+import static org.junit.Assert.*;
+
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+
+import net.namekdev.entity_tracker.connectors.AsyncWorldUpdateListener.OverflowPolicy;
+import net.namekdev.entity_tracker.model.EntitySystemStats;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.artemis.utils.Bag;
+import com.artemis.utils.IntBag;
+
+public class AsyncWorldUpdateListenerTest {
+	RecordingListener target = new RecordingListener();
+	AsyncWorldUpdateListener listener;
+
+
+	@After
+	public void teardown() {
+		listener.stop();
+	}
+
+	@Test
+	public void blocking_keeps_every_event_in_order() throws Exception {
+		listener = new AsyncWorldUpdateListener(target, 4, OverflowPolicy.BLOCK).start();
+
+		for (int i = 0; i < 1000; ++i) {
+			listener.addedEntity(i, 0);
+		}
+		listener.addedManager("last");
+
+		target.awaitEvents(1001);
+		for (int i = 0; i < 1000; ++i) {
+			assertEquals("added " + i, target.events.get(i));
+		}
+		assertEquals("manager last", target.events.get(1000));
+		assertEquals(0, listener.getDroppedEventsCount());
+	}
+
+	@Test
+	public void overflowing_events_are_coalesced() throws Exception {
+		listener = new AsyncWorldUpdateListener(target, 2, OverflowPolicy.COALESCE);
+
+		Bag<EntitySystemStats> systemsStats = new Bag<EntitySystemStats>();
+		systemsStats.add(new EntitySystemStats(0));
+
+		for (int i = 0; i < 10; ++i) {
+			listener.addedEntity(i, 0);
+			systemsStats.get(0).set(0, i, i, i, i);
+			listener.updatedEntitySystems(systemsStats);
+		}
+		listener.deletedEntity(9);
+
+		listener.start();
+		// 2 events from the ring, then coalesced 8 additions and merged system updates
+		target.awaitEvents(4);
+
+		assertEquals("added 0", target.events.get(0));
+		assertEquals("system 0 0 0..0", target.events.get(1));
+		assertEquals("added 1..8", target.events.get(2));
+		assertEquals("system 0 9 1..9", target.events.get(3));
+		assertEquals(0, listener.getDroppedEventsCount());
+	}
+
+	@Test
+	public void overflowing_events_are_dropped() throws Exception {
+		listener = new AsyncWorldUpdateListener(target, 2, OverflowPolicy.DROP);
+
+		for (int i = 0; i < 5; ++i) {
+			listener.deletedEntity(i);
+		}
+		assertEquals(3, listener.getDroppedEventsCount());
+
+		listener.start();
+		target.awaitEvents(2);
+		assertEquals("deleted 1", target.events.get(1));
+	}
+
+
+	@Test(timeout = 5000)
+	public void bulk_end_doesnt_wait_for_full_ring() throws Exception {
+		final CountDownLatch consumerRelease = new CountDownLatch(1);
+		target = new RecordingListener() {
+			@Override
+			public void addedManager(String name) {
+				super.addedManager(name);
+				try {
+					consumerRelease.await();
+				}
+				catch (InterruptedException e) { }
+			}
+		};
+		listener = new AsyncWorldUpdateListener(target, 4, OverflowPolicy.DROP).start();
+
+		// consumer keeps the slot until it's released
+		listener.addedManager("blocking");
+		target.awaitEvents(1);
+
+		IntBag ids = new IntBag();
+		for (int i = 0; i < 10; ++i) {
+			ids.add(i);
+		}
+		listener.addedEntities(ids, ids);
+		assertEquals(8, listener.getDroppedEventsCount());
+
+		consumerRelease.countDown();
+		target.awaitEvents(2);
+		assertEquals("added 0..1", target.events.get(1));
+	}
+
+
+	static class RecordingListener extends DummyWorldUpdateListener {
+		final Vector<String> events = new Vector<String>();
+
+		void awaitEvents(int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 5000;
+			while (events.size() < count && System.currentTimeMillis() < deadline) {
+				Thread.sleep(1);
+			}
+			assertEquals(count, events.size());
+		}
+
+		@Override
+		public void addedManager(String name) {
+			events.add("manager " + name);
+		}
+
+		@Override
+		public void addedEntity(int entityId, int compositionId) {
+			events.add("added " + entityId);
+		}
+
+		@Override
+		public void addedEntities(IntBag entityIds, IntBag compositionIds) {
+			events.add("added " + entityIds.get(0) + ".." + entityIds.get(entityIds.size() - 1));
+		}
+
+		@Override
+		public void deletedEntity(int entityId) {
+			events.add("deleted " + entityId);
+		}
+
+		@Override
+		public void deletedEntities(IntBag entityIds) {
+			events.add("deleted " + entityIds.size());
+		}
+
+		@Override
+		public void updatedEntitySystems(Bag<EntitySystemStats> systemsStats) {
+			for (int i = 0, n = systemsStats.size(); i < n; ++i) {
+				EntitySystemStats stats = systemsStats.get(i);
+				events.add("system " + stats.systemIndex + " " + stats.entitiesCount + " " + stats.minEntitiesCount + ".." + stats.maxEntitiesCount);
+			}
+		}
+	}
+}
@@ -0,0 +1,491 @@
+package net.namekdev.entity_tracker.network;
+
+import static net.namekdev.entity_tracker.connectors.WorldUpdateListener.*;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.util.BitSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.namekdev.entity_tracker.EntityTracker;
+import net.namekdev.entity_tracker.EntityTrackerInvocationStrategy;
+import net.namekdev.entity_tracker.connectors.DummyWorldUpdateListener;
+import net.namekdev.entity_tracker.connectors.WorldController;
+import net.namekdev.entity_tracker.connectors.WorldUpdateInterfaceListener;
+import net.namekdev.entity_tracker.model.ComponentTypeInfo;
+import net.namekdev.entity_tracker.model.EntitySystemStats;
+import net.namekdev.entity_tracker.model.FieldInfo;
+import net.namekdev.entity_tracker.network.base.Client;
+import net.namekdev.entity_tracker.network.base.RawConnectionCommunicator;
+import net.namekdev.entity_tracker.network.base.RawConnectionOutputListener;
+import net.namekdev.entity_tracker.network.communicator.ExternalInterfaceCommunicator;
+import net.namekdev.entity_tracker.utils.FieldsAccessor;
+import net.namekdev.entity_tracker.utils.ThreadAllocationCounter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.artemis.Component;
+import com.artemis.Entity;
+import com.artemis.World;
+import com.artemis.WorldConfiguration;
+import com.artemis.utils.Bag;
+import com.artemis.utils.IntBag;
+import com.artemis.utils.reflect.ClassReflection;
+import com.artemis.utils.reflect.Field;
+
+public class EntityTrackerServerTest {
+	EntityTrackerServer server;
+	Client client;
+	EntityRecorder recorder = new EntityRecorder();
+	int port;
+
+
+	@Before
+	public void setup() throws Exception {
+		port = ServerClientTest.findFreePort();
+		server = new EntityTrackerServer(port);
+		server.snapshotChunkSize = 4000;
+		server.start();
+	}
+
+	@After
+	public void teardown() {
+		if (client != null) {
+			client.stop();
+		}
+		server.stop();
+	}
+
+	@Test
+	public void snapshot_is_sent_in_chunks_and_reconciled_with_live_events() throws Exception {
+		BitSet composition = new BitSet();
+		composition.set(0);
+		server.addedComposition(0, composition);
+
+		IntBag entityIds = new IntBag(), compositionIds = new IntBag();
+		for (int i = 0; i < 10000; ++i) {
+			entityIds.add(i);
+			compositionIds.add(0);
+		}
+		server.addedEntities(entityIds, compositionIds);
+
+		client = new Client(new ExternalInterfaceCommunicator(recorder));
+		client.connect("localhost", port).startThread();
+
+		// this thread plays the world, snapshot starts at the end of tick after joining
+		do {
+			server.tickEnded();
+		}
+		while (recorder.compositions.poll(10, TimeUnit.MILLISECONDS) == null);
+
+		BitSet allIds = new BitSet();
+		receiveAddedIds(allIds, 4000);
+		assertEquals(4000, allIds.nextClearBit(0));
+		assertNull(recorder.addedIds.poll(50, TimeUnit.MILLISECONDS));
+
+		server.deletedEntity(9000);
+		server.addedEntity(20000, 0);
+		server.tickEnded();
+		server.tickEnded();
+
+		receiveAddedIds(allIds, 10000);
+
+		assertFalse(allIds.get(9000));
+		assertTrue(allIds.get(20000));
+		assertTrue(allIds.get(9999));
+		assertEquals(9000, (int) recorder.deletedIds.poll(5, TimeUnit.SECONDS));
+		assertNull(recorder.addedIds.poll(50, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void snapshot_is_sent_in_chunks_to_world_without_strategy() throws Exception {
+		// the plain setup from README
+		World world = new World(new WorldConfiguration().setManager(new EntityTracker(server)));
+		for (int i = 0; i < 10000; ++i) {
+			world.createEntity().edit().create(Position.class);
+		}
+		world.process();
+
+		client = new Client(new ExternalInterfaceCommunicator(recorder));
+		client.connect("localhost", port).startThread();
+
+		do {
+			world.process();
+		}
+		while (recorder.compositions.poll(10, TimeUnit.MILLISECONDS) == null);
+
+		BitSet allIds = new BitSet();
+		int ticks = 0;
+		while (allIds.cardinality() < 10000) {
+			world.process();
+			++ticks;
+
+			BitSet ids;
+			while ((ids = recorder.addedIds.poll(10, TimeUnit.MILLISECONDS)) != null) {
+				allIds.or(ids);
+			}
+			assertTrue(ticks < 1000);
+		}
+
+		assertEquals(10000, allIds.nextClearBit(0));
+		assertTrue(ticks >= 2);
+	}
+
+	@Test
+	public void reconnecting_clients_dont_disturb_world_thread() throws Exception {
+		BitSet composition = new BitSet();
+		composition.set(0);
+		server.addedComposition(0, composition);
+
+		for (int i = 0; i < 20; ++i) {
+			Client reconnecting = new Client(new ExternalInterfaceCommunicator(new EntityRecorder()));
+			reconnecting.connect("localhost", port).startThread();
+
+			for (int j = 0; j < 10; ++j) {
+				server.addedEntity(j, 0);
+				server.deletedEntity(j);
+				server.tickEnded();
+			}
+			reconnecting.stop();
+		}
+
+		client = new Client(new ExternalInterfaceCommunicator(recorder));
+		client.connect("localhost", port).startThread();
+
+		do {
+			server.tickEnded();
+		}
+		while (recorder.compositions.poll(10, TimeUnit.MILLISECONDS) == null);
+
+		server.addedEntity(5, 0);
+		server.tickEnded();
+		assertTrue(recorder.addedIds.poll(5, TimeUnit.SECONDS).get(5));
+	}
+
+	@Test
+	public void client_gets_only_entities_having_listened_component_types() throws Exception {
+		BitSet position = new BitSet(), velocity = new BitSet();
+		position.set(0);
+		velocity.set(1);
+		server.addedComposition(0, position);
+		server.addedComposition(1, velocity);
+		server.addedEntity(1, 0);
+		server.addedEntity(2, 1);
+
+		ExternalInterfaceCommunicator communicator = new ExternalInterfaceCommunicator(recorder);
+		client = new Client(communicator);
+		client.connect("localhost", port).startThread();
+
+		do {
+			server.tickEnded();
+		}
+		while (recorder.compositions.poll(10, TimeUnit.MILLISECONDS) == null);
+		recorder.addedIds.poll(5, TimeUnit.SECONDS);
+
+		communicator.setListening(ENTITY_ADDED | ENTITY_DELETED, velocity);
+		Integer deletedId;
+		do {
+			server.tickEnded();
+		}
+		while ((deletedId = recorder.deletedIds.poll(10, TimeUnit.MILLISECONDS)) == null);
+		assertEquals(1, (int) deletedId);
+
+		server.addedEntity(3, 0);
+		server.addedEntity(4, 1);
+		server.deletedEntity(1);
+		server.tickEnded();
+
+		BitSet ids = recorder.addedIds.poll(5, TimeUnit.SECONDS);
+		assertEquals(1, ids.cardinality());
+		assertTrue(ids.get(4));
+		assertNull(recorder.addedIds.poll(50, TimeUnit.MILLISECONDS));
+		assertNull(recorder.deletedIds.poll(50, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void union_of_clients_declarations_is_gathered() throws Exception {
+		assertEquals(0, server.getListeningBitset());
+
+		recorder.listeningBitset = ENTITY_SYSTEM_STATS;
+		client = new Client(new ExternalInterfaceCommunicator(recorder));
+		client.connect("localhost", port).startThread();
+
+		while (server.getListeningBitset() == 0) {
+			Thread.sleep(5);
+		}
+		assertEquals(ENTITY_SYSTEM_STATS, server.getListeningBitset());
+
+		BitSet composition = new BitSet();
+		composition.set(0);
+		server.addedSystem(0, "System", composition, new BitSet(), new BitSet());
+		server.addedComposition(0, composition);
+		server.tickEnded();
+		server.addedEntity(1, 0);
+		Bag<EntitySystemStats> systemsStats = new Bag<EntitySystemStats>();
+		systemsStats.add(new EntitySystemStats().set(0, 1, 0, 1, 0.5f));
+		server.updatedEntitySystems(systemsStats);
+		server.tickEnded();
+
+		// first one is from snapshot
+		assertEquals(0, (int) recorder.systemStats.poll(5, TimeUnit.SECONDS));
+		assertEquals(1, (int) recorder.systemStats.poll(5, TimeUnit.SECONDS));
+		assertNull(recorder.addedIds.poll(50, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void component_state_is_sent_only_to_requesting_client() throws Exception {
+		final LinkedBlockingQueue<Integer> requestedIds = new LinkedBlockingQueue<Integer>();
+		server.injectWorldController(new WorldControllerAdapter() {
+			@Override
+			public void requestComponentState(int entityId, int componentIndex) {
+				requestedIds.add(entityId);
+			}
+		});
+
+		ComponentTypeInfo info = new ComponentTypeInfo(Position.class);
+		for (Field field : ClassReflection.getDeclaredFields(Position.class)) {
+			info.fields.add(FieldInfo.reflectField(field));
+		}
+		info.accessor = new FieldsAccessor(Position.class, info.fields);
+		server.addedComponentType(0, info);
+
+		BitSet composition = new BitSet();
+		composition.set(0);
+		server.addedComposition(0, composition);
+
+		EntityRecorder otherRecorder = new EntityRecorder();
+		Client other = new Client(new ExternalInterfaceCommunicator(otherRecorder));
+		other.connect("localhost", port).startThread();
+		ExternalInterfaceCommunicator requester = new ExternalInterfaceCommunicator(recorder);
+		client = new Client(requester);
+		client.connect("localhost", port).startThread();
+
+		try {
+			while (recorder.compositions.isEmpty() || otherRecorder.compositions.isEmpty()) {
+				server.tickEnded();
+				Thread.sleep(5);
+			}
+
+			requester.requestComponentState(7, 0);
+			Integer requestedId;
+			do {
+				server.tickEnded();
+			}
+			while ((requestedId = requestedIds.poll(10, TimeUnit.MILLISECONDS)) == null);
+			assertEquals(7, (int) requestedId);
+
+			Position position = new Position();
+			position.x = 5;
+			server.updatedComponentState(7, info, position);
+			server.tickEnded();
+
+			assertEquals(5f, recorder.states.poll(5, TimeUnit.SECONDS)[0]);
+			assertNull(otherRecorder.states.poll(50, TimeUnit.MILLISECONDS));
+
+			// request was answered, next states aren't expected
+			position.x = 6;
+			server.updatedComponentState(7, info, position);
+			server.tickEnded();
+			assertNull(recorder.states.poll(50, TimeUnit.MILLISECONDS));
+		}
+		finally {
+			other.stop();
+		}
+	}
+
+	@Test
+	public void entity_churn_doesnt_allocate_on_world_thread() {
+		ThreadAllocationCounter counter = ThreadAllocationCounter.create();
+		assumeNotNull(counter);
+
+		LocalServer localServer = new LocalServer();
+		EntityTracker tracker = new EntityTracker(localServer);
+		World world = new World(new WorldConfiguration().setManager(tracker));
+		world.setInvocationStrategy(new EntityTrackerInvocationStrategy(tracker));
+
+		Bag<Position> watchedPositions = new Bag<Position>();
+		for (int i = 0; i < 100; ++i) {
+			watchedPositions.add(world.createEntity().edit().create(Position.class));
+		}
+		// artemis allocates by itself when entities are created, so these are only reported again
+		Bag<Entity> churnedEntities = new Bag<Entity>();
+		for (int i = 0; i < 100; ++i) {
+			Entity e = world.createEntity();
+			e.edit().create(Position.class);
+			churnedEntities.add(e);
+		}
+		ExternalInterfaceCommunicator requester = localServer.connectLocally(recorder);
+		// tracker starts listening in the first tick, snapshot is sent in the next one
+		world.process();
+		world.process();
+
+		int positionIndex = tracker.allComponentTypesInfoByClass.get(Position.class).index;
+		for (int id = 0; id < 100; ++id) {
+			requester.watchComponent(id, positionIndex, 1);
+		}
+
+		// buffers and pooled states grow during first rounds
+		churnEntities(world, tracker, requester, watchedPositions, churnedEntities, positionIndex, 200);
+
+		long start = counter.getAllocatedBytes();
+		churnEntities(world, tracker, requester, watchedPositions, churnedEntities, positionIndex, 200);
+		long allocated = counter.getAllocatedBytesSince(start);
+
+		assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+	}
+
+	private void churnEntities(World world, EntityTracker tracker, ExternalInterfaceCommunicator requester,
+			Bag<Position> watchedPositions, Bag<Entity> churnedEntities, int positionIndex, int rounds) {
+		for (int round = 0; round < rounds; ++round) {
+			for (int i = 0, n = churnedEntities.size(); i < n; ++i) {
+				Entity e = churnedEntities.get(i);
+				tracker.added(e);
+				requester.requestComponentState(e.id, positionIndex);
+			}
+			for (int i = 0, n = watchedPositions.size(); i < n; ++i) {
+				watchedPositions.get(i).x = round;
+			}
+
+			// requests are applied at the end of one tick and served at the end of the next one
+			world.process();
+			world.process();
+
+			for (int i = 0, n = churnedEntities.size(); i < n; ++i) {
+				tracker.deleted(churnedEntities.get(i));
+			}
+		}
+	}
+
+	private void receiveAddedIds(BitSet allIds, int expectedCount) throws InterruptedException {
+		while (allIds.cardinality() < expectedCount) {
+			BitSet ids = recorder.addedIds.poll(5, TimeUnit.SECONDS);
+			assertNotNull(ids);
+			allIds.or(ids);
+		}
+	}
+
+
+	static class EntityRecorder extends DummyWorldUpdateListener implements WorldUpdateInterfaceListener {
+		final LinkedBlockingQueue<BitSet> compositions = new LinkedBlockingQueue<BitSet>();
+		final LinkedBlockingQueue<BitSet> addedIds = new LinkedBlockingQueue<BitSet>();
+		final LinkedBlockingQueue<Integer> deletedIds = new LinkedBlockingQueue<Integer>();
+		final LinkedBlockingQueue<Integer> systemStats = new LinkedBlockingQueue<Integer>();
+		final LinkedBlockingQueue<Object[]> states = new LinkedBlockingQueue<Object[]>();
+		int listeningBitset = ENTITY_ADDED | ENTITY_DELETED;
+
+		@Override
+		public int getListeningBitset() {
+			return listeningBitset;
+		}
+
+		@Override
+		public void updatedEntitySystems(Bag<EntitySystemStats> systemsStats) {
+			for (int i = 0, n = systemsStats.size(); i < n; ++i) {
+				systemStats.add(systemsStats.get(i).entitiesCount);
+			}
+		}
+
+		@Override
+		public void addedComposition(int compositionId, BitSet components) {
+			compositions.add(components);
+		}
+
+		@Override
+		public void addedEntity(int entityId, int compositionId) {
+			BitSet ids = new BitSet();
+			ids.set(entityId);
+			addedIds.add(ids);
+		}
+
+		@Override
+		public void addedEntities(IntBag entityIds, IntBag compositionIds) {
+			BitSet ids = new BitSet();
+			for (int i = 0, n = entityIds.size(); i < n; ++i) {
+				ids.set(entityIds.get(i));
+			}
+			addedIds.add(ids);
+		}
+
+		@Override
+		public void deletedEntity(int entityId) {
+			deletedIds.add(entityId);
+		}
+
+		@Override
+		public void deletedEntities(IntBag entityIds) {
+			for (int i = 0, n = entityIds.size(); i < n; ++i) {
+				deletedIds.add(entityIds.get(i));
+			}
+		}
+
+		@Override
+		public void updatedComponentState(int entityId, int componentIndex, Object[] values) {
+			states.add(values.clone());
+		}
+
+		@Override
+		public void disconnected() {
+		}
+	}
+
+	static class WorldControllerAdapter implements WorldController {
+		@Override
+		public void setSystemState(String name, boolean isOn) {
+		}
+
+		@Override
+		public void requestComponentState(int entityId, int componentIndex) {
+		}
+
+		@Override
+		public void setComponentFieldValue(int entityId, int componentIndex, int fieldIndex, Object value) {
+		}
+
+		@Override
+		public void watchComponent(int entityId, int componentIndex, int tickInterval) {
+		}
+
+		@Override
+		public void unwatchComponent(int entityId, int componentIndex, int tickInterval) {
+		}
+	}
+
+	public static class Position extends Component {
+		public float x, y;
+	}
+
+	/**
+	 * Connects client without sockets, what client sends is received by the calling thread.
+	 */
+	static class LocalServer extends EntityTrackerServer {
+		ExternalInterfaceCommunicator connectLocally(EntityRecorder recorder) {
+			final RawConnectionCommunicator communicator = clientListenerProvider.getListener("local");
+			communicator.connected(null, new RawConnectionOutputListener() {
+				@Override
+				public void send(byte[] buffer, int offset, int length) {
+				}
+
+				@Override
+				public void flush() {
+				}
+			});
+
+			ExternalInterfaceCommunicator client = new ExternalInterfaceCommunicator(recorder);
+			client.connected(null, new RawConnectionOutputListener() {
+				@Override
+				public void send(byte[] buffer, int offset, int length) {
+					communicator.bytesReceived(buffer, offset, length);
+				}
+
+				@Override
+				public void flush() {
+				}
+			});
+
+			return client;
+		}
+	}
+}
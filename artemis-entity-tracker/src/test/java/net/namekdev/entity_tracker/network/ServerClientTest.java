@@ -0,0 +1,266 @@
+package net.namekdev.entity_tracker.network;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import net.namekdev.entity_tracker.network.base.Client;
+import net.namekdev.entity_tracker.network.base.RawConnectionCommunicator;
+import net.namekdev.entity_tracker.network.base.RawConnectionCommunicatorProvider;
+import net.namekdev.entity_tracker.network.base.RawConnectionOutputListener;
+import net.namekdev.entity_tracker.network.base.Server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ServerClientTest {
+	Server server;
+	Client client;
+	int port;
+	RecordingCommunicator serverSide = new RecordingCommunicator();
+	RecordingCommunicator clientSide = new RecordingCommunicator();
+
+
+	@Before
+	public void setup() throws Exception {
+		port = findFreePort();
+
+		server = new Server(new RawConnectionCommunicatorProvider() {
+			@Override
+			public RawConnectionCommunicator getListener(String remoteName) {
+				return serverSide;
+			}
+		}, port);
+		server.start();
+
+		client = new Client(clientSide);
+		client.connect("localhost", port).startThread();
+		assertNotNull(serverSide.output.poll(5, TimeUnit.SECONDS));
+	}
+
+	@After
+	public void teardown() {
+		client.stop();
+		server.stop();
+	}
+
+	@Test
+	public void messages_are_framed_in_both_directions() throws Exception {
+		byte[] small = new byte[] { 1, 2, 3 };
+		byte[] big = new byte[100000];
+		for (int i = 0; i < big.length; ++i) {
+			big[i] = (byte) i;
+		}
+
+		client.send(small, 0, small.length);
+		client.send(big, 0, big.length);
+		client.send(small, 1, 2);
+
+		assertArrayEquals(small, serverSide.received.poll(5, TimeUnit.SECONDS));
+		assertArrayEquals(big, serverSide.received.poll(5, TimeUnit.SECONDS));
+		assertArrayEquals(new byte[] { 2, 3 }, serverSide.received.poll(5, TimeUnit.SECONDS));
+
+		RawConnectionOutputListener serverOutput = serverSide.connectedOutput;
+		serverOutput.send(big, 0, big.length);
+		serverOutput.send(small, 0, small.length);
+
+		assertArrayEquals(big, clientSide.received.poll(5, TimeUnit.SECONDS));
+		assertArrayEquals(small, clientSide.received.poll(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void buffered_messages_are_written_together_on_flush() throws Exception {
+		client.heartbeatDelay = 60000;
+		client.maxFlushDelay = 60000;
+		byte[] message = new byte[] { 1, 2, 3 };
+
+		for (int i = 0; i < 3; ++i) {
+			client.send(message, 0, message.length);
+		}
+		assertNull(serverSide.received.poll(100, TimeUnit.MILLISECONDS));
+
+		client.flush();
+		for (int i = 0; i < 3; ++i) {
+			assertArrayEquals(message, serverSide.received.poll(5, TimeUnit.SECONDS));
+		}
+		assertEquals(1, client.getFlushesCount());
+		assertEquals(3, client.getFlushedPacketsCount());
+	}
+
+	@Test
+	public void buffered_messages_are_written_after_delay() throws Exception {
+		client.heartbeatDelay = 60000;
+		client.maxFlushDelay = 50;
+		byte[] message = new byte[] { 1, 2, 3 };
+
+		client.send(message, 0, message.length);
+
+		assertArrayEquals(message, serverSide.received.poll(5, TimeUnit.SECONDS));
+		assertEquals(1, client.getFlushesCount());
+	}
+
+	@Test
+	public void output_held_during_handshake_is_compressed() throws Exception {
+		final byte[] big = new byte[100000];
+		for (int i = 0; i < big.length; ++i) {
+			big[i] = (byte) (i % 100);
+		}
+		final byte[] small = new byte[] { 1, 2, 3 };
+
+		Client compressingClient = new Client(new RecordingCommunicator() {
+			@Override
+			public void connected(SocketAddress remoteAddress, RawConnectionOutputListener output) {
+				super.connected(remoteAddress, output);
+				output.send(big, 0, big.length);
+				output.send(small, 0, small.length);
+				output.flush();
+			}
+		});
+		compressingClient.compressionEnabled = true;
+		compressingClient.connect("localhost", port).startThread();
+
+		try {
+			assertArrayEquals(big, serverSide.received.poll(5, TimeUnit.SECONDS));
+			assertArrayEquals(small, serverSide.received.poll(5, TimeUnit.SECONDS));
+			assertEquals(1, compressingClient.getCompressedFlushesCount());
+
+			// small messages are not compressed, stream goes on after them
+			compressingClient.send(small, 0, small.length);
+			compressingClient.flush();
+			compressingClient.send(big, 0, big.length);
+			compressingClient.flush();
+
+			assertArrayEquals(small, serverSide.received.poll(5, TimeUnit.SECONDS));
+			assertArrayEquals(big, serverSide.received.poll(5, TimeUnit.SECONDS));
+			assertEquals(2, compressingClient.getCompressedFlushesCount());
+			assertEquals(3, compressingClient.getFlushesCount());
+		}
+		finally {
+			compressingClient.stop();
+		}
+	}
+
+	@Test
+	public void server_notices_disconnection() throws Exception {
+		client.stop();
+		assertTrue(serverSide.disconnected.poll(5, TimeUnit.SECONDS));
+	}
+
+
+	@Test
+	public void server_disconnects_client_which_doesnt_keep_up() throws Exception {
+		server.maxOutputSize = 1024 * 1024;
+
+		// connects but never reads
+		try (Socket stalled = new Socket("localhost", port)) {
+			RawConnectionOutputListener stalledOutput = serverSide.output.poll(5, TimeUnit.SECONDS);
+			assertNotNull(stalledOutput);
+
+			byte[] big = new byte[100000];
+			for (int i = 0; i < 1000 && serverSide.disconnected.isEmpty(); ++i) {
+				stalledOutput.send(big, 0, big.length);
+				stalledOutput.flush();
+			}
+
+			assertTrue(serverSide.disconnected.poll(5, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void server_disconnects_client_sending_oversized_frame() throws Exception {
+		try (Socket hostile = new Socket("localhost", port)) {
+			assertNotNull(serverSide.output.poll(5, TimeUnit.SECONDS));
+
+			DataOutputStream out = new DataOutputStream(hostile.getOutputStream());
+			out.writeInt(0x3FFFFFFF);
+			out.flush();
+
+			assertTrue(serverSide.disconnected.poll(5, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void server_disconnects_client_sending_compressed_frame_inflating_too_much() throws Exception {
+		server.maxInputSize = 1024 * 1024;
+
+		try (Socket hostile = new Socket("localhost", port)) {
+			assertNotNull(serverSide.output.poll(5, TimeUnit.SECONDS));
+
+			// a few kilobytes inflating to 16 MiB of zeros
+			Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+			deflater.setInput(new byte[16 * 1024 * 1024]);
+			byte[] compressed = new byte[1024 * 1024];
+			int compressedSize = deflater.deflate(compressed, 0, compressed.length, Deflater.SYNC_FLUSH);
+			assertTrue(compressedSize < server.maxInputSize);
+
+			DataOutputStream out = new DataOutputStream(hostile.getOutputStream());
+			out.writeInt(0x80000000 | compressedSize);
+			out.write(compressed, 0, compressedSize);
+			out.flush();
+
+			assertTrue(serverSide.disconnected.poll(5, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void threaded_client_closes_socket_when_server_disconnects() throws Exception {
+		RecordingCommunicator listener = new RecordingCommunicator();
+		InspectedClient threaded = new InspectedClient(listener);
+
+		try (ServerSocket rawServer = new ServerSocket(0)) {
+			threaded.connect("localhost", rawServer.getLocalPort()).startThread();
+			rawServer.accept().close();
+
+			assertTrue(listener.disconnected.poll(5, TimeUnit.SECONDS));
+			assertFalse(threaded.isChannelOpen());
+		}
+	}
+
+	static int findFreePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	static class InspectedClient extends Client {
+		InspectedClient(RawConnectionCommunicator connectionListener) {
+			super(connectionListener);
+		}
+
+		boolean isChannelOpen() {
+			return channel.isOpen();
+		}
+	}
+
+	static class RecordingCommunicator implements RawConnectionCommunicator {
+		final LinkedBlockingQueue<RawConnectionOutputListener> output = new LinkedBlockingQueue<>();
+		final LinkedBlockingQueue<byte[]> received = new LinkedBlockingQueue<>();
+		final LinkedBlockingQueue<Boolean> disconnected = new LinkedBlockingQueue<>();
+		volatile RawConnectionOutputListener connectedOutput;
+
+		@Override
+		public void connected(SocketAddress remoteAddress, RawConnectionOutputListener output) {
+			connectedOutput = output;
+			this.output.add(output);
+		}
+
+		@Override
+		public void disconnected() {
+			disconnected.add(true);
+		}
+
+		@Override
+		public void bytesReceived(byte[] bytes, int offset, int length) {
+			received.add(Arrays.copyOfRange(bytes, offset, offset + length));
+		}
+	}
+}
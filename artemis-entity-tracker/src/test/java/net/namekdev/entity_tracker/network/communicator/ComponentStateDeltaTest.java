@@ -0,0 +1,358 @@
+package net.namekdev.entity_tracker.network.communicator;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import net.namekdev.entity_tracker.connectors.DummyWorldUpdateListener;
+import net.namekdev.entity_tracker.connectors.WorldController;
+import net.namekdev.entity_tracker.connectors.WorldUpdateInterfaceListener;
+import net.namekdev.entity_tracker.model.ComponentTypeInfo;
+import net.namekdev.entity_tracker.model.FieldInfo;
+import net.namekdev.entity_tracker.network.base.RawConnectionOutputListener;
+import net.namekdev.entity_tracker.utils.FieldsAccessor;
+import net.namekdev.entity_tracker.utils.ThreadAllocationCounter;
+import net.namekdev.entity_tracker.utils.serialization.NetworkSerialization;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.artemis.utils.IntBag;
+import com.artemis.utils.reflect.ClassReflection;
+import com.artemis.utils.reflect.Field;
+
+public class ComponentStateDeltaTest {
+	EntityTrackerCommunicator server;
+	ExternalInterfaceCommunicator client;
+	ComponentTypeInfo info;
+
+	final List<Integer> packetSizes = new ArrayList<Integer>();
+	final List<Object[]> receivedStates = new ArrayList<Object[]>();
+
+
+	@Before
+	public void setup() {
+		info = new ComponentTypeInfo(Position.class);
+		for (Field field : ClassReflection.getDeclaredFields(Position.class)) {
+			info.fields.add(FieldInfo.reflectField(field));
+		}
+		info.accessor = new FieldsAccessor(Position.class, info.fields);
+		info.index = 0;
+
+		client = new ExternalInterfaceCommunicator(new StateRecorder());
+		client.connected(null, new NoOutput());
+
+		server = new EntityTrackerCommunicator();
+		server.connected(null, new RawConnectionOutputListener() {
+			@Override
+			public void send(byte[] buffer, int offset, int length) {
+				packetSizes.add(length);
+				client.bytesReceived(buffer, offset, length);
+			}
+
+			@Override
+			public void flush() {
+			}
+		});
+		server.addedComponentType(0, info);
+		packetSizes.clear();
+	}
+
+	@Test
+	public void only_changed_fields_are_sent() {
+		Position pos = new Position();
+		pos.x = 1;
+		pos.y = 2;
+		server.updatedComponentState(5, info, pos);
+
+		pos.x = 3;
+		server.updatedComponentState(5, info, pos);
+
+		// packet type, varint entity id and component index, two bitmaps and a single float
+		assertEquals(1 + 1 + 1 + 1 + 1 + 4, (int) packetSizes.get(1));
+
+		assertEquals(2, receivedStates.size());
+		assertEquals(3f, receivedStates.get(1)[0]);
+		assertEquals(2f, receivedStates.get(1)[1]);
+		assertEquals("label", receivedStates.get(1)[2]);
+	}
+
+	@Test
+	public void unchanged_state_is_not_sent() {
+		Position pos = new Position();
+		server.updatedComponentState(5, info, pos);
+		server.updatedComponentState(5, info, pos);
+
+		assertEquals(1, packetSizes.size());
+	}
+
+	@Test
+	public void nulled_field_is_sent_as_absent() {
+		Position pos = new Position();
+		server.updatedComponentState(5, info, pos);
+
+		pos.label = null;
+		server.updatedComponentState(5, info, pos);
+
+		assertEquals(2, receivedStates.size());
+		assertNull(receivedStates.get(1)[2]);
+	}
+
+	@Test
+	public void deleted_entity_state_is_sent_whole_again() {
+		Position pos = new Position();
+		server.updatedComponentState(5, info, pos);
+		int fullSize = packetSizes.get(0);
+
+		server.deletedEntity(5);
+		server.updatedComponentState(5, info, pos);
+
+		assertEquals(fullSize, (int) packetSizes.get(2));
+		assertEquals("label", receivedStates.get(1)[2]);
+	}
+
+	@Test
+	public void deleted_entities_states_of_every_type_are_forgotten() {
+		ComponentTypeInfo otherInfo = new ComponentTypeInfo(Position.class);
+		otherInfo.fields.addAll(info.fields);
+		otherInfo.accessor = info.accessor;
+		otherInfo.index = 3;
+		server.addedComponentType(3, otherInfo);
+
+		Position pos = new Position();
+		server.updatedComponentState(5, info, pos);
+		server.updatedComponentState(5, otherInfo, pos);
+		server.updatedComponentState(6, otherInfo, pos);
+
+		IntBag deletedIds = new IntBag();
+		deletedIds.add(5);
+		deletedIds.add(6);
+		server.deletedEntities(deletedIds);
+		packetSizes.clear();
+
+		server.updatedComponentState(5, info, pos);
+		server.updatedComponentState(5, otherInfo, pos);
+		server.updatedComponentState(6, otherInfo, pos);
+		assertEquals(3, packetSizes.size());
+		assertEquals(6, receivedStates.size());
+	}
+
+	@Test
+	public void bulk_entities_are_split_only_by_entities_count() {
+		IntBag ids = new IntBag(), compositionIds = new IntBag();
+		for (int i = 0; i < 70000; ++i) {
+			ids.add(i);
+			compositionIds.add(0);
+		}
+
+		server.addedEntities(ids, compositionIds);
+		assertEquals(2, packetSizes.size());
+
+		server.deletedEntities(ids);
+		assertEquals(4, packetSizes.size());
+	}
+
+	@Test
+	public void requests_are_applied_by_listener_thread() {
+		final List<Integer> requestedIds = new ArrayList<Integer>();
+		server.injectWorldController(new WorldController() {
+			@Override
+			public void requestComponentState(int entityId, int componentIndex) {
+				requestedIds.add(entityId);
+			}
+
+			@Override
+			public void setSystemState(String name, boolean isOn) {
+			}
+
+			@Override
+			public void setComponentFieldValue(int entityId, int componentIndex, int fieldIndex, Object value) {
+			}
+
+			@Override
+			public void watchComponent(int entityId, int componentIndex, int tickInterval) {
+			}
+
+			@Override
+			public void unwatchComponent(int entityId, int componentIndex, int tickInterval) {
+			}
+		});
+
+		ExternalInterfaceCommunicator requester = new ExternalInterfaceCommunicator(new StateRecorder());
+		requester.connected(null, new RawConnectionOutputListener() {
+			@Override
+			public void send(byte[] buffer, int offset, int length) {
+				server.bytesReceived(buffer, offset, length);
+			}
+
+			@Override
+			public void flush() {
+			}
+		});
+		requester.requestComponentState(5, 0);
+		assertEquals(0, requestedIds.size());
+
+		server.tickEnded();
+		assertEquals(1, requestedIds.size());
+		assertEquals(5, (int) requestedIds.get(0));
+	}
+
+	@Test
+	public void wrapper_and_unknown_fields_are_sent() {
+		ComponentTypeInfo boxedInfo = new ComponentTypeInfo(Boxed.class);
+		for (Field field : ClassReflection.getDeclaredFields(Boxed.class)) {
+			boxedInfo.fields.add(FieldInfo.reflectField(field));
+		}
+		boxedInfo.accessor = new FieldsAccessor(Boxed.class, boxedInfo.fields);
+		boxedInfo.index = 1;
+		server.addedComponentType(1, boxedInfo);
+
+		assertEquals(NetworkSerialization.TYPE_INT, boxedInfo.fields.get(0).valueType);
+		assertEquals(NetworkSerialization.TYPE_FLOAT, boxedInfo.fields.get(1).valueType);
+
+		Boxed boxed = new Boxed();
+		server.updatedComponentState(5, boxedInfo, boxed);
+
+		Object[] values = receivedStates.get(0);
+		assertEquals(3, values[0]);
+		assertNull(values[1]);
+		assertEquals(7, values[2]);
+		assertEquals(NetworkSerialization.TYPE_UNKNOWN, values[3]);
+
+		boxed.scale = 2f;
+		server.updatedComponentState(5, boxedInfo, new Object[] { boxed.count, boxed.scale, boxed.reference, boxed.other });
+		values = receivedStates.get(1);
+		assertEquals(3, values[0]);
+		assertEquals(2f, values[1]);
+		assertEquals(7, values[2]);
+	}
+
+	@Test
+	public void buffer_is_released_by_listener_thread() {
+		byte[] buffer = server._serializer.getBuffer();
+		server.disconnected();
+
+		// events which were on the way are still sent by listener thread
+		server.addedEntity(5, 0);
+		assertSame(buffer, server._serializer.getBuffer());
+
+		server.tickEnded();
+		assertNull(server._serializer.getBuffer());
+	}
+
+	@Test
+	public void interface_buffer_is_not_released_while_sending() throws Exception {
+		final CountDownLatch sending = new CountDownLatch(1), sendRelease = new CountDownLatch(1);
+		final ExternalInterfaceCommunicator requester = new ExternalInterfaceCommunicator(new StateRecorder());
+		requester.connected(null, new NoOutput() {
+			@Override
+			public void send(byte[] buffer, int offset, int length) {
+				if (sending.getCount() > 0 && buffer[offset] == Communicator.TYPE_REQUEST_COMPONENT_STATE) {
+					sending.countDown();
+					try {
+						sendRelease.await();
+					}
+					catch (InterruptedException e) { }
+				}
+			}
+		});
+
+		Thread requesting = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				requester.requestComponentState(5, 0);
+			}
+		});
+		requesting.start();
+		sending.await();
+
+		Thread disconnecting = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				requester.disconnected();
+			}
+		});
+		disconnecting.start();
+		disconnecting.join(100);
+		assertTrue(disconnecting.isAlive());
+		assertNotNull(requester._serializer.getBuffer());
+
+		sendRelease.countDown();
+		disconnecting.join(5000);
+		requesting.join(5000);
+		assertNull(requester._serializer.getBuffer());
+	}
+
+	@Test
+	public void entity_churn_doesnt_allocate() {
+		ThreadAllocationCounter counter = ThreadAllocationCounter.create();
+		assumeNotNull(counter);
+
+		EntityTrackerCommunicator communicator = new EntityTrackerCommunicator();
+		communicator.connected(null, new NoOutput());
+		communicator.addedComponentType(0, info);
+		Position pos = new Position();
+
+		// buffers and pooled states grow during first rounds
+		churnEntities(communicator, pos, 1000);
+
+		final int rounds = 1000;
+		long start = counter.getAllocatedBytes();
+		churnEntities(communicator, pos, rounds);
+		long allocated = counter.getAllocatedBytesSince(start);
+
+		assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+	}
+
+	private void churnEntities(EntityTrackerCommunicator communicator, Position pos, int rounds) {
+		for (int round = 0; round < rounds; ++round) {
+			pos.x = round;
+
+			for (int id = 0; id < 100; ++id) {
+				communicator.addedEntity(id, 0);
+				communicator.updatedComponentState(id, info, pos);
+			}
+			for (int id = 0; id < 100; ++id) {
+				communicator.deletedEntity(id);
+			}
+			communicator.tickEnded();
+		}
+	}
+
+
+	public static class Position {
+		public float x, y;
+		public String label = "label";
+	}
+
+	public static class Boxed {
+		public Integer count = 3;
+		public Float scale;
+		public Object reference = 7;
+		public Object other = new Object();
+	}
+
+	class StateRecorder extends DummyWorldUpdateListener implements WorldUpdateInterfaceListener {
+		@Override
+		public void updatedComponentState(int entityId, int componentIndex, Object[] values) {
+			receivedStates.add(values.clone());
+		}
+
+		@Override
+		public void disconnected() {
+		}
+	}
+
+	static class NoOutput implements RawConnectionOutputListener {
+		@Override
+		public void send(byte[] buffer, int offset, int length) {
+		}
+
+		@Override
+		public void flush() {
+		}
+	}
+}
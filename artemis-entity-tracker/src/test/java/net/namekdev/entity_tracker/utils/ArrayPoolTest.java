@@ -2,8 +2,6 @@ package net.namekdev.entity_tracker.utils;
 
 import static org.junit.Assert.*;
 
-import java.util.LinkedList;
-
 import org.junit.Test;
 
 public class ArrayPoolTest {
@@ -39,7 +37,6 @@ public class ArrayPoolTest {
 	@Test
 	public void no_duplicates() {
 		ArrayPool<Integer> pool = new ArrayPool<>(Integer.class);
-		LinkedList<Integer[]> arrays = (LinkedList<Integer[]>) ReflectionUtils.getHiddenFieldValue(ArrayPool.class, "_arrays", pool);
 
 		int[] sizes = new int[] {
 			1, 2, 3, 2, 3, 1
@@ -48,28 +45,85 @@ public class ArrayPoolTest {
 			pool.free(pool.obtain(size, true));
 		}
 
-		assertEquals(3, arrays.size());
+		ArrayPool.Statistics stats = pool.getStatistics();
+		assertEquals(3, stats.pooledCount);
+		assertEquals(3, stats.createdCount);
+		assertEquals(3, stats.reusedCount);
 	}
 
 	@Test
-	public void is_internally_sorted() {
+	public void smallest_bigger_array_is_obtained() {
 		ArrayPool<Integer> pool = new ArrayPool<>(Integer.class);
-		LinkedList<Integer[]> arrays = (LinkedList<Integer[]>) ReflectionUtils.getHiddenFieldValue(ArrayPool.class, "_arrays", pool);
 
 		int[] sizes = new int[] {
-			1, 2, 3, 2, 3, 1, 4, 1, 5, 8, 7, 6, 7, 2
+			8, 3, 5, 7
 		};
 		for (int size : sizes) {
 			pool.free(pool.obtain(size, true));
 		}
 
-		assertEquals(8, arrays.size());
+		assertEquals(5, pool.obtain(4, false).length);
+		assertEquals(7, pool.obtain(4, false).length);
+		assertEquals(8, pool.obtain(4, false).length);
+		assertEquals(4, pool.obtain(4, false).length);
+		assertEquals(3, pool.obtain(1, false).length);
+		assertEquals(0, pool.getStatistics().pooledCount);
+	}
+
+	@Test
+	public void arrays_over_limit_are_dropped() {
+		ArrayPool<Integer> pool = new ArrayPool<>(Integer.class, false, 2);
+
+		for (int i = 0; i < 3; ++i) {
+			pool.free(new Integer[4]);
+		}
+		pool.free(new Integer[ArrayPool.MAX_POOLED_SIZE + 1]);
+
+		ArrayPool.Statistics stats = pool.getStatistics();
+		assertEquals(2, stats.pooledCount);
+		assertEquals(1, stats.droppedCount);
+	}
 
-		int prevSize = arrays.get(0).length;
-		for (int i = 1; i < arrays.size(); ++i) {
-			if (arrays.get(i).length < prevSize) {
-				fail("Internal array is not sorted.");
+	@Test
+	public void every_thread_has_own_cache() throws Exception {
+		final ArrayPool<Integer> pool = new ArrayPool<>(Integer.class, true, 4);
+		final Integer[] freed = pool.obtain(4, true);
+		pool.free(freed);
+
+		final Integer[][] obtainedByOtherThread = new Integer[1][];
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				obtainedByOtherThread[0] = pool.obtain(4, true);
 			}
+		});
+		thread.start();
+		thread.join();
+
+		assertNotSame(freed, obtainedByOtherThread[0]);
+		assertSame(freed, pool.obtain(4, true));
+		assertEquals(3, pool.getStatistics().obtainedCount);
+	}
+
+	@Test
+	public void arrays_of_dead_threads_are_forgotten() throws Exception {
+		final ArrayPool<Integer> pool = new ArrayPool<>(Integer.class, true, 4);
+		pool.free(pool.obtain(4, true));
+
+		for (int i = 0; i < 10; ++i) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					pool.free(pool.obtain(8, true));
+				}
+			});
+			thread.start();
+			thread.join();
 		}
+
+		ArrayPool.Statistics stats = pool.getStatistics();
+		assertEquals(1, stats.pooledCount);
+		assertEquals(11, stats.obtainedCount);
+		assertEquals(11, stats.createdCount);
 	}
 }
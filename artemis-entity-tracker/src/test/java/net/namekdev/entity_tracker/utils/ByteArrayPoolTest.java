@@ -0,0 +1,54 @@
+package net.namekdev.entity_tracker.utils;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ByteArrayPoolTest {
+
+	@Test
+	public void sizes_are_rounded_up_to_power_of_two() {
+		ByteArrayPool pool = new ByteArrayPool();
+
+		assertEquals(16384, pool.obtain(10240).length);
+		assertEquals(1024, pool.obtain(1024).length);
+		assertEquals(1, pool.obtain(0).length);
+	}
+
+	@Test
+	public void freed_arrays_are_reused() {
+		ByteArrayPool pool = new ByteArrayPool();
+
+		byte[] arr = pool.obtain(100);
+		pool.free(arr);
+
+		assertTrue(arr == pool.obtain(128));
+		assertTrue(arr != pool.obtain(128));
+	}
+
+	@Test
+	public void array_freed_twice_is_handed_out_once() {
+		ByteArrayPool pool = new ByteArrayPool();
+
+		byte[] arr = pool.obtain(100);
+		pool.free(arr);
+		pool.free(arr);
+
+		assertTrue(arr == pool.obtain(128));
+		assertTrue(arr != pool.obtain(128));
+	}
+
+	@Test
+	public void retained_arrays_are_limited() {
+		ByteArrayPool pool = new ByteArrayPool(1);
+
+		byte[] arr1 = new byte[64], arr2 = new byte[64];
+		pool.free(arr1);
+		pool.free(arr2);
+		pool.free(new byte[100]);
+
+		assertTrue(arr1 == pool.obtain(64));
+		assertTrue(arr2 != pool.obtain(64));
+		assertEquals(128, pool.obtain(100).length);
+	}
+}
@@ -0,0 +1,140 @@
+package net.namekdev.entity_tracker.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Vector;
+
+import net.namekdev.entity_tracker.model.FieldInfo;
+import net.namekdev.entity_tracker.utils.serialization.NetworkDeserializer;
+import net.namekdev.entity_tracker.utils.serialization.NetworkSerialization;
+import net.namekdev.entity_tracker.utils.serialization.NetworkSerializer;
+import net.namekdev.entity_tracker.utils.serialization.NetworkSerializer.SerializeResult;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.artemis.utils.reflect.ClassReflection;
+import com.artemis.utils.reflect.Field;
+
+public class FieldsAccessorTest {
+	Vector<FieldInfo> fields;
+	FieldsAccessor accessor;
+	Sample sample;
+
+
+	@Before
+	public void setup() {
+		fields = new Vector<FieldInfo>();
+		for (Field field : ClassReflection.getDeclaredFields(Sample.class)) {
+			fields.add(FieldInfo.reflectField(field));
+		}
+
+		accessor = new FieldsAccessor(Sample.class, fields);
+		sample = new Sample();
+		sample.bits.set(3);
+	}
+
+	@Test
+	public void writes_same_bytes_as_boxed_values() {
+		Object[] values = new Object[accessor.getFieldCount()];
+		accessor.getValues(sample, values);
+
+		NetworkSerializer boxed = new NetworkSerializer();
+		NetworkSerializer direct = new NetworkSerializer();
+		boxed.reset();
+		direct.reset();
+
+		for (int i = 0; i < values.length; ++i) {
+			FieldInfo field = fields.get(i);
+			boolean isBoxedPresent = values[i] != null && !field.isArray && boxed.addRawValue(values[i], field.valueType);
+
+			assertEquals(field.fieldName, isBoxedPresent, accessor.writeRaw(sample, i, direct));
+		}
+
+		SerializeResult expected = boxed.getResult();
+		SerializeResult actual = direct.getResult();
+
+		assertArrayEquals(
+			Arrays.copyOf(expected.buffer, expected.size),
+			Arrays.copyOf(actual.buffer, actual.size)
+		);
+	}
+
+	@Test
+	public void raw_values_are_read_by_schema() {
+		NetworkSerializer serializer = new NetworkSerializer();
+		serializer.reset();
+
+		boolean[] isPresent = new boolean[accessor.getFieldCount()];
+		for (int i = 0; i < isPresent.length; ++i) {
+			isPresent[i] = accessor.writeRaw(sample, i, serializer);
+		}
+		SerializeResult result = serializer.getResult();
+
+		Object[] values = new Object[isPresent.length];
+		NetworkDeserializer deserializer = new NetworkDeserializer();
+		deserializer.setSource(result.buffer, 0, result.size);
+		for (int i = 0; i < isPresent.length; ++i) {
+			if (isPresent[i]) {
+				values[i] = deserializer.readRawValue(fields.get(i).valueType);
+			}
+		}
+
+		assertEquals(result.size, deserializer.getConsumedBytesCount());
+		assertEquals((byte) -3, values[indexOf("b")]);
+		assertEquals((short) 300, values[indexOf("s")]);
+		assertEquals(-70000, values[indexOf("i")]);
+		assertEquals(1L << 40, values[indexOf("l")]);
+		assertEquals(true, values[indexOf("flag")]);
+		assertEquals(1.25f, values[indexOf("f")]);
+		assertEquals(0.5, values[indexOf("d")]);
+		assertEquals('\u0144', values[indexOf("c")]);
+		assertEquals('x', values[indexOf("boxedChar")]);
+		assertEquals(sample.bits, values[indexOf("bits")]);
+		assertNull(values[indexOf("name")]);
+		assertNull(values[indexOf("array")]);
+		// unknown types are tagged, as much as it's known about them
+		assertEquals(NetworkSerialization.TYPE_UNKNOWN, values[indexOf("reference")]);
+	}
+
+	@Test
+	public void reads_and_writes_fields() {
+		int index = indexOf("f");
+		accessor.set(sample, index, 2.5f);
+
+		assertEquals(2.5f, sample.f, 0);
+		assertEquals(2.5f, accessor.get(sample, index));
+		assertNull(accessor.get(sample, indexOf("name")));
+		assertEquals(7, accessor.get(sample, indexOf("counter")));
+	}
+
+	private int indexOf(String fieldName) {
+		for (int i = 0; i < fields.size(); ++i) {
+			if (fields.get(i).fieldName.equals(fieldName)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException(fieldName);
+	}
+
+
+	static class Sample {
+		static int counter = 7;
+		byte b = -3;
+		short s = 300;
+		int i = -70000;
+		long l = 1L << 40;
+		boolean flag = true;
+		float f = 1.25f;
+		double d = 0.5;
+		char c = '\u0144';
+		Character boxedChar = 'x';
+		String name;
+		BitSet bits = new BitSet();
+		int[] array = new int[3];
+		Object reference = new Object();
+		Integer boxedInt = 5;
+	}
+}
@@ -0,0 +1,62 @@
+package net.namekdev.entity_tracker.utils;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TimeHistogramTest {
+
+	@Test
+	public void small_values_are_exact() {
+		TimeHistogram histogram = new TimeHistogram();
+		for (int i = 1; i <= 10; ++i) {
+			histogram.record(i);
+		}
+
+		assertEquals(10, histogram.getTotalCount());
+		assertEquals(5, histogram.getValueAtPercentile(50));
+		assertEquals(10, histogram.getValueAtPercentile(99));
+		assertEquals(10, histogram.getMax());
+	}
+
+	@Test
+	public void percentiles_keep_relative_precision() {
+		TimeHistogram histogram = new TimeHistogram();
+		for (int i = 1; i <= 1000; ++i) {
+			histogram.record(i * 1000L);
+		}
+
+		long p50 = histogram.getValueAtPercentile(50);
+		long p99 = histogram.getValueAtPercentile(99);
+
+		assertTrue(p50 >= 500000 && p50 < 500000 * 1.07);
+		assertTrue(p99 >= 990000 && p99 <= 1000000);
+		assertEquals(1000000, histogram.getMax());
+	}
+
+	@Test
+	public void every_value_falls_into_bucket_covering_it() {
+		long[] values = { 0, 15, 16, 17, 31, 32, 1000, 123456789, Long.MAX_VALUE };
+
+		for (long value : values) {
+			int index = TimeHistogram.bucketIndex(value);
+			assertTrue(value <= TimeHistogram.bucketHighestValue(index));
+
+			if (index > 0) {
+				assertTrue(value > TimeHistogram.bucketHighestValue(index - 1));
+			}
+		}
+	}
+
+	@Test
+	public void reset_forgets_values() {
+		TimeHistogram histogram = new TimeHistogram();
+		histogram.record(1000);
+		histogram.reset();
+		histogram.record(10);
+
+		assertEquals(1, histogram.getTotalCount());
+		assertEquals(10, histogram.getValueAtPercentile(99));
+		assertEquals(10, histogram.getMax());
+	}
+}
@@ -1,6 +1,7 @@
 package net.namekdev.entity_tracker.utils.serialization;
 
-import static org.junit.Assert.assertEquals;
+import static net.namekdev.entity_tracker.utils.serialization.NetworkSerialization.*;
+import static org.junit.Assert.*;
 
 import java.util.BitSet;
 
@@ -48,6 +49,62 @@ public class NetworkSerializationTest {
 		assertEquals(result.size, deserializer.getConsumedBytesCount());
 	}
 
+	@Test
+	public void testVarInts() {
+		int[] values = { 0, 1, -1, 63, -64, 64, 127, 128, 16383, 16384, Integer.MAX_VALUE, Integer.MIN_VALUE };
+
+		serializer.reset();
+		for (int value : values) {
+			serializer.addRawVarInt(value);
+			serializer.addRawSignedVarInt(value);
+			serializer.addInt(value);
+		}
+		serializer.compactInts = false;
+		serializer.addInt(-5);
+		SerializeResult result = serializer.getResult();
+
+		deserializer.setSource(result.buffer, 0, result.size);
+		for (int value : values) {
+			assertEquals(value, deserializer.readRawVarInt());
+			assertEquals(value, deserializer.readRawSignedVarInt());
+			assertEquals(value, deserializer.readInt());
+		}
+		assertEquals(-5, deserializer.readInt());
+		assertEquals(result.size, deserializer.getConsumedBytesCount());
+	}
+
+	@Test
+	public void testVarLongs() {
+		long[] values = { 0, 1, 127, 128, 1L << 35, Long.MAX_VALUE, -1 };
+
+		serializer.reset();
+		for (long value : values) {
+			serializer.addRawVarLong(value);
+		}
+		SerializeResult result = serializer.getResult();
+
+		deserializer.setSource(result.buffer, 0, result.size);
+		for (long value : values) {
+			assertEquals(value, deserializer.readRawVarLong());
+		}
+		assertEquals(result.size, deserializer.getConsumedBytesCount());
+	}
+
+	@Test
+	public void testVarIntSizes() {
+		serializer.reset();
+		serializer.addRawVarInt(127);
+		assertEquals(1, serializer.getPosition());
+		serializer.addRawVarInt(128);
+		assertEquals(3, serializer.getPosition());
+		serializer.addRawSignedVarInt(-64);
+		assertEquals(4, serializer.getPosition());
+		serializer.addRawVarInt(-1);
+		assertEquals(9, serializer.getPosition());
+		serializer.addInt(3);
+		assertEquals(11, serializer.getPosition());
+	}
+
 	@Test
 	public void testBitsets() {
 		BitSet bitset1 = new BitSet();
@@ -92,4 +149,120 @@ public class NetworkSerializationTest {
 
 		assertEquals(result.size, deserializer.getConsumedBytesCount());
 	}
+
+	@Test
+	public void testBitsetEncodings() {
+		BitSet sparse = new BitSet();
+		sparse.set(3);
+		sparse.set(100000);
+
+		BitSet runs = new BitSet();
+		runs.set(10, 50000);
+		runs.set(70000, 70064);
+
+		BitSet dense = new BitSet();
+		for (int i = 0; i < 40000; i += 3) {
+			dense.set(i);
+		}
+
+		serializer.reset();
+		serializer.addBitSet(new BitSet());
+		int emptySize = serializer.getPosition();
+		serializer.addBitSet(sparse);
+		int sparseSize = serializer.getPosition() - emptySize;
+		serializer.addBitSet(runs);
+		int runsSize = serializer.getPosition() - emptySize - sparseSize;
+		serializer.addBitSet(dense);
+		SerializeResult result = serializer.getResult();
+
+		// tag, encoding, count and then two indices or two ranges
+		assertEquals(6, emptySize);
+		assertEquals(6 + 2 * 4, sparseSize);
+		assertEquals(6 + 2 * 8, runsSize);
+
+		deserializer.setSource(result.buffer, 0, result.size);
+		assertEquals(new BitSet(), deserializer.readBitSet());
+		assertEquals(sparse, deserializer.readBitSet());
+		assertEquals(runs, deserializer.readBitSet());
+		assertEquals(dense, deserializer.readBitSet());
+		assertEquals(result.size, deserializer.getConsumedBytesCount());
+	}
+
+	@Test
+	public void testFarSparseBitsetIsSentAsWords() {
+		BitSet far = new BitSet();
+		far.set(MAX_SPARSE_BITSET_INDEX + 1);
+
+		serializer.reset();
+		serializer.addBitSet(far);
+		SerializeResult result = serializer.getResult();
+		assertEquals(BITSET_WORDS, result.buffer[1]);
+
+		deserializer.setSource(result.buffer, 0, result.size);
+		assertEquals(far, deserializer.readBitSet());
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testMalformedBitsetIndexIsRejected() {
+		serializer.reset();
+		serializer.addRawByte(TYPE_BITSET);
+		serializer.addRawByte(BITSET_INDICES);
+		serializer.addRawInt(1);
+		serializer.addRawInt(Integer.MAX_VALUE);
+		SerializeResult result = serializer.getResult();
+
+		deserializer.setSource(result.buffer, 0, result.size);
+		deserializer.readBitSet();
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testMalformedBitsetRangeIsRejected() {
+		serializer.reset();
+		serializer.addRawByte(TYPE_BITSET);
+		serializer.addRawByte(BITSET_RUNS);
+		serializer.addRawInt(1);
+		serializer.addRawInt(0);
+		serializer.addRawInt(Integer.MAX_VALUE);
+		SerializeResult result = serializer.getResult();
+
+		deserializer.setSource(result.buffer, 0, result.size);
+		deserializer.readBitSet();
+	}
+
+	@Test
+	public void testGrowingBuffer() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 30000; ++i) {
+			sb.append((char) ('a' + i % 26));
+		}
+		String text = sb.toString();
+
+		BitSet bitset = new BitSet();
+		bitset.set(1000);
+
+		serializer.reset(new byte[16]);
+		serializer.addString(text);
+		serializer.addBitSet(bitset);
+		serializer.addLong(0x12345678_9ABCDEF0L);
+		SerializeResult result = serializer.getResult();
+		assertTrue(result.size > 30000);
+
+		deserializer.setSource(result.buffer, 0, result.size);
+		assertEquals(text, deserializer.readString());
+		assertEquals(bitset, deserializer.readBitSet());
+		assertEquals(0x12345678_9ABCDEF0L, deserializer.readLong());
+		assertEquals(result.size, deserializer.getConsumedBytesCount());
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testReadingPastPacketEnd() {
+		serializer.reset();
+		serializer.addInt(5);
+		serializer.addInt(6);
+		SerializeResult result = serializer.getResult();
+
+		deserializer.setSource(result.buffer, 0, result.size - 1);
+		deserializer.readInt();
+		deserializer.readInt();
+	}
 }